@@ -13,14 +13,17 @@ javac -d build/classes \
     src/main/java/com/groovegarden/ui/*.java \
     src/main/java/com/groovegarden/model/*.java \
     src/main/java/com/groovegarden/algo/*.java \
+    src/main/java/com/groovegarden/config/*.java \
     src/main/java/com/groovegarden/music/*.java \
     src/main/java/com/groovegarden/score/*.java \
-    src/main/java/com/groovegarden/util/*.java
+    src/main/java/com/groovegarden/util/*.java \
+    src/main/java/com/groovegarden/bench/*.java
 
 if [ $? -eq 0 ]; then
     echo "Compilation successful!"
     echo "You can now run the application with:"
     echo "java -cp build/classes com.groovegarden.MainApp"
+    echo "Audio renders also need --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED"
 else
     echo "Compilation failed!"
     exit 1
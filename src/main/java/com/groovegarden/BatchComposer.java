@@ -0,0 +1,240 @@
+package com.groovegarden;
+
+import com.groovegarden.algo.ContextTrie;
+import com.groovegarden.config.AppConfig;
+import com.groovegarden.model.GridModel;
+import com.groovegarden.music.GrooveImporter;
+import com.groovegarden.music.OfflineRenderer;
+import com.groovegarden.music.Scale;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Headless command line that renders many compositions concurrently.
+ *
+ * Every combination of seed grid, scale and tempo is rendered the requested
+ * number of times. Each job owns its garden and engine, so jobs share
+ * nothing and scale with cores, and draws its seed from a
+ * {@link SplittableRandom} split off the batch seed in job order, so the
+ * same arguments produce the same files however the jobs are scheduled. A
+ * manifest lists each file with the seed it was rendered from.
+ */
+public class BatchComposer {
+    private static final Logger LOGGER = Logger.getLogger(BatchComposer.class.getName());
+
+    private static final String USAGE = "Usage: BatchComposer [--grids file|random:SIZE|import:DIR,...] [--scales name,...]"
+            + " [--tempos bpm,...] [--variants n] [--minutes m] [--seed s] [--threads n] [--out dir]";
+
+    /**
+     * A seed grid: layer per cell, or -1 where the cell is off, and the
+     * melody model that came with it, if any
+     */
+    private static final class SeedGrid {
+        final String name;
+        final int[][] layers;
+        final ContextTrie melodyModel;
+
+        SeedGrid(String name, int[][] layers) {
+            this(name, layers, null);
+        }
+
+        SeedGrid(String name, int[][] layers, ContextTrie melodyModel) {
+            this.name = name;
+            this.layers = layers;
+            this.melodyModel = melodyModel;
+        }
+
+        GridModel toModel() {
+            GridModel model = new GridModel(layers.length);
+            for (int row = 0; row < layers.length; row++) {
+                for (int col = 0; col < layers.length; col++) {
+                    if (layers[row][col] < 0) continue;
+                    model.toggleCell(row, col);
+                    for (int layer = 0; layer < layers[row][col]; layer++) {
+                        model.cycleCellLayer(row, col);
+                    }
+                }
+            }
+            return model;
+        }
+    }
+
+    private static final class Job {
+        final SeedGrid grid;
+        final String scale;
+        final int tempo;
+        final long seed;
+        final File file;
+
+        Job(SeedGrid grid, String scale, int tempo, long seed, File file) {
+            this.grid = grid;
+            this.scale = scale;
+            this.tempo = tempo;
+            this.seed = seed;
+            this.file = file;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        AppConfig.initialize();
+
+        String grids = "random:" + AppConfig.getInt("grid.size");
+        String scales = AppConfig.getString("music.default.scale");
+        String tempos = AppConfig.getString("music.default.tempo");
+        int variants = 1;
+        double minutes = 3;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path out = Paths.get("batch");
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--grids": grids = value; break;
+                case "--scales": scales = value; break;
+                case "--tempos": tempos = value; break;
+                case "--variants": variants = Integer.parseInt(value); break;
+                case "--minutes": minutes = Double.parseDouble(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--out": out = Paths.get(value); break;
+                default:
+                    System.err.println(USAGE);
+                    System.exit(2);
+            }
+        }
+        Files.createDirectories(out);
+
+        // Jobs and their seeds are fixed here, in order, before anything runs
+        SplittableRandom batchRandom = new SplittableRandom(seed);
+        List<Job> jobs = new ArrayList<>();
+        for (String gridSpec : grids.split(",")) {
+            SeedGrid grid = loadGrid(gridSpec.trim(), batchRandom.split());
+            for (String scale : scales.split(",")) {
+                scale = scale.trim();
+                if (!Scale.getAvailableScales().contains(scale)) {
+                    System.err.println("Unknown scale '" + scale + "', expected one of " + Scale.getAvailableScales());
+                    System.exit(2);
+                }
+                for (String tempoValue : tempos.split(",")) {
+                    int tempo = Integer.parseInt(tempoValue.trim());
+                    for (int variant = 0; variant < variants; variant++) {
+                        String name = String.format("%s_%s_%d_%03d.mid",
+                                grid.name, scale.replace(' ', '-'), tempo, variant);
+                        jobs.add(new Job(grid, scale, tempo, batchRandom.split().nextLong(), out.resolve(name).toFile()));
+                    }
+                }
+            }
+        }
+
+        double renderMinutes = minutes;
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (Job job : jobs) {
+            results.add(pool.submit(() -> {
+                OfflineRenderer renderer = new OfflineRenderer(job.tempo, job.scale);
+                renderer.setMelodyModel(job.grid.melodyModel);
+                renderer.render(job.grid.toModel(), renderer.stepsFor(renderMinutes), job.seed, job.file);
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        try (PrintWriter manifest = new PrintWriter(Files.newBufferedWriter(out.resolve("manifest.csv")))) {
+            manifest.println("file,grid,scale,tempo,seed");
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                try {
+                    results.get(i).get();
+                    manifest.printf("%s,%s,%s,%d,%d%n", job.file.getName(), job.grid.name, job.scale, job.tempo, job.seed);
+                } catch (ExecutionException e) {
+                    failed++;
+                    LOGGER.warning("Failed to render " + job.file + ": " + e.getCause());
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        LOGGER.info(String.format("Rendered %d compositions of %.1f min (%d failed) on %d threads in %.2f s: "
+                        + "%.1f compositions/s, %.0fx realtime",
+                jobs.size() - failed, minutes, failed, threads, seconds,
+                (jobs.size() - failed) / seconds, (jobs.size() - failed) * minutes * 60 / seconds));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A text grid, one row per line with {@code .} for off and {@code r},
+     * {@code m} or {@code b} for a cell on the rhythm, melody or both layer;
+     * {@code random:SIZE} for a quarter-filled random garden; or
+     * {@code import:DIR} for the grooves of a directory of MIDI files,
+     * whose melodies also train the melody model
+     */
+    private static SeedGrid loadGrid(String spec, SplittableRandom random) throws IOException {
+        if (spec.startsWith("import:")) {
+            Path directory = Paths.get(spec.substring("import:".length()));
+            GrooveImporter importer = new GrooveImporter(AppConfig.getInt("grid.size"),
+                    AppConfig.getInt("melody.corpus.order"), AppConfig.getInt("melody.corpus.min.count"));
+            int[][] layers = importer.importDirectory(directory);
+            return new SeedGrid(String.valueOf(directory.getFileName()), layers, importer.getMelodyModel());
+        }
+        if (spec.startsWith("random:")) {
+            int size = Integer.parseInt(spec.substring("random:".length()));
+            GridModel model = new GridModel(size);
+            OfflineRenderer.scatterCells(model, random);
+            int[][] layers = model.getCellLayers();
+            boolean[][] active = model.getActiveCells();
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    if (!active[row][col]) layers[row][col] = -1;
+                }
+            }
+            return new SeedGrid("random" + size, layers);
+        }
+
+        Path path = Paths.get(spec);
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(path)) {
+            if (!line.isBlank()) lines.add(line.trim());
+        }
+        int size = lines.size();
+        for (String line : lines) {
+            size = Math.max(size, line.length());
+        }
+        if (size < GridModel.MIN_GRID_SIZE) {
+            throw new IOException("Empty grid: " + path);
+        }
+        int[][] layers = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            String line = row < lines.size() ? lines.get(row) : "";
+            for (int col = 0; col < size; col++) {
+                char cell = col < line.length() ? Character.toLowerCase(line.charAt(col)) : '.';
+                layers[row][col] = cell == 'r' ? GridModel.RHYTHM_LAYER
+                        : cell == 'm' ? GridModel.MELODY_LAYER
+                        : cell == 'b' ? GridModel.BOTH_LAYER
+                        : -1;
+            }
+        }
+        String name = path.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        return new SeedGrid(name, layers);
+    }
+}
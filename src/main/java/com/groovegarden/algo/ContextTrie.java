@@ -0,0 +1,228 @@
+package com.groovegarden.algo;
+
+import java.util.SplittableRandom;
+
+/**
+ * Compact variable-order Markov model stored as a trie in primitive arrays.
+ *
+ * The trie is keyed by the context read backwards, most recent symbol
+ * first, and each node holds the counts of the symbols that followed its
+ * context. Nodes are laid out breadth first, so the children of a node are
+ * contiguous and found by scanning at most one entry per symbol. Sampling
+ * walks to the longest known context and backs off towards the root until
+ * a context has a permitted continuation, without allocating.
+ *
+ * N-grams are identified by a long key: the context length in bits 56-59,
+ * context symbol j in bits {@code 52 - 4j} to {@code 55 - 4j} and the next
+ * symbol in bits 0-3. Sorting keys as longs therefore groups them by
+ * length, then context, then next symbol, which is the order
+ * {@link #build} expects.
+ */
+public final class ContextTrie {
+    public static final int MAX_ORDER = 12;
+    public static final int MAX_SYMBOLS = 16;
+
+    private final int order;
+    private final int symbols;
+
+    // Per node: its edge symbol, children range and continuation range
+    private final byte[] edge;
+    private final int[] childStart;
+    private final byte[] childCount;
+    private final int[] nextStart;
+    private final int[] total;
+
+    // Continuations, grouped by node
+    private final byte[] nextSymbol;
+    private final int[] nextCount;
+
+    private ContextTrie(int order, int symbols, int nodes, int entries) {
+        this.order = order;
+        this.symbols = symbols;
+        this.edge = new byte[nodes];
+        this.childStart = new int[nodes];
+        this.childCount = new byte[nodes];
+        this.nextStart = new int[nodes + 1];
+        this.total = new int[nodes];
+        this.nextSymbol = new byte[entries];
+        this.nextCount = new int[entries];
+    }
+
+    /**
+     * Key of the n-gram with this context and next symbol
+     */
+    public static long ngramKey(int length, long contextBits, int next) {
+        return (long) length << 56 | contextBits | next;
+    }
+
+    /**
+     * Context bits with the symbol at this position back from the next symbol, 0 being the most recent
+     */
+    public static long withContextSymbol(long contextBits, int position, int symbol) {
+        return contextBits | (long) symbol << (52 - 4 * position);
+    }
+
+    public static int keyLength(long key) {
+        return (int) (key >>> 56) & 0xF;
+    }
+
+    private static long contextOf(long key) {
+        return key & ~0xFL;
+    }
+
+    private static int contextSymbol(long key, int position) {
+        return (int) (key >>> (52 - 4 * position)) & 0xF;
+    }
+
+    /**
+     * Build from n-gram keys sorted ascending, with their counts.
+     *
+     * Every context must come with all its shorter suffixes, down to the
+     * empty context, which holds when counts were pruned by a threshold.
+     */
+    public static ContextTrie build(int order, int symbols, long[] keys, int[] counts, int size) {
+        if (order < 0 || order > MAX_ORDER) {
+            throw new IllegalArgumentException("Order must be between 0 and " + MAX_ORDER + ": " + order);
+        }
+        if (symbols < 1 || symbols > MAX_SYMBOLS) {
+            throw new IllegalArgumentException("Alphabet must have 1 to " + MAX_SYMBOLS + " symbols: " + symbols);
+        }
+        int nodes = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || contextOf(keys[i]) != contextOf(keys[i - 1])) nodes++;
+        }
+        ContextTrie trie = new ContextTrie(order, symbols, Math.max(1, nodes), size);
+        if (size == 0) return trie;
+        if (contextOf(keys[0]) != 0) {
+            throw new IllegalArgumentException("Missing the empty context");
+        }
+
+        // Nodes of the previous depth, to find each new node's parent by its context
+        long[] levelContexts = new long[nodes];
+        int levelFrom = 0;
+        int levelTo = 0;
+        int node = -1;
+        int parent = 0;
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            long context = contextOf(keys[i]);
+            if (node < 0 || context != levelContexts[node]) {
+                node++;
+                levelContexts[node] = context;
+                trie.nextStart[node] = i;
+                int length = keyLength(context);
+                if (length > depth) {
+                    // Parents of this level are the nodes of the previous one
+                    depth = length;
+                    levelFrom = levelTo;
+                    levelTo = node;
+                    parent = levelFrom;
+                }
+                if (length > 0) {
+                    int symbol = contextSymbol(context, length - 1);
+                    long parentContext = ((long) (length - 1) << 56)
+                            | (context & ~(0xFL << (52 - 4 * (length - 1))) & ((1L << 56) - 1));
+                    while (parent < levelTo && levelContexts[parent] != parentContext) {
+                        parent++;
+                    }
+                    if (parent == levelTo) {
+                        throw new IllegalArgumentException("Context without its suffix: " + Long.toHexString(context));
+                    }
+                    if (trie.childCount[parent] == 0) {
+                        trie.childStart[parent] = node;
+                    }
+                    trie.childCount[parent]++;
+                    trie.edge[node] = (byte) symbol;
+                }
+            }
+            trie.nextSymbol[i] = (byte) (keys[i] & 0xF);
+            trie.nextCount[i] = counts[i];
+            trie.total[node] += counts[i];
+        }
+        trie.nextStart[nodes] = size;
+        return trie;
+    }
+
+    /**
+     * Sample the symbol after a history, backing off to shorter contexts as needed
+     *
+     * @param history     symbols, most recent last
+     * @param length      how many entries of history to use
+     * @param allowedMask bit s set if symbol s may be returned
+     * @return a symbol, or -1 if even the empty context has no permitted continuation
+     */
+    public int sample(int[] history, int length, int allowedMask, SplittableRandom random) {
+        if (nextStart[edge.length] == 0) return -1;
+
+        // Longest context present in the trie
+        int depth = 0;
+        int node = 0;
+        while (depth < order && depth < length) {
+            int child = child(node, history[length - 1 - depth]);
+            if (child < 0) break;
+            node = child;
+            depth++;
+        }
+
+        while (true) {
+            int permitted = 0;
+            for (int i = nextStart[node]; i < nextStart[node + 1]; i++) {
+                if ((allowedMask >>> nextSymbol[i] & 1) != 0) permitted += nextCount[i];
+            }
+            if (permitted > 0) {
+                int pick = random.nextInt(permitted);
+                for (int i = nextStart[node]; i < nextStart[node + 1]; i++) {
+                    if ((allowedMask >>> nextSymbol[i] & 1) == 0) continue;
+                    pick -= nextCount[i];
+                    if (pick < 0) return nextSymbol[i];
+                }
+            }
+            if (depth == 0) return -1;
+            // Back off one symbol: walk again from the root to the shorter context
+            depth--;
+            node = 0;
+            for (int d = 0; d < depth; d++) {
+                node = child(node, history[length - 1 - d]);
+            }
+        }
+    }
+
+    private int child(int node, int symbol) {
+        if (symbol < 0 || symbol >= symbols) return -1;
+        int start = childStart[node];
+        for (int i = start; i < start + childCount[node]; i++) {
+            if (edge[i] == symbol) return i;
+        }
+        return -1;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public int getSymbolCount() {
+        return symbols;
+    }
+
+    public int getNodeCount() {
+        return edge.length;
+    }
+
+    public int getEntryCount() {
+        return nextSymbol.length;
+    }
+
+    /**
+     * Bytes held by the trie's arrays
+     */
+    public long getMemoryBytes() {
+        long nodes = edge.length;
+        return nodes * (1 + 4 + 1 + 4 + 4) + 4 + nextSymbol.length * 5L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("order %d, %d nodes, %d continuations, %.1f MB",
+                order, getNodeCount(), getEntryCount(), getMemoryBytes() / 1048576.0);
+    }
+}
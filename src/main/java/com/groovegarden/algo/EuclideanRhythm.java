@@ -1,5 +1,7 @@
 package com.groovegarden.algo;
 
+import java.util.Arrays;
+
 public class EuclideanRhythm {
     private int steps;
     private int pulses;
@@ -10,20 +12,25 @@ public class EuclideanRhythm {
     }
     
     public boolean[] generate() {
-        if (pulses == 0) {
-            return new boolean[steps];
-        }
-        
+        boolean[] result = new boolean[steps];
+        generate(result);
+        return result;
+    }
+    
+    /**
+     * Write the pattern into the first {@code steps} entries of the array, without allocating
+     */
+    public void generate(boolean[] result) {
         if (pulses == steps) {
-            boolean[] result = new boolean[steps];
-            for (int i = 0; i < steps; i++) {
-                result[i] = true;
-            }
-            return result;
+            Arrays.fill(result, 0, steps, true);
+            return;
+        }
+        Arrays.fill(result, 0, steps, false);
+        if (pulses == 0) {
+            return;
         }
         
         // Bjorklund's algorithm
-        int[] buckets = new int[steps];
         int bucketSize = steps / pulses;
         int remainder = steps % pulses;
         
@@ -31,20 +38,12 @@ public class EuclideanRhythm {
         for (int i = 0; i < pulses && currentBucket < steps; i++) {
             int size = bucketSize + (i < remainder ? 1 : 0);
             for (int j = 0; j < size && currentBucket < steps; j++) {
-                buckets[currentBucket++] = 1;
+                result[currentBucket++] = true;
             }
             if (currentBucket < steps) {
-                buckets[currentBucket++] = 0;
+                currentBucket++;
             }
         }
-        
-        // Convert to boolean array
-        boolean[] result = new boolean[steps];
-        for (int i = 0; i < steps; i++) {
-            result[i] = (buckets[i] == 1);
-        }
-        
-        return result;
     }
     
     public void setSteps(int steps) {
@@ -2,93 +2,279 @@ package com.groovegarden.algo;
 
 import java.util.*;
 
+/**
+ * Markov chain over scale degrees with primitive, precomputed tables.
+ *
+ * The distinct degrees form an alphabet of k symbols and a context of
+ * {@code order} symbols is encoded as a mixed-radix number below k^order,
+ * which indexes a flat transition table. Each context row is turned into a
+ * Vose alias table once, when the scale or order changes, so picking a note
+ * is O(1) and allocates nothing.
+ *
+ * A {@link ContextTrie} trained on a corpus can be installed on top; its
+ * symbols are absolute pitch classes, while the degrees are semitones above
+ * the scale's root, so the context and the scale are transposed up by the
+ * root's pitch class on the way in and the answer back down on the way out.
+ * It is asked first with the whole context, falling back to the tables when
+ * it knows no continuation inside the scale.
+ */
 public class MarkovMelody {
+    // Contexts beyond this would make the flat tables unreasonably large
+    private static final int MAX_CONTEXTS = 1 << 20;
+    
     private int order;
-    private Map<String, Map<Integer, Integer>> transitionMatrix;
-    private Random random;
+    private SplittableRandom random;
     private List<Integer> scaleDegrees;
     
+    // Alphabet: symbol index to degree and back, the latter offset by minDegree
+    private int[] symbols = new int[0];
+    private int[] symbolIndex = new int[0];
+    private int minDegree;
+    
+    // Per context row of k columns: column kept with probability acceptance, else alias
+    private int contextCount;
+    private boolean[] hasTransitions = new boolean[0];
+    private double[] acceptance = new double[0];
+    private int[] alias = new int[0];
+    
+    // Corpus model, replaced from a training thread, and the pitch classes it may return
+    private volatile ContextTrie corpusModel;
+    private int allowedMask;
+    private int rootPitchClass;
+    private final int[] corpusContext = new int[ContextTrie.MAX_ORDER];
+    
     public MarkovMelody(int order) {
+        this(order, new SplittableRandom());
+    }
+    
+    /**
+     * Melody whose choices are drawn from this generator, so a seeded one repeats itself
+     */
+    public MarkovMelody(int order, SplittableRandom random) {
+        if (order < 1) {
+            throw new IllegalArgumentException("Order must be positive: " + order);
+        }
         this.order = order;
-        this.transitionMatrix = new HashMap<>();
-        this.random = new Random();
+        this.random = random;
         this.scaleDegrees = new ArrayList<>();
     }
     
     public void setScaleDegrees(List<Integer> degrees) {
+        // Same scale, same tables
+        if (degrees.equals(scaleDegrees)) return;
         this.scaleDegrees = new ArrayList<>(degrees);
         buildTransitionMatrix();
     }
     
     private void buildTransitionMatrix() {
-        transitionMatrix.clear();
-        
+        buildAlphabet();
+        int k = symbols.length;
+        contextCount = 0;
         if (scaleDegrees.size() < order + 1) return;
         
-        // Build transition matrix from scale degrees
+        long contexts = 1;
+        for (int i = 0; i < order; i++) {
+            contexts *= k;
+            if (contexts > MAX_CONTEXTS) {
+                throw new IllegalArgumentException("Too many contexts for order " + order + " over " + k + " degrees");
+            }
+        }
+        contextCount = (int) contexts;
+        
+        // Count transitions from the scale sequence, as before
+        int[] counts = new int[contextCount * k];
         for (int i = 0; i <= scaleDegrees.size() - order - 1; i++) {
-            String context = buildContext(i);
-            int nextDegree = scaleDegrees.get(i + order);
-            
-            transitionMatrix.computeIfAbsent(context, k -> new HashMap<>());
-            Map<Integer, Integer> transitions = transitionMatrix.get(context);
-            transitions.put(nextDegree, transitions.getOrDefault(nextDegree, 0) + 1);
+            int context = 0;
+            for (int j = 0; j < order; j++) {
+                context = context * k + symbolOf(scaleDegrees.get(i + j));
+            }
+            counts[context * k + symbolOf(scaleDegrees.get(i + order))]++;
+        }
+        
+        hasTransitions = new boolean[contextCount];
+        acceptance = new double[contextCount * k];
+        alias = new int[contextCount * k];
+        int[] small = new int[k];
+        int[] large = new int[k];
+        double[] scaled = new double[k];
+        for (int context = 0; context < contextCount; context++) {
+            buildAliasRow(counts, context, k, small, large, scaled);
         }
     }
     
-    private String buildContext(int startIndex) {
-        StringBuilder context = new StringBuilder();
-        for (int i = 0; i < order; i++) {
-            context.append(scaleDegrees.get(startIndex + i));
-            if (i < order - 1) context.append(",");
+    private void buildAlphabet() {
+        TreeSet<Integer> distinct = new TreeSet<>(scaleDegrees);
+        symbols = new int[distinct.size()];
+        int i = 0;
+        for (int degree : distinct) {
+            symbols[i++] = degree;
+        }
+        minDegree = symbols.length == 0 ? 0 : symbols[0];
+        buildAllowedMask();
+        symbolIndex = new int[symbols.length == 0 ? 0 : symbols[symbols.length - 1] - minDegree + 1];
+        Arrays.fill(symbolIndex, -1);
+        for (i = 0; i < symbols.length; i++) {
+            symbolIndex[symbols[i] - minDegree] = i;
         }
-        return context.toString();
     }
     
-    public int generateNextNote(List<Integer> context) {
-        if (context.size() < order) {
-            // If context is too short, return random scale degree
-            return scaleDegrees.get(random.nextInt(scaleDegrees.size()));
+    private void buildAllowedMask() {
+        allowedMask = 0;
+        for (int degree : symbols) {
+            if (degree >= 0) allowedMask |= 1 << (degree + rootPitchClass) % 12;
         }
-        
-        String contextStr = buildContextFromList(context);
-        Map<Integer, Integer> transitions = transitionMatrix.get(contextStr);
-        
-        if (transitions == null || transitions.isEmpty()) {
-            // If no transitions found, return random scale degree
-            return scaleDegrees.get(random.nextInt(scaleDegrees.size()));
+    }
+    
+    /**
+     * Vose's alias method over one context row
+     */
+    private void buildAliasRow(int[] counts, int context, int k, int[] small, int[] large, double[] scaled) {
+        int base = context * k;
+        long total = 0;
+        for (int i = 0; i < k; i++) {
+            total += counts[base + i];
         }
+        if (total == 0) return;
+        hasTransitions[context] = true;
         
-        // Choose next note based on transition probabilities
-        int totalWeight = transitions.values().stream().mapToInt(Integer::intValue).sum();
-        int randomValue = random.nextInt(totalWeight);
-        
-        int cumulativeWeight = 0;
-        for (Map.Entry<Integer, Integer> entry : transitions.entrySet()) {
-            cumulativeWeight += entry.getValue();
-            if (randomValue < cumulativeWeight) {
-                return entry.getKey();
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < k; i++) {
+            scaled[i] = (double) counts[base + i] * k / total;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
             }
         }
-        
-        // Fallback
-        return scaleDegrees.get(random.nextInt(scaleDegrees.size()));
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            acceptance[base + less] = scaled[less];
+            alias[base + less] = more;
+            scaled[more] -= 1.0 - scaled[less];
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // Whatever is left is full up to rounding
+        while (largeCount > 0) {
+            acceptance[base + large[--largeCount]] = 1.0;
+        }
+        while (smallCount > 0) {
+            acceptance[base + small[--smallCount]] = 1.0;
+        }
     }
     
-    private String buildContextFromList(List<Integer> context) {
-        StringBuilder contextStr = new StringBuilder();
-        for (int i = 0; i < order; i++) {
-            contextStr.append(context.get(context.size() - order + i));
-            if (i < order - 1) contextStr.append(",");
+    private int symbolOf(int degree) {
+        int offset = degree - minDegree;
+        return offset < 0 || offset >= symbolIndex.length ? -1 : symbolIndex[offset];
+    }
+    
+    /**
+     * Next degree after the last {@code order} entries of the context list
+     */
+    public int generateNextNote(List<Integer> context) {
+        ContextTrie corpus = corpusModel;
+        if (corpus != null) {
+            int[] history = new int[context.size()];
+            for (int i = 0; i < history.length; i++) {
+                history[i] = context.get(i);
+            }
+            int degree = sampleCorpus(corpus, history, history.length);
+            if (degree >= 0) return degree;
+        }
+        if (context.size() < order) {
+            return randomDegree();
+        }
+        int code = 0;
+        for (int i = context.size() - order; i < context.size(); i++) {
+            int symbol = symbolOf(context.get(i));
+            if (symbol < 0) return randomDegree();
+            code = code * symbols.length + symbol;
+        }
+        return sample(code);
+    }
+    
+    /**
+     * Next degree after the last {@code order} of the first {@code length} entries; allocates nothing
+     */
+    public int generateNextNote(int[] context, int length) {
+        ContextTrie corpus = corpusModel;
+        if (corpus != null) {
+            int degree = sampleCorpus(corpus, context, length);
+            if (degree >= 0) return degree;
+        }
+        if (length < order) {
+            return randomDegree();
+        }
+        int code = 0;
+        for (int i = length - order; i < length; i++) {
+            int symbol = symbolOf(context[i]);
+            if (symbol < 0) return randomDegree();
+            code = code * symbols.length + symbol;
+        }
+        return sample(code);
+    }
+    
+    /**
+     * Ask the corpus in pitch classes, with the last degrees of the context transposed by the root
+     */
+    private int sampleCorpus(ContextTrie corpus, int[] context, int length) {
+        int used = Math.min(length, corpus.getOrder());
+        for (int i = 0; i < used; i++) {
+            int degree = context[length - used + i];
+            corpusContext[i] = degree < 0 ? -1 : (degree + rootPitchClass) % 12;
+        }
+        int pitchClass = corpus.sample(corpusContext, used, allowedMask, random);
+        return pitchClass < 0 ? -1 : (pitchClass - rootPitchClass + 12) % 12;
+    }
+    
+    private int sample(int context) {
+        if (context >= contextCount || !hasTransitions[context]) {
+            // If no transitions found, return random scale degree
+            return randomDegree();
         }
-        return contextStr.toString();
+        int k = symbols.length;
+        int column = random.nextInt(k);
+        int index = context * k + column;
+        return symbols[random.nextDouble() < acceptance[index] ? column : alias[index]];
+    }
+    
+    private int randomDegree() {
+        return scaleDegrees.get(random.nextInt(scaleDegrees.size()));
     }
     
     public void setOrder(int order) {
+        if (order < 1) {
+            throw new IllegalArgumentException("Order must be positive: " + order);
+        }
+        if (order == this.order) return;
         this.order = order;
         buildTransitionMatrix();
     }
     
+    /**
+     * MIDI note of the scale's root, whose pitch class the degrees are counted from
+     */
+    public void setRootNote(int rootNote) {
+        rootPitchClass = Math.floorMod(rootNote, 12);
+        buildAllowedMask();
+    }
+    
+    /**
+     * Model trained on a corpus, consulted before the scale tables, or null to use the tables alone
+     */
+    public void setCorpusModel(ContextTrie corpusModel) {
+        this.corpusModel = corpusModel;
+    }
+    
+    public ContextTrie getCorpusModel() {
+        return corpusModel;
+    }
+    
     public int getOrder() {
         return order;
     }
@@ -96,4 +282,4 @@ public class MarkovMelody {
     public List<Integer> getScaleDegrees() {
         return new ArrayList<>(scaleDegrees);
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
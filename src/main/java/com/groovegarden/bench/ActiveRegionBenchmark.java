@@ -0,0 +1,58 @@
+package com.groovegarden.bench;
+
+import com.groovegarden.model.BitBoard;
+import com.groovegarden.model.CellularAutomaton;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Shows step cost following activity rather than board area.
+ *
+ * A 4096x4096 board is seeded with a growing number of gliders, each in its
+ * own 128x128 patch, and compared against the same board filled with soup.
+ */
+public class ActiveRegionBenchmark {
+    private static final int SIZE = 4096;
+    private static final int PATCH = 128;
+    private static final int GENERATIONS = 100;
+    private static final int[] GLIDERS = {1, 16, 256, 1024};
+
+    public static void main(String[] args) {
+        System.out.printf("%-12s %12s %14s %10s%n", "seed", "ms/gen", "active tiles", "of");
+
+        for (int gliders : GLIDERS) {
+            report(gliders + " gliders", gliders(gliders));
+        }
+        BitBoard soup = new BitBoard(SIZE);
+        soup.load(AutomatonBenchmark.randomGrid(SIZE, 3L));
+        report("soup", soup);
+    }
+
+    private static void report(String label, BitBoard seed) {
+        CellularAutomaton automaton = new CellularAutomaton(SIZE, ForkJoinPool.commonPool(), 0);
+        automaton.update(seed);
+        long activeTiles = 0;
+        long start = System.nanoTime();
+        for (int gen = 0; gen < GENERATIONS; gen++) {
+            automaton.step();
+            activeTiles += automaton.getActiveTileCount();
+        }
+        double ms = (System.nanoTime() - start) / 1e6 / GENERATIONS;
+        System.out.printf("%-12s %12.3f %14d %10d%n", label, ms, activeTiles / GENERATIONS, automaton.getTileCount());
+    }
+
+    private static BitBoard gliders(int count) {
+        BitBoard board = new BitBoard(SIZE);
+        int perRow = SIZE / PATCH;
+        for (int i = 0; i < count; i++) {
+            int row = (i / perRow) * PATCH + PATCH / 2;
+            int col = (i % perRow) * PATCH + PATCH / 2;
+            board.set(row, col + 1, true);
+            board.set(row + 1, col + 2, true);
+            board.set(row + 2, col, true);
+            board.set(row + 2, col + 1, true);
+            board.set(row + 2, col + 2, true);
+        }
+        return board;
+    }
+}
@@ -0,0 +1,157 @@
+package com.groovegarden.bench;
+
+import com.groovegarden.model.BitBoard;
+import com.groovegarden.model.CellularAutomaton;
+
+import java.util.Random;
+
+/**
+ * Compares the bit-packed automaton with the original boolean-array version.
+ *
+ * Run with {@code ./gradlew benchmark}; each size is checked for identical
+ * output before it is timed.
+ */
+public class AutomatonBenchmark {
+    private static final int[] SIZES = {8, 64, 1024};
+    private static final double FILL = 0.3;
+
+    public static void main(String[] args) {
+        System.out.printf("%-10s %14s %14s %9s%n", "size", "boolean ns/gen", "packed ns/gen", "speedup");
+        for (int size : SIZES) {
+            boolean[][] seed = randomGrid(size, 42L);
+            verify(seed);
+
+            int generations = Math.max(20, (int) (20_000_000L / ((long) size * size)));
+            double booleanNs = timeBoolean(seed, generations);
+            double packedNs = timePacked(seed, generations);
+            System.out.printf("%-10s %14.1f %14.1f %8.1fx%n",
+                    size + "x" + size, booleanNs, packedNs, booleanNs / packedNs);
+        }
+    }
+
+    private static void verify(boolean[][] seed) {
+        int size = seed.length;
+        BooleanAutomaton reference = new BooleanAutomaton(size);
+        CellularAutomaton packed = new CellularAutomaton(size);
+        boolean[][] state = copy(seed);
+        BitBoard board = new BitBoard(size);
+        board.load(seed);
+
+        for (int gen = 0; gen < 50; gen++) {
+            reference.update(state);
+            state = copy(reference.getCurrentState());
+            packed.update(board);
+            board.copyFrom(packed.getBoard());
+        }
+
+        boolean[][] actual = packed.getCurrentState();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (actual[row][col] != state[row][col]) {
+                    throw new IllegalStateException("Packed automaton diverged at " + size + "x" + size
+                            + " cell " + row + "," + col);
+                }
+            }
+        }
+    }
+
+    private static double timeBoolean(boolean[][] seed, int generations) {
+        BooleanAutomaton automaton = new BooleanAutomaton(seed.length);
+        boolean[][] state = copy(seed);
+        for (int i = 0; i < generations; i++) {
+            automaton.update(state);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < generations; i++) {
+            automaton.update(state);
+        }
+        return (double) (System.nanoTime() - start) / generations;
+    }
+
+    private static double timePacked(boolean[][] seed, int generations) {
+        CellularAutomaton automaton = new CellularAutomaton(seed.length);
+        BitBoard board = new BitBoard(seed.length);
+        board.load(seed);
+        for (int i = 0; i < generations; i++) {
+            automaton.update(board);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < generations; i++) {
+            automaton.update(board);
+        }
+        return (double) (System.nanoTime() - start) / generations;
+    }
+
+    static boolean[][] randomGrid(int size, long seed) {
+        Random random = new Random(seed);
+        boolean[][] grid = new boolean[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                grid[row][col] = random.nextDouble() < FILL;
+            }
+        }
+        return grid;
+    }
+
+    private static boolean[][] copy(boolean[][] grid) {
+        boolean[][] result = new boolean[grid.length][];
+        for (int row = 0; row < grid.length; row++) {
+            result[row] = grid[row].clone();
+        }
+        return result;
+    }
+
+    /**
+     * The original per-cell implementation, kept as the baseline
+     */
+    private static class BooleanAutomaton {
+        private final int gridSize;
+        private boolean[][] currentState;
+        private boolean[][] nextState;
+
+        BooleanAutomaton(int gridSize) {
+            this.gridSize = gridSize;
+            this.currentState = new boolean[gridSize][gridSize];
+            this.nextState = new boolean[gridSize][gridSize];
+        }
+
+        void update(boolean[][] inputGrid) {
+            for (int row = 0; row < gridSize; row++) {
+                for (int col = 0; col < gridSize; col++) {
+                    currentState[row][col] = inputGrid[row][col];
+                }
+            }
+
+            for (int row = 0; row < gridSize; row++) {
+                for (int col = 0; col < gridSize; col++) {
+                    int neighbors = countNeighbors(row, col);
+                    boolean isAlive = currentState[row][col];
+                    nextState[row][col] = isAlive ? (neighbors == 2 || neighbors == 3) : neighbors == 3;
+                }
+            }
+
+            boolean[][] temp = currentState;
+            currentState = nextState;
+            nextState = temp;
+        }
+
+        private int countNeighbors(int row, int col) {
+            int count = 0;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    if (dr == 0 && dc == 0) continue;
+                    int nr = row + dr;
+                    int nc = col + dc;
+                    if (nr >= 0 && nr < gridSize && nc >= 0 && nc < gridSize && currentState[nr][nc]) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        boolean[][] getCurrentState() {
+            return currentState;
+        }
+    }
+}
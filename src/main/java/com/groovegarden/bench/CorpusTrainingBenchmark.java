@@ -0,0 +1,124 @@
+package com.groovegarden.bench;
+
+import com.groovegarden.algo.ContextTrie;
+import com.groovegarden.music.MelodyCorpusTrainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Times training an order-8 melody model on a 10,000 file corpus.
+ *
+ * Writes synthetic MIDI files to a temporary directory, each a melody
+ * track built from repeated and varied motifs in C major plus a drum track
+ * the trainer must skip, then reports parse, count and build times, the
+ * trie's size and the cost of sampling a note from it.
+ */
+public class CorpusTrainingBenchmark {
+    private static final int FILES = 10_000;
+    private static final int NOTES_PER_FILE = 256;
+    private static final int ORDER = 8;
+    private static final int MIN_COUNT = 2;
+    private static final int SAMPLES = 1_000_000;
+    private static final int[] MAJOR = {0, 2, 4, 5, 7, 9, 11};
+
+    public static void main(String[] args) throws IOException {
+        Path corpus = Files.createTempDirectory("groove-corpus");
+        try {
+            long start = System.nanoTime();
+            Random random = new Random(42);
+            for (int i = 0; i < FILES; i++) {
+                Files.write(corpus.resolve("tune" + i + ".mid"), synthesize(random));
+            }
+            System.out.printf("Wrote %d files in %.1f s%n", FILES, (System.nanoTime() - start) / 1e9);
+
+            MelodyCorpusTrainer trainer = new MelodyCorpusTrainer(ORDER, MIN_COUNT);
+            ContextTrie trie = trainer.train(corpus);
+            double seconds = trainer.getTotalNanos() / 1e9;
+            System.out.printf("files %d (%d failed), notes %d, n-grams %d%n",
+                    trainer.getFilesParsed(), trainer.getFilesFailed(), trainer.getNotes(), trainer.getDistinctNgrams());
+            System.out.printf("parse %.2f s, count %.2f s, build %.2f s: %.1f s total, %.0f files/s%n",
+                    trainer.getParseNanos() / 1e9, trainer.getCountNanos() / 1e9, trainer.getBuildNanos() / 1e9,
+                    seconds, FILES / seconds);
+            System.out.println("trie: " + trie);
+
+            int[] history = new int[ORDER];
+            int allowed = 0;
+            for (int degree : MAJOR) {
+                allowed |= 1 << degree;
+            }
+            for (int i = 0; i < ORDER; i++) {
+                history[i] = MAJOR[i % MAJOR.length];
+            }
+            long checksum = 0;
+            SplittableRandom sampling = new SplittableRandom(42);
+            start = System.nanoTime();
+            for (int i = 0; i < SAMPLES; i++) {
+                int next = trie.sample(history, ORDER, allowed, sampling);
+                System.arraycopy(history, 1, history, 0, ORDER - 1);
+                history[ORDER - 1] = next;
+                checksum += next;
+            }
+            System.out.printf("sampling %.0f ns/note (checksum %d)%n",
+                    (double) (System.nanoTime() - start) / SAMPLES, checksum);
+        } finally {
+            try (Stream<Path> walk = Files.walk(corpus)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static byte[] synthesize(Random random) {
+        ByteArrayOutputStream melody = new ByteArrayOutputStream();
+        int[] motif = new int[4 + random.nextInt(5)];
+        int degree = random.nextInt(MAJOR.length);
+        for (int i = 0; i < NOTES_PER_FILE; i++) {
+            int position = i % motif.length;
+            if (position == 0 && random.nextInt(3) == 0) {
+                // New motif: a short walk up and down the scale
+                for (int j = 0; j < motif.length; j++) {
+                    degree = Math.floorMod(degree + random.nextInt(5) - 2, MAJOR.length * 2);
+                    motif[j] = degree;
+                }
+            }
+            int note = 60 + MAJOR[motif[position] % MAJOR.length] + 12 * (motif[position] / MAJOR.length);
+            writeEvent(melody, 0, 0x90, note, 80);
+            writeEvent(melody, 240, 0x80, note, 0);
+        }
+
+        ByteArrayOutputStream drums = new ByteArrayOutputStream();
+        for (int i = 0; i < NOTES_PER_FILE; i++) {
+            writeEvent(drums, 0, 0x99, i % 4 == 0 ? 36 : 42, 100);
+            writeEvent(drums, 240, 0x89, i % 4 == 0 ? 36 : 42, 0);
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.writeBytes(new byte[] {'M', 'T', 'h', 'd', 0, 0, 0, 6, 0, 1, 0, 2, 1, (byte) 0xE0});
+        writeTrack(file, melody);
+        writeTrack(file, drums);
+        return file.toByteArray();
+    }
+
+    private static void writeEvent(ByteArrayOutputStream out, int delta, int status, int data1, int data2) {
+        if (delta >= 0x80) out.write(0x80 | delta >> 7);
+        out.write(delta & 0x7F);
+        out.write(status);
+        out.write(data1);
+        out.write(data2);
+    }
+
+    private static void writeTrack(ByteArrayOutputStream file, ByteArrayOutputStream events) {
+        // End of track
+        events.writeBytes(new byte[] {0, (byte) 0xFF, 0x2F, 0});
+        int length = events.size();
+        file.writeBytes(new byte[] {'M', 'T', 'r', 'k',
+                (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        file.writeBytes(events.toByteArray());
+    }
+}
@@ -0,0 +1,92 @@
+package com.groovegarden.bench;
+
+import com.groovegarden.model.BitBoard;
+import com.groovegarden.model.CellularAutomaton;
+import com.groovegarden.model.HashLife;
+
+import java.util.Random;
+
+/**
+ * Compares generation-by-generation stepping with HashLife fast-forwarding.
+ *
+ * The seed is a small soup in the middle of a 1024x1024 board. HashLife
+ * keeps to the board's edges, so both engines must agree at any horizon.
+ */
+public class HashLifeBenchmark {
+    private static final int SIZE = 1024;
+    private static final int SOUP = 48;
+    private static final int CHECKED_GENERATIONS = 300;
+    private static final long[] HORIZONS = {1_000, 10_000, 100_000, 1_000_000};
+
+    public static void main(String[] args) {
+        BitBoard seed = soup(7L);
+        verify(seed);
+
+        System.out.printf("%-12s %14s %14s %12s %10s%n", "generations", "stepping ms", "hashlife ms", "cache nodes", "evictions");
+        for (long generations : HORIZONS) {
+            double steppingMs = generations <= 10_000 ? timeStepping(seed, generations) : Double.NaN;
+
+            HashLife hashLife = new HashLife();
+            hashLife.load(seed);
+            long start = System.nanoTime();
+            hashLife.fastForward(generations);
+            double hashLifeMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("%-12d %14s %14.1f %12d %10d%n", generations,
+                    Double.isNaN(steppingMs) ? "-" : String.format("%.1f", steppingMs),
+                    hashLifeMs, hashLife.getCacheSize(), hashLife.getEvictions());
+        }
+
+        // A deliberately small cache must still give the same answer, just slower
+        HashLife bounded = new HashLife(4096);
+        HashLife unbounded = new HashLife();
+        bounded.load(seed);
+        unbounded.load(seed);
+        bounded.fastForward(50_000);
+        unbounded.fastForward(50_000);
+        if (bounded.getPopulation() != unbounded.getPopulation()) {
+            throw new IllegalStateException("Bounded cache changed the result");
+        }
+        System.out.printf("4096-node cache: %d evictions, population %d%n", bounded.getEvictions(), bounded.getPopulation());
+    }
+
+    private static void verify(BitBoard seed) {
+        CellularAutomaton automaton = new CellularAutomaton(SIZE);
+        automaton.update(seed);
+        for (int gen = 1; gen < CHECKED_GENERATIONS; gen++) {
+            automaton.step();
+        }
+
+        HashLife hashLife = new HashLife();
+        hashLife.load(seed);
+        hashLife.fastForward(CHECKED_GENERATIONS);
+        BitBoard result = new BitBoard(SIZE);
+        hashLife.store(result);
+
+        if (!result.equals(automaton.getBoard())) {
+            throw new IllegalStateException("HashLife diverged from the stepper after " + CHECKED_GENERATIONS + " generations");
+        }
+    }
+
+    private static double timeStepping(BitBoard seed, long generations) {
+        CellularAutomaton automaton = new CellularAutomaton(SIZE);
+        long start = System.nanoTime();
+        automaton.update(seed);
+        for (long gen = 1; gen < generations; gen++) {
+            automaton.step();
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static BitBoard soup(long seed) {
+        Random random = new Random(seed);
+        BitBoard board = new BitBoard(SIZE);
+        int offset = (SIZE - SOUP) / 2;
+        for (int row = 0; row < SOUP; row++) {
+            for (int col = 0; col < SOUP; col++) {
+                board.set(offset + row, offset + col, random.nextDouble() < 0.35);
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,65 @@
+package com.groovegarden.bench;
+
+import com.groovegarden.model.GridHistory;
+import com.groovegarden.model.GridModel;
+
+import java.util.Random;
+
+/**
+ * Reports what an hour of recorded history costs.
+ *
+ * Plays one hour of 16th-note ticks at 120 BPM on a non-persistent garden
+ * seeded with soup, toggling a few cells every bar, and compares the
+ * history's footprint with one unpacked {@code boolean[][]} per tick. Then
+ * seeks to random past generations to time reconstruction.
+ */
+public class HistoryBenchmark {
+    private static final int TICKS = 120 * 4 * 60; // 16ths per hour at 120 BPM
+    private static final int[] SIZES = {64, 512, 2048};
+    private static final int SEEKS = 200;
+
+    public static void main(String[] args) {
+        System.out.printf("%-6s %10s %10s %12s %14s %12s %12s%n",
+                "size", "frames", "keyframes", "history MB", "boolean[][] MB", "us/tick", "ms/seek");
+
+        for (int size : SIZES) {
+            report(size);
+        }
+    }
+
+    private static void report(int size) {
+        GridModel model = new GridModel(size);
+        model.setPersistent(false);
+        Random random = new Random(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (random.nextInt(4) == 0) model.toggleCell(row, col);
+            }
+        }
+        model.flushChanges();
+
+        long start = System.nanoTime();
+        for (int tick = 0; tick < TICKS; tick++) {
+            if (tick % 16 == 0) {
+                for (int i = 0; i < 8; i++) {
+                    model.toggleCell(random.nextInt(size), random.nextInt(size));
+                }
+            }
+            model.update();
+            model.flushChanges();
+        }
+        double usPerTick = (System.nanoTime() - start) / 1e3 / TICKS;
+
+        GridHistory history = model.getHistory();
+        long oldest = history.getGeneration(0);
+        start = System.nanoTime();
+        for (int i = 0; i < SEEKS; i++) {
+            model.seekGeneration(oldest + (long) (random.nextDouble() * (TICKS - oldest)));
+        }
+        double msPerSeek = (System.nanoTime() - start) / 1e6 / SEEKS;
+
+        System.out.printf("%-6d %10d %10d %12.2f %14.1f %12.1f %12.3f%n", size,
+                history.getFrameCount(), history.getKeyframeCount(), history.getMemoryBytes() / 1048576.0,
+                (double) size * size * TICKS / 1048576.0, usPerTick, msPerSeek);
+    }
+}
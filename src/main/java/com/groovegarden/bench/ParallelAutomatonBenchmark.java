@@ -0,0 +1,68 @@
+package com.groovegarden.bench;
+
+import com.groovegarden.model.BitBoard;
+import com.groovegarden.model.CellularAutomaton;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures banded parallel stepping from one thread up to every core.
+ *
+ * Each pool size is checked against the single-threaded stepper first.
+ */
+public class ParallelAutomatonBenchmark {
+    private static final int[] SIZES = {1024, 4096};
+    private static final int GENERATIONS = 50;
+
+    public static void main(String[] args) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d cores available%n", cores);
+        System.out.printf("%-10s %8s %14s %9s%n", "size", "threads", "ms/gen", "speedup");
+
+        for (int size : SIZES) {
+            BitBoard seed = new BitBoard(size);
+            seed.load(AutomatonBenchmark.randomGrid(size, 11L));
+
+            CellularAutomaton sequential = new CellularAutomaton(size, ForkJoinPool.commonPool(), 0);
+            double baseline = time(sequential, seed);
+            System.out.printf("%-10s %8s %14.3f %8.2fx%n", size + "x" + size, "seq", baseline, 1.0);
+
+            for (int threads = 1; threads <= cores; threads++) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    CellularAutomaton parallel = new CellularAutomaton(size, pool, 1);
+                    verify(sequential, parallel, seed);
+                    double ms = time(parallel, seed);
+                    System.out.printf("%-10s %8d %14.3f %8.2fx%n", size + "x" + size, threads, ms, baseline / ms);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static void verify(CellularAutomaton sequential, CellularAutomaton parallel, BitBoard seed) {
+        sequential.update(seed);
+        parallel.update(seed);
+        for (int gen = 0; gen < 10; gen++) {
+            sequential.step();
+            parallel.step();
+        }
+        if (!sequential.getBoard().equals(parallel.getBoard())) {
+            throw new IllegalStateException("Parallel stepping diverged from the sequential stepper");
+        }
+    }
+
+    private static double time(CellularAutomaton automaton, BitBoard seed) {
+        automaton.update(seed);
+        for (int gen = 0; gen < GENERATIONS; gen++) {
+            automaton.step();
+        }
+        automaton.update(seed);
+        long start = System.nanoTime();
+        for (int gen = 0; gen < GENERATIONS; gen++) {
+            automaton.step();
+        }
+        return (System.nanoTime() - start) / 1e6 / GENERATIONS;
+    }
+}
@@ -21,6 +21,12 @@ public class AppConfig {
         DEFAULT_CONFIG.setProperty("grid.size", "8");
         DEFAULT_CONFIG.setProperty("grid.cell.size", "50");
         DEFAULT_CONFIG.setProperty("grid.gap", "2");
+        DEFAULT_CONFIG.setProperty("grid.view.size", "416");
+        DEFAULT_CONFIG.setProperty("grid.node.limit", "32");
+        DEFAULT_CONFIG.setProperty("grid.persistent", "true");
+        DEFAULT_CONFIG.setProperty("grid.rule.rhythm", "B3/S23");
+        DEFAULT_CONFIG.setProperty("grid.rule.melody", "B3/S23");
+        DEFAULT_CONFIG.setProperty("grid.rule.both", "B3/S23");
         
         // Music settings
         DEFAULT_CONFIG.setProperty("music.default.tempo", "120");
@@ -29,6 +35,10 @@ public class AppConfig {
         DEFAULT_CONFIG.setProperty("music.default.scale", "C Dorian");
         DEFAULT_CONFIG.setProperty("music.time.signature", "4/4");
         DEFAULT_CONFIG.setProperty("music.step.size", "16");
+        DEFAULT_CONFIG.setProperty("music.seed", "");
+        DEFAULT_CONFIG.setProperty("melody.corpus.dir", "");
+        DEFAULT_CONFIG.setProperty("melody.corpus.order", "8");
+        DEFAULT_CONFIG.setProperty("melody.corpus.min.count", "2");
         
         // UI settings
         DEFAULT_CONFIG.setProperty("ui.window.width", "675");
@@ -40,12 +50,34 @@ public class AppConfig {
         DEFAULT_CONFIG.setProperty("performance.update.interval", "16");
         DEFAULT_CONFIG.setProperty("performance.buffer.size", "1024");
         DEFAULT_CONFIG.setProperty("performance.score.update.interval", "1000");
+        DEFAULT_CONFIG.setProperty("performance.hashlife.cache.nodes", "262144");
+        DEFAULT_CONFIG.setProperty("performance.parallel.threshold", "65536");
+        DEFAULT_CONFIG.setProperty("performance.cycle.history", "64");
+        DEFAULT_CONFIG.setProperty("performance.transition.cache.entries", "64");
+        DEFAULT_CONFIG.setProperty("performance.transition.cache.words", "131072");
+        DEFAULT_CONFIG.setProperty("performance.history.keyframe.interval", "64");
+        DEFAULT_CONFIG.setProperty("performance.history.bytes", "33554432");
+        DEFAULT_CONFIG.setProperty("performance.export.threads", "2");
         
         // MIDI settings
         DEFAULT_CONFIG.setProperty("midi.channel.drums", "9");
         DEFAULT_CONFIG.setProperty("midi.channel.bass", "0");
         DEFAULT_CONFIG.setProperty("midi.channel.melody", "1");
         DEFAULT_CONFIG.setProperty("midi.velocity.default", "80");
+        DEFAULT_CONFIG.setProperty("midi.lookahead.ms", "100");
+        DEFAULT_CONFIG.setProperty("midi.voices.per.channel", "8");
+        DEFAULT_CONFIG.setProperty("midi.voice.steal", "oldest");
+        DEFAULT_CONFIG.setProperty("midi.export.bars", "8");
+        DEFAULT_CONFIG.setProperty("midi.export.start.generation", "0");
+        DEFAULT_CONFIG.setProperty("midi.recorder.events", "1048576");
+        
+        // Audio rendering
+        DEFAULT_CONFIG.setProperty("audio.sample.rate", "44100");
+        DEFAULT_CONFIG.setProperty("audio.chunk.frames", "65536");
+        DEFAULT_CONFIG.setProperty("audio.soundbank", "");
+        
+        // Offline rendering
+        DEFAULT_CONFIG.setProperty("render.start.generation", "0");
     }
     
     private static Properties config = new Properties();
@@ -0,0 +1,201 @@
+package com.groovegarden.model;
+
+import java.util.Arrays;
+
+/**
+ * Square grid of cells packed one bit per cell into long words.
+ *
+ * Boards up to 8x8 live in a single long with an 8-bit row stride; larger
+ * boards use whole words per row. In both layouts cell (row, col) is bit
+ * {@code row * stride + col}, and bits outside the board are always zero.
+ */
+public class BitBoard {
+    static final int SMALL_STRIDE = 8;
+
+    private final int size;
+    private final int stride;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    public BitBoard(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Board size must be positive: " + size);
+        }
+        this.size = size;
+        if (size <= SMALL_STRIDE) {
+            this.stride = SMALL_STRIDE;
+            this.wordsPerRow = 0; // rows share the single word
+            this.words = new long[1];
+        } else {
+            this.wordsPerRow = (size + 63) >>> 6;
+            this.stride = wordsPerRow << 6;
+            this.words = new long[wordsPerRow * size];
+        }
+    }
+
+    public BitBoard(BitBoard other) {
+        this.size = other.size;
+        this.stride = other.stride;
+        this.wordsPerRow = other.wordsPerRow;
+        this.words = other.words.clone();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Bits between the start of one row and the next
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Words per row, or 0 when the whole board is packed into one word
+     */
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    public boolean isSingleWord() {
+        return wordsPerRow == 0;
+    }
+
+    /**
+     * Backing words; callers that write them must keep bits outside the board zero
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    public boolean get(int row, int col) {
+        int bit = row * stride + col;
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public void set(int row, int col, boolean alive) {
+        int bit = row * stride + col;
+        if (alive) {
+            words[bit >>> 6] |= 1L << bit;
+        } else {
+            words[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    public void flip(int row, int col) {
+        int bit = row * stride + col;
+        words[bit >>> 6] ^= 1L << bit;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    public void copyFrom(BitBoard other) {
+        checkSameSize(other);
+        System.arraycopy(other.words, 0, words, 0, words.length);
+    }
+
+    public void or(BitBoard other) {
+        checkSameSize(other);
+        long[] src = other.words;
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= src[i];
+        }
+    }
+
+    public void load(boolean[][] cells) {
+        clear();
+        for (int row = 0; row < size; row++) {
+            boolean[] cellRow = cells[row];
+            for (int col = 0; col < size; col++) {
+                if (cellRow[col]) {
+                    int bit = row * stride + col;
+                    words[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+    }
+
+    public void store(boolean[][] cells) {
+        for (int row = 0; row < size; row++) {
+            boolean[] cellRow = cells[row];
+            for (int col = 0; col < size; col++) {
+                cellRow[col] = get(row, col);
+            }
+        }
+    }
+
+    public int popCount() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether no cell is active in the given rectangle, clipped to the board
+     */
+    public boolean isRegionEmpty(int row, int col, int height, int width) {
+        int rowEnd = Math.min(size, row + height);
+        int colEnd = Math.min(size, col + width);
+        row = Math.max(0, row);
+        col = Math.max(0, col);
+        if (row >= rowEnd || col >= colEnd) return true;
+
+        for (int r = row; r < rowEnd; r++) {
+            int bit = r * stride + col;
+            int end = r * stride + colEnd;
+            while (bit < end) {
+                int word = bit >>> 6;
+                int span = Math.min(end - bit, 64 - (bit & 63));
+                long mask = (span == 64 ? -1L : (1L << span) - 1) << bit;
+                if ((words[word] & mask) != 0) return false;
+                bit += span;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit state fingerprint; boards of up to 8x8 cells return their packed word, so it is exact
+     */
+    public long hash64() {
+        if (words.length == 1) return words[0];
+        long h = 0x9E3779B97F4A7C15L * size;
+        for (long word : words) {
+            h = Long.rotateLeft(h ^ word, 27) * 0xC2B2AE3D27D4EB4FL;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    void checkSameSize(BitBoard other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("Board size mismatch: " + other.size + " vs " + size);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BitBoard)) return false;
+        BitBoard other = (BitBoard) o;
+        return size == other.size && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(words);
+    }
+}
@@ -1,84 +1,590 @@
 package com.groovegarden.model;
 
+import com.groovegarden.config.AppConfig;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Life-like automaton on a bounded board, stepped on bit-packed words.
+ *
+ * Each word is advanced in one pass: the eight neighbour planes are summed
+ * with bit-parallel adders and the {@link Rule} is applied without branching,
+ * so a 64-cell word costs about the same as a single cell did before. The
+ * board runs Conway's rule unless told otherwise, and zones of the board can
+ * follow rules of their own.
+ *
+ * The board is divided into tiles one word wide and {@value #TILE_ROWS} rows
+ * tall. Only tiles that changed in the previous generation, or border one
+ * that did, are evaluated; everywhere else the board is still and the other
+ * buffer already holds the same cells, so per-step cost follows activity
+ * rather than area.
+ *
+ * When at least {@code performance.parallel.threshold} cells are in active
+ * tiles they are stepped in row bands on a fork/join pool. Bands read their
+ * halo rows straight from the shared source buffer and write only their own
+ * rows of the other buffer, so a generation allocates nothing.
+ *
+ * The live cell count is kept up to date as words change, and an attached
+ * {@link DirtyCells} collects every cell the automaton flips.
+ */
 public class CellularAutomaton {
-    private int gridSize;
-    private boolean[][] currentState;
-    private boolean[][] nextState;
-    
+    public static final int TILE_ROWS = 64;
+
+    private static final long NOT_COL0 = 0xFEFEFEFEFEFEFEFEL;
+    private static final long NOT_COL7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final BitBoard[] NO_ZONES = new BitBoard[0];
+    private static final Rule[] NO_RULES = new Rule[0];
+
+    private final int gridSize;
+    private BitBoard currentState;
+    private BitBoard nextState;
+    private final int wordsPerRow;
+    private final long smallMask;
+    private final long lastWordMask;
+    private long keepMask; // -1 while live cells persist whatever the rule says
+    private Rule rule = Rule.CONWAY;
+    private Rule[] zoneRules = NO_RULES;
+    private long[][] zoneWords = new long[0][];
+    private HashLife hashLife;
+
+    // Tiles that changed during the last step, and tiles due for evaluation in the next one
+    private final int tileCols;
+    private final int tileRows;
+    private boolean[] changedTiles;
+    private boolean[] nextChangedTiles;
+    private final boolean[] activeTiles;
+    private int activeTileCount;
+    private long population;
+    private DirtyCells changes;
+
+    private final int parallelThreshold;
+    private final ParallelStep parallelStep;
+
+    // Unpacked copy of the current state, allocated and rebuilt lazily for getCurrentState()
+    private boolean[][] stateView;
+    private boolean stateViewValid;
+
     public CellularAutomaton(int gridSize) {
+        this(gridSize, ForkJoinPool.commonPool(), AppConfig.getInt("performance.parallel.threshold"));
+    }
+
+    /**
+     * @param parallelThreshold smallest active cell count stepped in parallel; 0 or less keeps it single-threaded
+     */
+    public CellularAutomaton(int gridSize, ForkJoinPool pool, int parallelThreshold) {
         this.gridSize = gridSize;
-        this.currentState = new boolean[gridSize][gridSize];
-        this.nextState = new boolean[gridSize][gridSize];
+        this.currentState = new BitBoard(gridSize);
+        this.nextState = new BitBoard(gridSize);
+        this.wordsPerRow = currentState.getWordsPerRow();
+        this.smallMask = smallBoardMask(gridSize);
+        this.lastWordMask = (gridSize & 63) == 0 ? -1L : (1L << (gridSize & 63)) - 1;
+
+        boolean small = currentState.isSingleWord();
+        this.tileCols = small ? 1 : wordsPerRow;
+        this.tileRows = small ? 1 : (gridSize + TILE_ROWS - 1) / TILE_ROWS;
+        this.changedTiles = new boolean[tileCols * tileRows];
+        this.nextChangedTiles = new boolean[tileCols * tileRows];
+        this.activeTiles = new boolean[tileCols * tileRows];
+
+        this.parallelThreshold = parallelThreshold;
+        boolean parallel = parallelThreshold > 0 && !small && (long) gridSize * gridSize >= parallelThreshold;
+        this.parallelStep = parallel ? new ParallelStep(pool) : null;
     }
-    
+
     public void update(boolean[][] inputGrid) {
-        // Copy input grid to current state
-        for (int row = 0; row < gridSize; row++) {
-            for (int col = 0; col < gridSize; col++) {
-                currentState[row][col] = inputGrid[row][col];
-            }
-        }
-        
-        // Apply Conway's Game of Life rules
-        for (int row = 0; row < gridSize; row++) {
-            for (int col = 0; col < gridSize; col++) {
-                int neighbors = countNeighbors(row, col);
-                boolean isAlive = currentState[row][col];
-                
-                if (isAlive) {
-                    // Live cell: survives with 2-3 neighbors
-                    nextState[row][col] = (neighbors == 2 || neighbors == 3);
-                } else {
-                    // Dead cell: becomes alive with exactly 3 neighbors
-                    nextState[row][col] = (neighbors == 3);
+        // The spare buffer is fully rewritten by the step, so it can stage the input
+        nextState.load(inputGrid);
+        replace(nextState.getWords());
+        markAllChanged();
+        step();
+    }
+
+    public void update(BitBoard inputGrid) {
+        currentState.checkSameSize(inputGrid);
+        replace(inputGrid.getWords());
+        markAllChanged();
+        step();
+    }
+
+    /**
+     * Replace the current state without stepping, marking only the tiles that differ
+     */
+    public void load(BitBoard board) {
+        currentState.checkSameSize(board);
+        replace(board.getWords());
+    }
+
+    /**
+     * Copy words into the current state, keeping tiles, population and tracked changes in step
+     */
+    private void replace(long[] src) {
+        long[] dst = currentState.getWords();
+        for (int index = 0; index < dst.length; index++) {
+            long diff = dst[index] ^ src[index];
+            if (diff == 0) continue;
+            population += Long.bitCount(src[index]) - Long.bitCount(dst[index]);
+            dst[index] = src[index];
+            changedTiles[tileOf(index)] = true;
+            if (changes != null) {
+                changes.markWord(index, diff);
+            }
+        }
+        stateViewValid = false;
+    }
+
+    private int tileOf(int index) {
+        return currentState.isSingleWord() ? 0 : (index / wordsPerRow / TILE_ROWS) * tileCols + index % wordsPerRow;
+    }
+
+    /**
+     * Collect every cell the automaton changes from now on; null stops tracking
+     */
+    public void trackChanges(DirtyCells changes) {
+        if (changes != null && changes.getSize() != gridSize) {
+            throw new IllegalArgumentException("Board size mismatch: " + changes.getSize() + " vs " + gridSize);
+        }
+        this.changes = changes;
+    }
+
+    /**
+     * Live cells, maintained incrementally
+     */
+    public long getPopulation() {
+        return population;
+    }
+
+    public void setRule(Rule rule) {
+        setRules(rule, NO_ZONES, NO_RULES);
+    }
+
+    /**
+     * Use the base rule everywhere except the cells of each zone, which follow the matching zone rule.
+     *
+     * Later zones win where zones overlap. The zone boards are read live, so
+     * the caller keeps ownership; edits to them must be followed by
+     * {@link #markChanged} for the affected cells. Nothing is copied, so
+     * switching between prepared arrays does not allocate.
+     */
+    public void setRules(Rule baseRule, BitBoard[] zones, Rule[] rules) {
+        if (zones.length != rules.length) {
+            throw new IllegalArgumentException("Each zone needs a rule: " + zones.length + " zones, " + rules.length + " rules");
+        }
+        if (zoneWords.length != zones.length) {
+            zoneWords = new long[zones.length][];
+        }
+        for (int i = 0; i < zones.length; i++) {
+            currentState.checkSameSize(zones[i]);
+            zoneWords[i] = zones[i].getWords();
+        }
+        this.rule = baseRule;
+        this.zoneRules = rules;
+        if (hashLife != null) {
+            hashLife.setRule(baseRule);
+        }
+        markAllChanged();
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * Whether every cell follows the base rule
+     */
+    private boolean isUniform() {
+        for (Rule zoneRule : zoneRules) {
+            if (!zoneRule.equals(rule)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keep live cells alive regardless of the rule, so the pattern only grows
+     */
+    public void setPersistent(boolean persistent) {
+        if (persistent != isPersistent()) {
+            keepMask = persistent ? -1L : 0L;
+            markAllChanged();
+        }
+    }
+
+    public boolean isPersistent() {
+        return keepMask != 0;
+    }
+
+    /**
+     * Advance the automaton's own state by one generation
+     */
+    public void step() {
+        long[] src = currentState.getWords();
+        long[] dst = nextState.getWords();
+
+        if (currentState.isSingleWord()) {
+            boolean active = changedTiles[0];
+            activeTileCount = active ? 1 : 0;
+            if (active) {
+                dst[0] = stepSmall(src[0]);
+                population += Long.bitCount(dst[0]) - Long.bitCount(src[0]);
+                if (changes != null) {
+                    changes.markWord(0, dst[0] ^ src[0]);
                 }
             }
+            nextChangedTiles[0] = active && dst[0] != src[0];
+        } else {
+            activeTileCount = markActiveTiles();
+            if (parallelStep != null && (long) activeTileCount * 64 * TILE_ROWS >= parallelThreshold) {
+                population += parallelStep.run(src, dst);
+            } else {
+                population += stepTileRows(src, dst, 0, tileRows);
+            }
         }
-        
+
         // Swap states
-        boolean[][] temp = currentState;
+        BitBoard temp = currentState;
         currentState = nextState;
         nextState = temp;
+        boolean[] tempTiles = changedTiles;
+        changedTiles = nextChangedTiles;
+        nextChangedTiles = tempTiles;
+        stateViewValid = false;
     }
-    
-    private int countNeighbors(int row, int col) {
-        int count = 0;
-        
-        for (int dr = -1; dr <= 1; dr++) {
-            for (int dc = -1; dc <= 1; dc++) {
-                if (dr == 0 && dc == 0) continue; // Skip self
-                
-                int nr = row + dr;
-                int nc = col + dc;
-                
-                // Check bounds
-                if (nr >= 0 && nr < gridSize && nc >= 0 && nc < gridSize) {
-                    if (currentState[nr][nc]) {
-                        count++;
+
+    /**
+     * Flag every tile that changed during the last step along with its eight neighbours
+     */
+    private int markActiveTiles() {
+        Arrays.fill(activeTiles, false);
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                if (!changedTiles[tileRow * tileCols + tileCol]) continue;
+                int rowTo = Math.min(tileRows - 1, tileRow + 1);
+                int colFrom = Math.max(0, tileCol - 1);
+                int colTo = Math.min(tileCols - 1, tileCol + 1);
+                for (int r = Math.max(0, tileRow - 1); r <= rowTo; r++) {
+                    for (int c = colFrom; c <= colTo; c++) {
+                        activeTiles[r * tileCols + c] = true;
                     }
                 }
             }
         }
-        
+
+        int count = 0;
+        for (boolean active : activeTiles) {
+            if (active) count++;
+        }
         return count;
     }
-    
+
+    /**
+     * Step the active tiles of tile rows [tileRowFrom, tileRowTo) and record which of them changed
+     *
+     * @return the change in population
+     */
+    private long stepTileRows(long[] src, long[] dst, int tileRowFrom, int tileRowTo) {
+        long delta = 0;
+        for (int tileRow = tileRowFrom; tileRow < tileRowTo; tileRow++) {
+            int rowFrom = tileRow * TILE_ROWS;
+            int rowTo = Math.min(gridSize, rowFrom + TILE_ROWS);
+            for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                int tile = tileRow * tileCols + tileCol;
+                // Inactive tiles were still last step, so dst already holds the same words
+                nextChangedTiles[tile] = false;
+                if (activeTiles[tile]) {
+                    delta += stepTile(src, dst, rowFrom, rowTo, tileCol, tile);
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Jump ahead many generations at once, with the same result as that many
+     * {@link #step()} calls.
+     *
+     * A board with one rule everywhere goes through HashLife, which sees the
+     * same edges and persistence as the stepper. The memo cache is kept
+     * between calls, so repeated previews of a similar garden get cheaper.
+     * Zones with rules of their own are not in the quadtree, so such a board
+     * is stepped generation by generation instead.
+     */
+    public void fastForward(long generations) {
+        if (generations < 0) {
+            throw new IllegalArgumentException("Cannot fast-forward backwards: " + generations);
+        }
+        if (!isUniform()) {
+            for (long gen = 0; gen < generations; gen++) {
+                step();
+            }
+            return;
+        }
+        if (generations == 0) return;
+        if (hashLife == null) {
+            int capacity = AppConfig.getInt("performance.hashlife.cache.nodes");
+            hashLife = new HashLife(capacity >= 1024 ? capacity : HashLife.DEFAULT_CACHE_CAPACITY, rule);
+        }
+        hashLife.setPersistent(isPersistent());
+        hashLife.load(currentState);
+        hashLife.fastForward(generations);
+        hashLife.store(nextState);
+        replace(nextState.getWords());
+        markAllChanged();
+    }
+
+    /**
+     * Step a board of up to 8x8 cells packed into one word with an 8-bit row stride
+     */
+    private long stepSmall(long cells) {
+        long west = (cells << 1) & NOT_COL0;
+        long east = (cells >>> 1) & NOT_COL7;
+        long nw = west << 8, n = cells << 8, ne = east << 8;
+        long sw = west >>> 8, s = cells >>> 8, se = east >>> 8;
+
+        long next = rule.apply(cells, nw, n, ne, west, east, sw, s, se);
+        for (int z = 0; z < zoneRules.length; z++) {
+            long zone = zoneWords[z][0];
+            if (zone != 0) {
+                next ^= (next ^ zoneRules[z].apply(cells, nw, n, ne, west, east, sw, s, se)) & zone;
+            }
+        }
+        return (next | (cells & keepMask)) & smallMask;
+    }
+
+    /**
+     * Step rows [rowFrom, rowTo) of one word column of a word-per-row board from src into dst,
+     * flagging the tile if any of its words changed
+     *
+     * @return the change in population
+     */
+    private long stepTile(long[] src, long[] dst, int rowFrom, int rowTo, int word, int tile) {
+        long[] dirty = changes != null ? changes.words() : null;
+        boolean hasLeft = word > 0;
+        boolean hasRight = word < wordsPerRow - 1;
+        long mask = hasRight ? -1L : lastWordMask;
+
+        // Sliding window down the column over the row above, the current row and the row below
+        long aL = 0, aC = 0, aR = 0;
+        if (rowFrom > 0) {
+            int above = (rowFrom - 1) * wordsPerRow + word;
+            aL = hasLeft ? src[above - 1] : 0;
+            aC = src[above];
+            aR = hasRight ? src[above + 1] : 0;
+        }
+        int index = rowFrom * wordsPerRow + word;
+        long mL = hasLeft ? src[index - 1] : 0;
+        long mC = src[index];
+        long mR = hasRight ? src[index + 1] : 0;
+
+        long changed = 0;
+        long delta = 0;
+        for (int row = rowFrom; row < rowTo; row++, index += wordsPerRow) {
+            long bL = 0, bC = 0, bR = 0;
+            if (row < gridSize - 1) {
+                int below = index + wordsPerRow;
+                bL = hasLeft ? src[below - 1] : 0;
+                bC = src[below];
+                bR = hasRight ? src[below + 1] : 0;
+            }
+
+            long nw = (aC << 1) | (aL >>> 63), ne = (aC >>> 1) | (aR << 63);
+            long w = (mC << 1) | (mL >>> 63), e = (mC >>> 1) | (mR << 63);
+            long sw = (bC << 1) | (bL >>> 63), se = (bC >>> 1) | (bR << 63);
+
+            long out = rule.apply(mC, nw, aC, ne, w, e, sw, bC, se);
+            for (int z = 0; z < zoneRules.length; z++) {
+                long zone = zoneWords[z][index];
+                if (zone != 0) {
+                    out ^= (out ^ zoneRules[z].apply(mC, nw, aC, ne, w, e, sw, bC, se)) & zone;
+                }
+            }
+            out = (out | (mC & keepMask)) & mask;
+            long diff = out ^ mC;
+            changed |= diff;
+            delta += Long.bitCount(out) - Long.bitCount(mC);
+            if (dirty != null) {
+                dirty[index] |= diff;
+            }
+            dst[index] = out;
+
+            aL = mL; aC = mC; aR = mR;
+            mL = bL; mC = bC; mR = bR;
+        }
+        if (changed != 0) {
+            nextChangedTiles[tile] = true;
+            if (dirty != null) {
+                changes.markTile(tile);
+            }
+        }
+        return delta;
+    }
+
+    private static long smallBoardMask(int size) {
+        if (size > BitBoard.SMALL_STRIDE) return -1L;
+        long rowMask = (1L << size) - 1;
+        long mask = 0;
+        for (int row = 0; row < size; row++) {
+            mask |= rowMask << (row * BitBoard.SMALL_STRIDE);
+        }
+        return mask;
+    }
+
+    private void markAllChanged() {
+        Arrays.fill(changedTiles, true);
+    }
+
+    /**
+     * Make sure the tile holding the cell is stepped next time, e.g. after its zone changed
+     */
+    public void markChanged(int row, int col) {
+        changedTiles[currentState.isSingleWord() ? 0 : (row / TILE_ROWS) * tileCols + (col >>> 6)] = true;
+    }
+
+    /**
+     * Same as {@link #markChanged(int, int)} for every cell of one packed word
+     */
+    void markWordChanged(int index) {
+        changedTiles[tileOf(index)] = true;
+    }
+
+    public boolean isParallel() {
+        return parallelStep != null;
+    }
+
+    /**
+     * Tiles evaluated by the last step
+     */
+    public int getActiveTileCount() {
+        return activeTileCount;
+    }
+
+    public int getTileCount() {
+        return tileCols * tileRows;
+    }
+
+    /**
+     * Whether the last step left every cell as it was
+     */
+    public boolean isStill() {
+        for (boolean changed : changedTiles) {
+            if (changed) return false;
+        }
+        return true;
+    }
+
+    /**
+     * One generation split into bands of tile rows; tasks are built once and reinitialized per step
+     */
+    private final class ParallelStep extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int BANDS_PER_THREAD = 4;
+
+        private final ForkJoinPool pool;
+        private final Band[] bands;
+        private long[] src;
+        private long[] dst;
+
+        ParallelStep(ForkJoinPool pool) {
+            this.pool = pool;
+            int bandCount = Math.max(1, Math.min(pool.getParallelism() * BANDS_PER_THREAD, tileRows));
+            this.bands = new Band[bandCount];
+            for (int i = 0; i < bandCount; i++) {
+                bands[i] = new Band(this, i * tileRows / bandCount, (i + 1) * tileRows / bandCount);
+            }
+        }
+
+        long run(long[] src, long[] dst) {
+            this.src = src;
+            this.dst = dst;
+            reinitialize();
+            pool.invoke(this);
+            long delta = 0;
+            for (Band band : bands) {
+                delta += band.delta;
+            }
+            return delta;
+        }
+
+        @Override
+        protected void compute() {
+            for (Band band : bands) {
+                band.reinitialize();
+            }
+            invokeAll(bands);
+        }
+    }
+
+    private final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelStep step;
+        private final int tileRowFrom;
+        private final int tileRowTo;
+        private long delta;
+
+        Band(ParallelStep step, int tileRowFrom, int tileRowTo) {
+            this.step = step;
+            this.tileRowFrom = tileRowFrom;
+            this.tileRowTo = tileRowTo;
+        }
+
+        @Override
+        protected void compute() {
+            delta = stepTileRows(step.src, step.dst, tileRowFrom, tileRowTo);
+        }
+    }
+
     public boolean[][] getCurrentState() {
+        if (stateView == null) {
+            stateView = new boolean[gridSize][gridSize];
+        }
+        if (!stateViewValid) {
+            currentState.store(stateView);
+            stateViewValid = true;
+        }
+        return stateView;
+    }
+
+    /**
+     * Packed current state; valid until the next step.
+     *
+     * Edit cells through {@link #setCell} rather than this board, or the
+     * change is not tracked and the surrounding tiles may not be stepped.
+     */
+    public BitBoard getBoard() {
         return currentState;
     }
-    
+
     public void setCell(int row, int col, boolean alive) {
         if (row >= 0 && row < gridSize && col >= 0 && col < gridSize) {
-            currentState[row][col] = alive;
+            if (currentState.get(row, col) == alive) return;
+            currentState.set(row, col, alive);
+            population += alive ? 1 : -1;
+            markChanged(row, col);
+            if (changes != null) {
+                changes.mark(row, col);
+            }
+            if (stateViewValid) {
+                stateView[row][col] = alive;
+            }
         }
     }
-    
+
+    public void flipCell(int row, int col) {
+        setCell(row, col, !currentState.get(row, col));
+    }
+
     public void clear() {
-        for (int row = 0; row < gridSize; row++) {
-            for (int col = 0; col < gridSize; col++) {
-                currentState[row][col] = false;
-                nextState[row][col] = false;
+        if (changes != null) {
+            long[] words = currentState.getWords();
+            for (int index = 0; index < words.length; index++) {
+                changes.markWord(index, words[index]);
             }
         }
+        population = 0;
+        currentState.clear();
+        nextState.clear();
+        Arrays.fill(changedTiles, false);
+        stateViewValid = false;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,265 @@
+package com.groovegarden.model;
+
+import java.util.Arrays;
+
+/**
+ * Spots when a bounded automaton starts repeating itself.
+ *
+ * Each generation is recorded by its {@link BitBoard#hash64()} in a short
+ * ring of recent states; a repeat within the ring gives the period. A small
+ * LRU cache maps state hashes to their successors so that a garden cycling
+ * through the same states can be replayed instead of re-stepped. The cache
+ * is an open-addressing table of primitive keys over preallocated entries
+ * chained in access order, so a lookup neither boxes nor allocates, and
+ * each entry keeps the full state it was stored for: a hash collision is a
+ * miss, never a wrong successor.
+ *
+ * Successors depend on the rules and their zones as well as on the state,
+ * so the owner clears the cache whenever those change. Under zoned rules
+ * that can be every generation while cells die and return their zones, and
+ * the cache only pays off once the zones have settled.
+ *
+ * Hashes are exact for boards of up to 8x8 cells. Larger boards rely on a
+ * 64-bit fingerprint, so a false repeat is possible but vanishingly rare.
+ */
+public class CycleDetector {
+    private static final int NONE = -1;
+
+    private final long[] history;
+    private int historyCount;
+    private int historyHead;
+    private int period;
+
+    private final int cacheCapacity;
+    // Entry of each slot, or NONE; probed linearly from the key's slot
+    private final int[] table;
+    private final long[] entryKeys;
+    private final Transition[] entries;
+    // Access order, most recent first
+    private final int[] newer;
+    private final int[] older;
+    private int newest = NONE;
+    private int oldest = NONE;
+    private int size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param historyLength recent states searched for a repeat, which bounds the longest period found
+     * @param cacheCapacity successor states kept; 0 disables the transition cache
+     */
+    public CycleDetector(int historyLength, int cacheCapacity) {
+        this.history = new long[Math.max(1, historyLength)];
+        this.cacheCapacity = Math.max(0, cacheCapacity);
+        // At most half full
+        this.table = new int[Integer.highestOneBit(Math.max(1, this.cacheCapacity)) << 2];
+        this.entryKeys = new long[this.cacheCapacity];
+        this.entries = new Transition[this.cacheCapacity];
+        this.newer = new int[this.cacheCapacity];
+        this.older = new int[this.cacheCapacity];
+        Arrays.fill(table, NONE);
+    }
+
+    /**
+     * Record the state of the next generation
+     *
+     * @return the period, or 0 while no recent state has repeated
+     */
+    public int record(long stateHash) {
+        period = 0;
+        for (int age = 1; age <= historyCount; age++) {
+            if (history[(historyHead - age + history.length) % history.length] == stateHash) {
+                period = age;
+                break;
+            }
+        }
+        history[historyHead] = stateHash;
+        historyHead = (historyHead + 1) % history.length;
+        historyCount = Math.min(historyCount + 1, history.length);
+        return period;
+    }
+
+    /**
+     * Forget the recorded sequence, e.g. after the board was edited between generations.
+     *
+     * Cached transitions stay valid since they only depend on the state.
+     */
+    public void reset() {
+        historyCount = 0;
+        historyHead = 0;
+        period = 0;
+    }
+
+    /**
+     * Cached successor of the given state, or null; valid until the next {@link #remember}
+     */
+    public Transition recall(long stateHash, BitBoard state) {
+        if (cacheCapacity == 0) return null;
+        int slot = find(stateHash);
+        int entry = slot == NONE ? NONE : table[slot];
+        if (entry == NONE || !entries[entry].state.equals(state)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        unlink(entry);
+        linkNewest(entry);
+        return entries[entry];
+    }
+
+    public void remember(long stateHash, BitBoard state, long successorHash, BitBoard successor) {
+        if (cacheCapacity == 0) return;
+        int slot = find(stateHash);
+        int entry;
+        if (slot != NONE) {
+            // Same hash: keep the entry, or take it over if another state collided into it
+            entry = table[slot];
+            if (entries[entry].state.equals(state)) return;
+            unlink(entry);
+        } else {
+            if (size < cacheCapacity) {
+                entry = size++;
+                if (entries[entry] == null) {
+                    entries[entry] = new Transition(state.getSize());
+                }
+            } else {
+                // Reuse the least recently used entry and its boards
+                entry = oldest;
+                unlink(entry);
+                remove(find(entryKeys[entry]));
+            }
+            entryKeys[entry] = stateHash;
+            insert(entry);
+        }
+        Transition transition = entries[entry];
+        transition.state.copyFrom(state);
+        transition.hash = successorHash;
+        transition.board.copyFrom(successor);
+        linkNewest(entry);
+    }
+
+    private static int home(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Slot holding the key, or NONE
+     */
+    private int find(long key) {
+        int mask = table.length - 1;
+        for (int slot = home(key) & mask; table[slot] != NONE; slot = (slot + 1) & mask) {
+            if (entryKeys[table[slot]] == key) return slot;
+        }
+        return NONE;
+    }
+
+    private void insert(int entry) {
+        int mask = table.length - 1;
+        int slot = home(entryKeys[entry]) & mask;
+        while (table[slot] != NONE) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+    }
+
+    /**
+     * Empty the slot, shifting back later entries of the run that probed past it
+     */
+    private void remove(int slot) {
+        int mask = table.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; table[next] != NONE; next = (next + 1) & mask) {
+            int home = home(entryKeys[table[next]]) & mask;
+            // Move it unless its home lies after the hole, within the run
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = NONE;
+    }
+
+    private void linkNewest(int entry) {
+        older[entry] = newest;
+        newer[entry] = NONE;
+        if (newest != NONE) {
+            newer[newest] = entry;
+        } else {
+            oldest = entry;
+        }
+        newest = entry;
+    }
+
+    private void unlink(int entry) {
+        if (newer[entry] != NONE) {
+            older[newer[entry]] = older[entry];
+        } else {
+            newest = older[entry];
+        }
+        if (older[entry] != NONE) {
+            newer[older[entry]] = newer[entry];
+        } else {
+            oldest = newer[entry];
+        }
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public boolean isCyclic() {
+        return period > 0;
+    }
+
+    public int getCacheSize() {
+        return size;
+    }
+
+    public int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Forget every cached successor; the entries' boards are kept for reuse
+     */
+    public void clearCache() {
+        Arrays.fill(table, NONE);
+        // Allocated entries are handed out again from the start
+        for (int entry = 0; entry < size; entry++) {
+            newer[entry] = older[entry] = NONE;
+        }
+        newest = oldest = NONE;
+        size = 0;
+    }
+
+    /**
+     * Successor state with its hash
+     */
+    public static final class Transition {
+        private final BitBoard state;
+        private long hash;
+        private final BitBoard board;
+
+        Transition(int size) {
+            this.state = new BitBoard(size);
+            this.board = new BitBoard(size);
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public BitBoard getBoard() {
+            return board;
+        }
+    }
+}
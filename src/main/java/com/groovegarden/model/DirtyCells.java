@@ -0,0 +1,177 @@
+package com.groovegarden.model;
+
+import java.util.Arrays;
+
+/**
+ * Cells changed since they were last drained.
+ *
+ * A bitset with a per-tile summary; tiles match the automaton's, one word
+ * wide and {@value CellularAutomaton#TILE_ROWS} rows tall, so draining only
+ * visits tiles that saw a change and costs about as much as the changes do.
+ */
+public class DirtyCells {
+    public static final int BATCH_SIZE = 256;
+
+    /**
+     * Receives changed cells in batches; the arrays are reused between calls
+     */
+    public interface Listener {
+        void cellsChanged(int[] rows, int[] cols, int count);
+    }
+
+    private final BitBoard cells;
+    private final long[] words;
+    private final int wordsPerRow;
+    private final int stride;
+    private final int rows;
+    private final boolean[] tiles;
+    private boolean empty = true;
+
+    private final int[] batchRows = new int[BATCH_SIZE];
+    private final int[] batchCols = new int[BATCH_SIZE];
+
+    public DirtyCells(int gridSize) {
+        this.cells = new BitBoard(gridSize);
+        this.words = cells.getWords();
+        this.wordsPerRow = cells.isSingleWord() ? 1 : cells.getWordsPerRow();
+        this.stride = cells.getStride();
+        this.rows = cells.isSingleWord() ? 1 : gridSize;
+        int tileRows = (rows + CellularAutomaton.TILE_ROWS - 1) / CellularAutomaton.TILE_ROWS;
+        this.tiles = new boolean[tileRows * wordsPerRow];
+    }
+
+    public void mark(int row, int col) {
+        int bit = row * stride + col;
+        markWord(bit >>> 6, 1L << bit);
+    }
+
+    /**
+     * Mark the set bits of one packed word; indices follow {@link BitBoard#getWords()}
+     */
+    void markWord(int index, long bits) {
+        if (bits == 0) return;
+        words[index] |= bits;
+        tiles[tileOf(index)] = true;
+        empty = false;
+    }
+
+    /**
+     * Raw words for the automaton's step loop, which marks the tile through {@link #markTile}
+     */
+    long[] words() {
+        return words;
+    }
+
+    void markTile(int tile) {
+        tiles[tile] = true;
+        empty = false;
+    }
+
+    private int tileOf(int index) {
+        return (index / wordsPerRow / CellularAutomaton.TILE_ROWS) * wordsPerRow + index % wordsPerRow;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public int getSize() {
+        return cells.getSize();
+    }
+
+    /**
+     * Hand every changed cell to the listener in batches of up to {@value #BATCH_SIZE} and forget them
+     *
+     * @return the number of cells handed out
+     */
+    public int drain(Listener listener) {
+        if (empty) return 0;
+        int total = 0;
+        int count = 0;
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (!tiles[tile]) continue;
+            tiles[tile] = false;
+
+            int word = tile % wordsPerRow;
+            int rowFrom = tile / wordsPerRow * CellularAutomaton.TILE_ROWS;
+            int rowTo = Math.min(rows, rowFrom + CellularAutomaton.TILE_ROWS);
+            for (int row = rowFrom; row < rowTo; row++) {
+                int index = row * wordsPerRow + word;
+                long bits = words[index];
+                if (bits == 0) continue;
+                words[index] = 0;
+                while (bits != 0) {
+                    int bit = (index << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    batchRows[count] = bit / stride;
+                    batchCols[count] = bit % stride;
+                    if (++count == BATCH_SIZE) {
+                        listener.cellsChanged(batchRows, batchCols, count);
+                        total += count;
+                        count = 0;
+                    }
+                }
+            }
+        }
+        if (count > 0) {
+            listener.cellsChanged(batchRows, batchCols, count);
+            total += count;
+        }
+        empty = true;
+        return total;
+    }
+
+    /**
+     * Clear each plane's bits at changed cells that are not live; the changes stay marked
+     *
+     * @return whether any bit was cleared
+     */
+    boolean retainLive(BitBoard live, BitBoard[] planes) {
+        if (empty) return false;
+        long[] liveWords = live.getWords();
+        boolean cleared = false;
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (!tiles[tile]) continue;
+
+            int word = tile % wordsPerRow;
+            int rowFrom = tile / wordsPerRow * CellularAutomaton.TILE_ROWS;
+            int rowTo = Math.min(rows, rowFrom + CellularAutomaton.TILE_ROWS);
+            for (int row = rowFrom; row < rowTo; row++) {
+                int index = row * wordsPerRow + word;
+                long dead = words[index] & ~liveWords[index];
+                if (dead == 0) continue;
+                for (BitBoard plane : planes) {
+                    long[] planeWords = plane.getWords();
+                    cleared |= (planeWords[index] & dead) != 0;
+                    planeWords[index] &= ~dead;
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Forget the changed cells without handing them out, visiting only the tiles that saw a change
+     */
+    public void discard() {
+        if (empty) return;
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (!tiles[tile]) continue;
+            tiles[tile] = false;
+
+            int word = tile % wordsPerRow;
+            int rowFrom = tile / wordsPerRow * CellularAutomaton.TILE_ROWS;
+            int rowTo = Math.min(rows, rowFrom + CellularAutomaton.TILE_ROWS);
+            for (int row = rowFrom; row < rowTo; row++) {
+                words[row * wordsPerRow + word] = 0;
+            }
+        }
+        empty = true;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+        Arrays.fill(tiles, false);
+        empty = true;
+    }
+}
@@ -0,0 +1,319 @@
+package com.groovegarden.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded history of published grid states for undo, redo and scrubbing.
+ *
+ * Each frame stores only the packed words that differ from the frame before
+ * it, as (index, XOR) pairs over the activity and both layer planes. Every
+ * {@code keyframeInterval} frames, or sooner once the deltas since the last
+ * keyframe outweigh a full copy, a keyframe stores the state itself, so any
+ * frame is rebuilt from at most one keyframe and a bounded run of deltas.
+ * Frames are recorded from immutable {@link GridSnapshot}s, so recording
+ * never copies a board. When the history outgrows its byte budget the oldest
+ * keyframe and its deltas are dropped together.
+ */
+public class GridHistory {
+    // Object header, array headers and fields of one frame, roughly
+    private static final int FRAME_OVERHEAD = 64;
+
+    private static final class Frame {
+        final long generation;
+        final boolean keyframe;
+        final int[] indices;  // null when values holds the three planes densely
+        final long[] values;
+
+        Frame(long generation, boolean keyframe, int[] indices, long[] values) {
+            this.generation = generation;
+            this.keyframe = keyframe;
+            this.indices = indices;
+            this.values = values;
+        }
+
+        long bytes() {
+            return FRAME_OVERHEAD + (indices == null ? 0 : 4L * indices.length) + 8L * values.length;
+        }
+    }
+
+    private final int gridSize;
+    private final int planeWords;
+    private final int keyframeInterval;
+    private final long maxBytes;
+    private final List<Frame> frames = new ArrayList<>();
+    private long bytes;
+    private long deltaBytesSinceKeyframe;
+    private int framesSinceKeyframe;
+    private long droppedFrames;
+    private int cursor = -1;
+    private GridSnapshot last;
+
+    // Scratch for encoding one frame, reused between records
+    private int[] scratchIndices = new int[64];
+    private long[] scratchValues = new long[64];
+
+    public GridHistory(int gridSize, int keyframeInterval, long maxBytes) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval);
+        }
+        this.gridSize = gridSize;
+        this.planeWords = new BitBoard(gridSize).getWords().length;
+        this.keyframeInterval = keyframeInterval;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Append a frame for this snapshot, dropping any frames ahead of the cursor
+     */
+    public void record(GridSnapshot snapshot) {
+        if (snapshot.getGridSize() != gridSize) {
+            throw new IllegalArgumentException("Board size mismatch: " + snapshot.getGridSize() + " vs " + gridSize);
+        }
+        if (cursor < frames.size() - 1) {
+            truncateAfter(cursor);
+        }
+
+        boolean keyframe = last == null || framesSinceKeyframe >= keyframeInterval - 1;
+        Frame frame = keyframe ? encodeKeyframe(snapshot) : encodeDelta(snapshot);
+        if (!keyframe && deltaBytesSinceKeyframe + frame.bytes() > FRAME_OVERHEAD + 8L * 3 * planeWords) {
+            // Reaching this frame through deltas would cost more than storing it
+            frame = encodeKeyframe(snapshot);
+        }
+        append(frame);
+        last = snapshot;
+        trim();
+    }
+
+    /**
+     * Continue recording from this snapshot without adding a frame, e.g. after a restore
+     */
+    void resumeFrom(GridSnapshot snapshot) {
+        last = snapshot;
+    }
+
+    private void append(Frame frame) {
+        if (frame.keyframe) {
+            framesSinceKeyframe = 0;
+            deltaBytesSinceKeyframe = 0;
+        } else {
+            framesSinceKeyframe++;
+            deltaBytesSinceKeyframe += frame.bytes();
+        }
+        frames.add(frame);
+        bytes += frame.bytes();
+        cursor = frames.size() - 1;
+    }
+
+    private Frame encodeKeyframe(GridSnapshot snapshot) {
+        int count = 0;
+        BitBoard[] planes = planesOf(snapshot);
+        for (int plane = 0; plane < planes.length; plane++) {
+            long[] words = planes[plane].getWords();
+            for (int index = 0; index < words.length; index++) {
+                if (words[index] != 0) {
+                    count = put(count, plane * planeWords + index, words[index]);
+                }
+            }
+        }
+        // Sparse pairs take 12 bytes a word, so dense wins past two thirds full
+        if (12L * count < 8L * 3 * planeWords) {
+            return new Frame(snapshot.getGeneration(), true,
+                    Arrays.copyOf(scratchIndices, count), Arrays.copyOf(scratchValues, count));
+        }
+        long[] dense = new long[3 * planeWords];
+        for (int plane = 0; plane < planes.length; plane++) {
+            System.arraycopy(planes[plane].getWords(), 0, dense, plane * planeWords, planeWords);
+        }
+        return new Frame(snapshot.getGeneration(), true, null, dense);
+    }
+
+    private Frame encodeDelta(GridSnapshot snapshot) {
+        int count = 0;
+        BitBoard[] planes = planesOf(snapshot);
+        BitBoard[] previous = planesOf(last);
+        for (int plane = 0; plane < planes.length; plane++) {
+            // Planes shared with the previous snapshot are unchanged
+            if (planes[plane] == previous[plane]) continue;
+            long[] words = planes[plane].getWords();
+            long[] before = previous[plane].getWords();
+            for (int index = 0; index < words.length; index++) {
+                long diff = words[index] ^ before[index];
+                if (diff != 0) {
+                    count = put(count, plane * planeWords + index, diff);
+                }
+            }
+        }
+        return new Frame(snapshot.getGeneration(), false,
+                Arrays.copyOf(scratchIndices, count), Arrays.copyOf(scratchValues, count));
+    }
+
+    private int put(int count, int index, long value) {
+        if (count == scratchIndices.length) {
+            scratchIndices = Arrays.copyOf(scratchIndices, count * 2);
+            scratchValues = Arrays.copyOf(scratchValues, count * 2);
+        }
+        scratchIndices[count] = index;
+        scratchValues[count] = value;
+        return count + 1;
+    }
+
+    private static BitBoard[] planesOf(GridSnapshot snapshot) {
+        return new BitBoard[] {snapshot.activity(), snapshot.melodyLayer(), snapshot.bothLayer()};
+    }
+
+    private void truncateAfter(int frame) {
+        for (int i = frames.size() - 1; i > frame; i--) {
+            bytes -= frames.remove(i).bytes();
+        }
+        // Recount the run since the last keyframe so the next keyframe lands on time
+        framesSinceKeyframe = 0;
+        deltaBytesSinceKeyframe = 0;
+        for (int i = frame; i >= 0 && !frames.get(i).keyframe; i--) {
+            framesSinceKeyframe++;
+            deltaBytesSinceKeyframe += frames.get(i).bytes();
+        }
+    }
+
+    /**
+     * Drop whole keyframe runs from the front until the history fits its budget
+     */
+    private void trim() {
+        while (bytes > maxBytes) {
+            int next = 1;
+            while (next < frames.size() && !frames.get(next).keyframe) {
+                next++;
+            }
+            // Never drop the run holding the newest frame
+            if (next >= frames.size()) return;
+            List<Frame> dropped = frames.subList(0, next);
+            for (Frame frame : dropped) {
+                bytes -= frame.bytes();
+            }
+            dropped.clear();
+            droppedFrames += next;
+            cursor = Math.max(0, cursor - next);
+        }
+    }
+
+    /**
+     * Rebuild a frame into the three boards, each the size of the grid
+     */
+    public void reconstruct(int frame, BitBoard activity, BitBoard melody, BitBoard both) {
+        if (frame < 0 || frame >= frames.size()) {
+            throw new IndexOutOfBoundsException("No history frame " + frame + " of " + frames.size());
+        }
+        int start = frame;
+        while (!frames.get(start).keyframe) {
+            start--;
+        }
+        long[][] planes = {activity.getWords(), melody.getWords(), both.getWords()};
+        for (long[] words : planes) {
+            Arrays.fill(words, 0L);
+        }
+        for (int i = start; i <= frame; i++) {
+            Frame f = frames.get(i);
+            if (f.indices == null) {
+                for (int plane = 0; plane < planes.length; plane++) {
+                    System.arraycopy(f.values, plane * planeWords, planes[plane], 0, planeWords);
+                }
+                continue;
+            }
+            for (int j = 0; j < f.indices.length; j++) {
+                int index = f.indices[j];
+                planes[index / planeWords][index % planeWords] ^= f.values[j];
+            }
+        }
+    }
+
+    void setCursor(int frame) {
+        if (frame < 0 || frame >= frames.size()) {
+            throw new IndexOutOfBoundsException("No history frame " + frame + " of " + frames.size());
+        }
+        cursor = frame;
+    }
+
+    /**
+     * Frame the model is at; frames after it can be redone until the next record
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    public long getGeneration(int frame) {
+        return frames.get(frame).generation;
+    }
+
+    /**
+     * Latest frame recorded at or before this generation, or -1 if it is no longer held
+     */
+    public int findFrame(long generation) {
+        int low = 0;
+        int high = Math.min(cursor, frames.size() - 1);
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (frames.get(mid).generation <= generation) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public boolean canUndo() {
+        return cursor > 0;
+    }
+
+    public boolean canRedo() {
+        return cursor < frames.size() - 1;
+    }
+
+    /**
+     * Approximate heap held by the recorded frames
+     */
+    public long getMemoryBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getKeyframeCount() {
+        int count = 0;
+        for (Frame frame : frames) {
+            if (frame.keyframe) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Frames dropped from the front to stay within the byte budget
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public void clear() {
+        frames.clear();
+        bytes = 0;
+        deltaBytesSinceKeyframe = 0;
+        framesSinceKeyframe = 0;
+        cursor = -1;
+        last = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames (%d keyframes), %.1f KB of %.1f KB, %d dropped",
+                frames.size(), getKeyframeCount(), bytes / 1024.0, maxBytes / 1024.0, droppedFrames);
+    }
+}
@@ -1,98 +1,588 @@
 package com.groovegarden.model;
 
+import com.groovegarden.config.AppConfig;
 import com.groovegarden.model.CellularAutomaton;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Garden grid state, sized from {@code grid.size}.
+ *
+ * Activity is stored one bit per cell and layers two bits per cell, so a
+ * 4096x4096 garden needs about 2 MB for activity and 4 MB for layers.
+ * Activity lives in the automaton itself, by default in persistent mode, so
+ * edits mark their tile and each update only steps the regions in play.
+ *
+ * Each layer follows its own rule from {@code grid.rule.<layer>}. The layer
+ * bit planes are the automaton's rule zones; empty cells belong to the
+ * rhythm layer, so its rule decides births, and cells that die return to it.
+ *
+ * Changed cells are collected in a dirty bitset that consumers drain, or
+ * that {@link #flushChanges()} hands to registered listeners, so redraws
+ * and counts cost about as much as the changes do. Each flush also ends a
+ * mutation batch: an immutable {@link GridSnapshot} is published through a
+ * volatile reference that any thread may read without locking. Once the
+ * garden repeats itself, updates replay cached successor states and the
+ * period is reported for downstream music generation.
+ *
+ * The model itself is not thread-safe. The app steps it on the sequencer
+ * thread and edits it on the FX thread, so every caller that mutates it,
+ * or reads it directly as the change listeners do during a flush, holds
+ * the model's own monitor, {@code synchronized (gridModel)}; anything else
+ * reads snapshots.
+ *
+ * Every published snapshot is also recorded in a {@link GridHistory} of
+ * XOR deltas and keyframes, bounded by {@code performance.history.bytes},
+ * which {@link #undo()}, {@link #redo()} and {@link #seekGeneration(long)}
+ * restore from.
+ */
 public class GridModel {
-    private static final int GRID_SIZE = 8;
-    private boolean[][] activeCells;
-    private int[][] cellLayers; // 0: rhythm, 1: melody, 2: both
-    private CellularAutomaton cellularAutomaton;
+    private static final Logger LOGGER = Logger.getLogger(GridModel.class.getName());
+
+    public static final int MIN_GRID_SIZE = 1;
+    public static final int MAX_GRID_SIZE = 8192;
+
+    private static final int DEFAULT_GRID_SIZE = 8;
+
+    public static final int RHYTHM_LAYER = 0;
+    public static final int MELODY_LAYER = 1;
+    public static final int BOTH_LAYER = 2;
+    private static final String[] LAYER_NAMES = {"rhythm", "melody", "both"};
+
+    private final int gridSize;
+
+    // Layer bit planes, doubling as rule zones - neither set: rhythm
+    private final BitBoard melodyCells;
+    private final BitBoard bothCells;
+    private final BitBoard[] layerZones;
+    private final Rule[] layerRules = new Rule[3];
+    private final Rule[] zoneRules = new Rule[2];
+    private final CellularAutomaton cellularAutomaton;
+    private final CycleDetector cycleDetector;
+    // State before a step, for the transition cache
+    private final BitBoard previousBoard;
+    private long stateHash;
+    private boolean stateHashValid;
+    private final DirtyCells dirtyCells;
+    private final List<DirtyCells.Listener> changeListeners = new ArrayList<>();
+    private final DirtyCells.Listener dispatcher = this::dispatchChanges;
+    // Mutation count and the planes touched since the last published snapshot
+    private long version;
+    private long generation;
+    private long editCount;
+    private boolean activityChanged;
+    private boolean layersChanged;
+    private volatile GridSnapshot snapshot;
+    private final GridHistory history;
+    private BitBoard[] restoreBoards;
     private String currentScale = "C Dorian";
-    
+
     public GridModel() {
-        activeCells = new boolean[GRID_SIZE][GRID_SIZE];
-        cellLayers = new int[GRID_SIZE][GRID_SIZE];
-        cellularAutomaton = new CellularAutomaton(GRID_SIZE);
+        this(configuredGridSize());
+    }
+
+    public GridModel(int gridSize) {
+        if (gridSize < MIN_GRID_SIZE || gridSize > MAX_GRID_SIZE) {
+            throw new IllegalArgumentException("Grid size must be between " + MIN_GRID_SIZE
+                    + " and " + MAX_GRID_SIZE + ": " + gridSize);
+        }
+        this.gridSize = gridSize;
+        this.melodyCells = new BitBoard(gridSize);
+        this.bothCells = new BitBoard(gridSize);
+        this.layerZones = new BitBoard[] {melodyCells, bothCells};
+        this.cellularAutomaton = new CellularAutomaton(gridSize);
+        this.dirtyCells = new DirtyCells(gridSize);
+        this.cellularAutomaton.trackChanges(dirtyCells);
+        // By default new cells join and none are removed
+        this.cellularAutomaton.setPersistent(!"false".equalsIgnoreCase(AppConfig.getString("grid.persistent")));
+
+        long words = ((long) gridSize * gridSize + 63) / 64;
+        // Each entry holds the state it was stored for and its successor
+        int cacheEntries = (int) Math.min(AppConfig.getInt("performance.transition.cache.entries"),
+                AppConfig.getInt("performance.transition.cache.words") / (2 * words));
+        this.cycleDetector = new CycleDetector(AppConfig.getInt("performance.cycle.history"), cacheEntries);
+        this.previousBoard = new BitBoard(gridSize);
+
+        for (int layer = 0; layer < layerRules.length; layer++) {
+            layerRules[layer] = configuredRule(LAYER_NAMES[layer]);
+        }
+        applyRules();
+        this.history = new GridHistory(gridSize, AppConfig.getInt("performance.history.keyframe.interval"),
+                AppConfig.getInt("performance.history.bytes"));
+        activityChanged = true;
+        layersChanged = true;
+        publishSnapshot();
+    }
+
+    private static Rule configuredRule(String layer) {
+        String rulestring = AppConfig.getString("grid.rule." + layer);
+        try {
+            return Rule.parse(rulestring);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid rule for the " + layer + " layer, using " + Rule.CONWAY + ": " + e.getMessage());
+            return Rule.CONWAY;
+        }
     }
-    
+
+    private static int configuredGridSize() {
+        int size = AppConfig.getInt("grid.size");
+        return size >= MIN_GRID_SIZE && size <= MAX_GRID_SIZE ? size : DEFAULT_GRID_SIZE;
+    }
+
     public boolean isCellActive(int row, int col) {
-        return activeCells[row][col];
+        return cellularAutomaton.getBoard().get(row, col);
     }
-    
+
     public int getCellLayer(int row, int col) {
-        return cellLayers[row][col];
+        if (bothCells.get(row, col)) return BOTH_LAYER;
+        return melodyCells.get(row, col) ? MELODY_LAYER : RHYTHM_LAYER;
+    }
+
+    private void setCellLayer(int row, int col, int layer) {
+        if (getCellLayer(row, col) == layer) return;
+        melodyCells.set(row, col, layer == MELODY_LAYER);
+        bothCells.set(row, col, layer == BOTH_LAYER);
+        dirtyCells.mark(row, col);
+        layersChanged = true;
+        version++;
+        editCount++;
+        if (!isUniformRule()) {
+            // The cell moved to a zone with another rule
+            cellularAutomaton.markChanged(row, col);
+            cycleDetector.clearCache();
+            edited();
+        }
+    }
+
+    /**
+     * Rule followed by the cells of a layer
+     */
+    public void setLayerRule(int layer, Rule rule) {
+        if (rule.equals(layerRules[layer])) return;
+        layerRules[layer] = rule;
+        applyRules();
+        // Cached transitions were computed under the old rules
+        cycleDetector.clearCache();
+        edited();
+    }
+
+    public Rule getLayerRule(int layer) {
+        return layerRules[layer];
+    }
+
+    private boolean isUniformRule() {
+        return layerRules[MELODY_LAYER].equals(layerRules[RHYTHM_LAYER])
+                && layerRules[BOTH_LAYER].equals(layerRules[RHYTHM_LAYER]);
+    }
+
+    private void applyRules() {
+        if (isUniformRule()) {
+            // Zones only cost time when they follow another rule
+            cellularAutomaton.setRule(layerRules[RHYTHM_LAYER]);
+            return;
+        }
+        zoneRules[0] = layerRules[MELODY_LAYER];
+        zoneRules[1] = layerRules[BOTH_LAYER];
+        cellularAutomaton.setRules(layerRules[RHYTHM_LAYER], layerZones, zoneRules);
     }
-    
+
     public void toggleCell(int row, int col) {
-        activeCells[row][col] = !activeCells[row][col];
-        if (!activeCells[row][col]) {
-            cellLayers[row][col] = 0;
+        cellularAutomaton.flipCell(row, col);
+        activityChanged = true;
+        version++;
+        editCount++;
+        edited();
+        if (!isCellActive(row, col)) {
+            setCellLayer(row, col, RHYTHM_LAYER);
         }
     }
-    
+
     public void cycleCellLayer(int row, int col) {
-        if (!activeCells[row][col]) return;
-        
-        cellLayers[row][col] = (cellLayers[row][col] + 1) % 3;
+        if (!isCellActive(row, col)) return;
+
+        setCellLayer(row, col, (getCellLayer(row, col) + 1) % 3);
     }
-    
+
     public void setScale(String scale) {
         this.currentScale = scale;
     }
-    
+
     public String getScale() {
         return currentScale;
     }
-    
+
     public void update() {
-        // Update cellular automaton
-        cellularAutomaton.update(activeCells);
-        
-        // Apply cellular automaton rules to grid
-        boolean[][] newState = cellularAutomaton.getCurrentState();
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                if (newState[row][col]) {
-                    activeCells[row][col] = true;
-                }
+        long previousHash = getStateHash();
+        generation++;
+
+        // A still garden stays as it is
+        if (cycleDetector.getPeriod() == 1) {
+            cycleDetector.record(previousHash);
+            return;
+        }
+
+        CycleDetector.Transition cached = cycleDetector.recall(previousHash, cellularAutomaton.getBoard());
+        if (cached != null) {
+            cellularAutomaton.load(cached.getBoard());
+            stateHash = cached.getHash();
+        } else {
+            if (cycleDetector.getCacheCapacity() > 0) {
+                previousBoard.copyFrom(cellularAutomaton.getBoard());
+            }
+            // Apply cellular automaton rules to grid; only tiles near recent changes are evaluated
+            cellularAutomaton.step();
+            stateHash = cellularAutomaton.getBoard().hash64();
+            cycleDetector.remember(previousHash, previousBoard, stateHash, cellularAutomaton.getBoard());
+        }
+        releaseDeadZones();
+        cycleDetector.record(stateHash);
+        if (stateHash != previousHash) {
+            activityChanged = true;
+            version++;
+        }
+    }
+
+    /**
+     * Advance the garden as many {@link #update()} calls would, without the
+     * generations in between; one rule everywhere lets HashLife skip ahead.
+     *
+     * Cells that die give their zone back in the generation they die, which
+     * a jump cannot see, so while cells can die and any of them has a zone
+     * the garden is updated generation by generation; the rest is a jump.
+     */
+    public void fastForward(long generations) {
+        while (generations > 0 && !cellularAutomaton.isPersistent()
+                && !(melodyCells.isEmpty() && bothCells.isEmpty())) {
+            update();
+            generations--;
+        }
+        if (generations <= 0) return;
+        cellularAutomaton.fastForward(generations);
+        releaseDeadZones();
+        generation += generations;
+        activityChanged = true;
+        version++;
+        // The recent states are no longer consecutive, but cached transitions still hold
+        edited();
+    }
+
+    /**
+     * The garden of a snapshot as it will be some generations later, under
+     * the configured rules; the snapshot's own model is not touched, so this
+     * may run on any thread
+     */
+    public static GridSnapshot advance(GridSnapshot snapshot, long generations) {
+        if (generations <= 0) return snapshot;
+        GridModel model = new GridModel(snapshot.getGridSize());
+        model.melodyCells.copyFrom(snapshot.melodyLayer());
+        model.bothCells.copyFrom(snapshot.bothLayer());
+        model.cellularAutomaton.load(snapshot.activity());
+        // Zones moved, so every tile is stepped under its new rule
+        model.applyRules();
+        model.generation = snapshot.getGeneration();
+        model.version = snapshot.getVersion();
+        model.edited();
+        model.fastForward(generations);
+        model.layersChanged = true;
+        return model.publish(false);
+    }
+
+    /**
+     * Return cells that died since the changes were last drained to the rhythm layer
+     */
+    private void releaseDeadZones() {
+        // Persistent cells only die by toggling, which resets the layer itself
+        if (cellularAutomaton.isPersistent()) return;
+        if (!dirtyCells.retainLive(cellularAutomaton.getBoard(), layerZones)) return;
+        layersChanged = true;
+        if (!isUniformRule()) {
+            // Births there now follow the rhythm rule, which cached transitions did not know
+            cycleDetector.clearCache();
+        }
+    }
+
+    /**
+     * Whether born cells stay, as {@code grid.persistent} sets initially, or follow the rule both ways
+     */
+    public void setPersistent(boolean persistent) {
+        if (persistent == cellularAutomaton.isPersistent()) return;
+        cellularAutomaton.setPersistent(persistent);
+        // Successor states cached under the other mode no longer apply
+        cycleDetector.clearCache();
+        edited();
+    }
+
+    public boolean isPersistent() {
+        return cellularAutomaton.isPersistent();
+    }
+
+    /**
+     * 64-bit fingerprint of the current activity grid
+     */
+    public long getStateHash() {
+        if (!stateHashValid) {
+            stateHash = cellularAutomaton.getBoard().hash64();
+            stateHashValid = true;
+        }
+        return stateHash;
+    }
+
+    /**
+     * Generations after which the garden repeats, or 0 while it is not yet cyclic
+     */
+    public int getCyclePeriod() {
+        return cycleDetector.getPeriod();
+    }
+
+    public boolean isCyclic() {
+        return cycleDetector.isCyclic();
+    }
+
+    public CycleDetector getCycleDetector() {
+        return cycleDetector;
+    }
+
+    private void edited() {
+        stateHashValid = false;
+        cycleDetector.reset();
+    }
+
+    /**
+     * Be told about changed cells whenever {@link #flushChanges()} runs
+     */
+    public void addChangeListener(DirtyCells.Listener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(DirtyCells.Listener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Hand the cells changed since the last flush or drain to every listener, in batches
+     *
+     * @return the number of changed cells
+     */
+    public int flushChanges() {
+        int changed = dirtyCells.drain(dispatcher);
+        publishSnapshot();
+        return changed;
+    }
+
+    /**
+     * Hand the cells changed since the last flush or drain to this listener only
+     */
+    public int drainChanges(DirtyCells.Listener listener) {
+        return dirtyCells.drain(listener);
+    }
+
+    /**
+     * Forget the cells changed since the last flush or drain, for a model
+     * that nothing draws, such as an offline render's; otherwise they pile
+     * up and every update's check for dead zones walks all of them
+     */
+    public void discardChanges() {
+        dirtyCells.discard();
+    }
+
+    public boolean hasChanges() {
+        return !dirtyCells.isEmpty();
+    }
+
+    /**
+     * Changes made other than by stepping the automaton: edits, clears and restores
+     */
+    public long getEditCount() {
+        return editCount;
+    }
+
+    /**
+     * Latest published snapshot; safe to call from any thread
+     */
+    public GridSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publish the current state if anything changed since the last snapshot.
+     *
+     * Call from the thread that mutates the model, at the end of a batch of
+     * mutations; {@link #flushChanges()} does so already.
+     */
+    public GridSnapshot publishSnapshot() {
+        return publish(true);
+    }
+
+    private GridSnapshot publish(boolean record) {
+        GridSnapshot previous = snapshot;
+        if (previous != null && previous.getVersion() == version && previous.getGeneration() == generation) {
+            return previous;
+        }
+        // Unchanged planes are immutable in the previous snapshot, so they can be shared
+        BitBoard activity = activityChanged || previous == null
+                ? new BitBoard(cellularAutomaton.getBoard()) : previous.activity();
+        BitBoard melody = layersChanged || previous == null ? new BitBoard(melodyCells) : previous.melodyLayer();
+        BitBoard both = layersChanged || previous == null ? new BitBoard(bothCells) : previous.bothLayer();
+        activityChanged = false;
+        layersChanged = false;
+
+        GridSnapshot next = new GridSnapshot(gridSize, version, generation, activity, melody, both,
+                getActiveCellCount(), getStateHash());
+        snapshot = next;
+        if (record) {
+            history.record(next);
+        }
+        return next;
+    }
+
+    /**
+     * Step back to the previous recorded state
+     *
+     * @return false if there is nothing to undo
+     */
+    public boolean undo() {
+        if (!history.canUndo()) return false;
+        restore(history.getCursor() - 1);
+        return true;
+    }
+
+    /**
+     * Step forward again after an undo
+     *
+     * @return false if there is nothing to redo
+     */
+    public boolean redo() {
+        if (!history.canRedo()) return false;
+        restore(history.getCursor() + 1);
+        return true;
+    }
+
+    /**
+     * Restore the latest recorded state at or before this generation
+     *
+     * @return false if that generation is older than the history still holds
+     */
+    public boolean seekGeneration(long generation) {
+        int frame = history.findFrame(generation);
+        if (frame < 0) return false;
+        restore(frame);
+        return true;
+    }
+
+    public GridHistory getHistory() {
+        return history;
+    }
+
+    private void restore(int frame) {
+        if (restoreBoards == null) {
+            restoreBoards = new BitBoard[] {new BitBoard(gridSize), new BitBoard(gridSize), new BitBoard(gridSize)};
+        }
+        BitBoard activity = restoreBoards[0];
+        history.reconstruct(frame, activity, restoreBoards[1], restoreBoards[2]);
+
+        boolean zonesMoved = restoreLayer(melodyCells, restoreBoards[1]) | restoreLayer(bothCells, restoreBoards[2]);
+        if (zonesMoved && !isUniformRule()) {
+            cycleDetector.clearCache();
+        }
+        cellularAutomaton.load(activity);
+        generation = history.getGeneration(frame);
+        activityChanged = true;
+        version++;
+        editCount++;
+        edited();
+
+        // The restored state is already recorded; later snapshots continue from it
+        history.setCursor(frame);
+        history.resumeFrom(publish(false));
+    }
+
+    private boolean restoreLayer(BitBoard layer, BitBoard restored) {
+        long[] words = layer.getWords();
+        long[] src = restored.getWords();
+        boolean uniform = isUniformRule();
+        boolean changed = false;
+        for (int index = 0; index < words.length; index++) {
+            long diff = words[index] ^ src[index];
+            if (diff == 0) continue;
+            words[index] = src[index];
+            dirtyCells.markWord(index, diff);
+            if (!uniform) {
+                cellularAutomaton.markWordChanged(index);
             }
+            changed = true;
+        }
+        layersChanged |= changed;
+        return changed;
+    }
+
+    private void dispatchChanges(int[] rows, int[] cols, int count) {
+        for (DirtyCells.Listener listener : changeListeners) {
+            listener.cellsChanged(rows, cols, count);
         }
     }
-    
+
+    /**
+     * Unpacked copy of the activity grid
+     */
     public boolean[][] getActiveCells() {
-        return activeCells;
+        boolean[][] cells = new boolean[gridSize][gridSize];
+        cellularAutomaton.getBoard().store(cells);
+        return cells;
     }
-    
+
+    /**
+     * Unpacked copy of the layer grid
+     */
     public int[][] getCellLayers() {
-        return cellLayers;
+        int[][] layers = new int[gridSize][gridSize];
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                layers[row][col] = getCellLayer(row, col);
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * Live packed activity grid; valid until the next update
+     */
+    public BitBoard getActiveBoard() {
+        return cellularAutomaton.getBoard();
+    }
+
+    /**
+     * Tiles of {@link CellularAutomaton#TILE_ROWS} x 64 cells evaluated by the last update
+     */
+    public int getActiveTileCount() {
+        return cellularAutomaton.getActiveTileCount();
     }
-    
+
     public int getGridSize() {
-        return GRID_SIZE;
+        return gridSize;
     }
-    
+
     public int getActiveCellCount() {
-        int count = 0;
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                if (activeCells[row][col]) count++;
-            }
-        }
-        return count;
+        return (int) cellularAutomaton.getPopulation();
     }
-    
+
     public double getGridDensity() {
-        return (double) getActiveCellCount() / (GRID_SIZE * GRID_SIZE);
+        return (double) getActiveCellCount() / ((long) gridSize * gridSize);
     }
-    
+
     public void clear() {
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                activeCells[row][col] = false;
-                cellLayers[row][col] = 0;
-            }
+        melodyCells.clear();
+        bothCells.clear();
+        if (!isUniformRule()) {
+            // Cached successors depend on the zones just wiped
+            cycleDetector.clearCache();
         }
-        // Also clear the cellular automaton
         cellularAutomaton.clear();
+        activityChanged = true;
+        layersChanged = true;
+        version++;
+        editCount++;
+        edited();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.groovegarden.model;
+
+/**
+ * Immutable, bit-packed copy of a {@link GridModel} at one point in time.
+ *
+ * Snapshots are published through a single volatile reference, so any
+ * thread can read a consistent grid without locks. Planes that did not
+ * change since the previous snapshot are shared with it rather than copied.
+ */
+public final class GridSnapshot {
+    private final int gridSize;
+    private final long version;
+    private final long generation;
+    private final BitBoard activeCells;
+    private final BitBoard melodyCells;
+    private final BitBoard bothCells;
+    private final int activeCellCount;
+    private final long stateHash;
+
+    GridSnapshot(int gridSize, long version, long generation, BitBoard activeCells,
+                 BitBoard melodyCells, BitBoard bothCells, int activeCellCount, long stateHash) {
+        this.gridSize = gridSize;
+        this.version = version;
+        this.generation = generation;
+        this.activeCells = activeCells;
+        this.melodyCells = melodyCells;
+        this.bothCells = bothCells;
+        this.activeCellCount = activeCellCount;
+        this.stateHash = stateHash;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Mutation count of the model when this snapshot was taken
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Automaton generations stepped before this snapshot was taken
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public boolean isCellActive(int row, int col) {
+        return activeCells.get(row, col);
+    }
+
+    public int getCellLayer(int row, int col) {
+        if (bothCells.get(row, col)) return GridModel.BOTH_LAYER;
+        return melodyCells.get(row, col) ? GridModel.MELODY_LAYER : GridModel.RHYTHM_LAYER;
+    }
+
+    public int getActiveCellCount() {
+        return activeCellCount;
+    }
+
+    public double getGridDensity() {
+        return (double) activeCellCount / ((long) gridSize * gridSize);
+    }
+
+    public long getStateHash() {
+        return stateHash;
+    }
+
+    /**
+     * Copy the activity grid into a board of the same size
+     */
+    public void copyActiveCellsTo(BitBoard board) {
+        board.copyFrom(activeCells);
+    }
+
+    /**
+     * Unpacked copy of the activity grid
+     */
+    public boolean[][] getActiveCells() {
+        boolean[][] cells = new boolean[gridSize][gridSize];
+        activeCells.store(cells);
+        return cells;
+    }
+
+    BitBoard activity() {
+        return activeCells;
+    }
+
+    BitBoard melodyLayer() {
+        return melodyCells;
+    }
+
+    BitBoard bothLayer() {
+        return bothCells;
+    }
+}
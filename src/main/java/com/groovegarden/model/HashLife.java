@@ -0,0 +1,455 @@
+package com.groovegarden.model;
+
+/**
+ * Memoized quadtree (HashLife) evaluation of a Life-like {@link Rule}.
+ *
+ * Identical quadrants are shared through a canonical node cache, and each
+ * node remembers its future, so repetitive patterns advance exponentially
+ * many generations per call. Between the power-of-two jumps of
+ * {@link #fastForward}, a cache grown past its capacity is collected: it is
+ * rebuilt from the nodes of the current pattern alone, and their memoized
+ * futures are dropped, so nothing outside the cache is still referenced and
+ * every node stays canonical. A single jump may take the cache past its
+ * capacity until the next collection.
+ *
+ * The board is part of the tree: every cell off the board is a wall leaf,
+ * which counts as a dead neighbour and never comes alive, so the pattern
+ * sees the same edges as in {@link CellularAutomaton} and the plane around
+ * the board collapses into a handful of shared all-wall nodes. Persistent
+ * mode, where live cells stay alive whatever the rule says, is evaluated
+ * the same way in the leaves.
+ */
+public class HashLife {
+    public static final int DEFAULT_CACHE_CAPACITY = 1 << 18;
+
+    private static final int MAX_LEVEL = 60;
+
+    private static final Node OFF = new Node(1, 0, 0x2545F491);
+    private static final Node ON = new Node(1, 1, 0x6C8E9CF5);
+    private static final Node WALL = new Node(0, 0, 0x1B873593);
+
+    private Rule rule;
+    private boolean persistent;
+    private int ruleVersion; // memoized results from earlier rules are ignored
+    private final int cacheCapacity;
+    private final int initialSlots;
+    private Node[] table;
+    private int count;
+    // All dead board cells, and all off the board, per level
+    private final Node[] emptyNodes = new Node[MAX_LEVEL + 2];
+    private final Node[] wallNodes = new Node[MAX_LEVEL + 2];
+
+    private Node root;
+    private long generation;
+    private long evictions;
+
+    public HashLife() {
+        this(DEFAULT_CACHE_CAPACITY, Rule.CONWAY);
+    }
+
+    public HashLife(int cacheCapacity) {
+        this(cacheCapacity, Rule.CONWAY);
+    }
+
+    public HashLife(int cacheCapacity, Rule rule) {
+        if (cacheCapacity < 1024) {
+            throw new IllegalArgumentException("HashLife cache needs at least 1024 nodes: " + cacheCapacity);
+        }
+        this.rule = rule;
+        this.cacheCapacity = cacheCapacity;
+        // At most half full at capacity
+        this.initialSlots = Integer.highestOneBit(cacheCapacity - 1) << 2;
+        this.table = new Node[initialSlots];
+        emptyNodes[0] = OFF;
+        wallNodes[0] = WALL;
+        this.root = wall(3);
+    }
+
+    /**
+     * Replace the pattern with the board's cells, board (0, 0) at the plane's origin and walls all around
+     */
+    public void load(BitBoard board) {
+        int level = 3;
+        while ((1L << (level - 1)) < board.getSize()) {
+            level++;
+        }
+        root = build(board, level, -(1 << (level - 1)), -(1 << (level - 1)));
+        generation = 0;
+    }
+
+    /**
+     * Write the part of the pattern that lies on the board back into it
+     */
+    public void store(BitBoard board) {
+        board.clear();
+        long half = 1L << (root.level - 1);
+        write(board, root, -half, -half);
+    }
+
+    /**
+     * Advance the pattern by the given number of generations
+     */
+    public void fastForward(long generations) {
+        if (generations < 0) {
+            throw new IllegalArgumentException("Cannot fast-forward backwards: " + generations);
+        }
+        for (int j = 0; generations >> j != 0; j++) {
+            if (((generations >> j) & 1) == 0) continue;
+            // Nothing crosses the walls, so the root only has to be big enough to look 2^j generations ahead
+            while (root.level < j + 1) {
+                root = centre(root);
+            }
+            root = successor(centre(root), j);
+            generation += 1L << j;
+            if (count > cacheCapacity) {
+                collect();
+            }
+        }
+        root = crop(root);
+    }
+
+    /**
+     * Switch rules; futures memoized under the old rule are dropped
+     */
+    public void setRule(Rule rule) {
+        if (!rule.equals(this.rule)) {
+            this.rule = rule;
+            ruleVersion++;
+            clearCache();
+        }
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * Keep live cells alive regardless of the rule; futures memoized in the other mode are dropped
+     */
+    public void setPersistent(boolean persistent) {
+        if (persistent != this.persistent) {
+            this.persistent = persistent;
+            ruleVersion++;
+            clearCache();
+        }
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long getPopulation() {
+        return root.population;
+    }
+
+    public int getCacheSize() {
+        return count;
+    }
+
+    public int getCacheCapacity() {
+        return cacheCapacity;
+    }
+
+    /**
+     * Nodes dropped by collections so far
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drop all memoized nodes and futures but those of the current pattern
+     */
+    public void clearCache() {
+        collect();
+    }
+
+    /**
+     * Rebuild the cache from the nodes reachable from the root, forgetting their futures
+     */
+    private void collect() {
+        int before = count;
+        table = new Node[initialSlots];
+        count = 0;
+        retain(root);
+        evictions += before - count;
+    }
+
+    private void retain(Node node) {
+        if (node.level == 0 || node == emptyNodes[node.level] || node == wallNodes[node.level]) {
+            return;
+        }
+        int mask = table.length - 1;
+        int slot = node.hash & mask;
+        for (Node other = table[slot]; other != null; other = table[slot = (slot + 1) & mask]) {
+            if (other == node) return;
+        }
+        table[slot] = node;
+        if (++count * 2 > table.length) {
+            grow();
+        }
+        node.result = null;
+        node.resultStep = -1;
+        retain(node.nw);
+        retain(node.ne);
+        retain(node.sw);
+        retain(node.se);
+    }
+
+    private Node build(BitBoard board, int level, long x, long y) {
+        int size = board.getSize();
+        long extent = 1L << level;
+        if (x >= size || y >= size || x + extent <= 0 || y + extent <= 0) {
+            return wall(level);
+        }
+        if (level == 0) {
+            return board.get((int) y, (int) x) ? ON : OFF;
+        }
+        boolean inside = x >= 0 && y >= 0 && x + extent <= size && y + extent <= size;
+        if (inside && level >= 4 && board.isRegionEmpty((int) y, (int) x, (int) extent, (int) extent)) {
+            return empty(level);
+        }
+        long half = extent >> 1;
+        return join(build(board, level - 1, x, y), build(board, level - 1, x + half, y),
+                build(board, level - 1, x, y + half), build(board, level - 1, x + half, y + half));
+    }
+
+    private void write(BitBoard board, Node node, long x, long y) {
+        int size = board.getSize();
+        long extent = 1L << node.level;
+        if (node.population == 0 || x >= size || y >= size || x + extent <= 0 || y + extent <= 0) {
+            return;
+        }
+        if (node.level == 0) {
+            board.set((int) y, (int) x, true);
+            return;
+        }
+        long half = extent >> 1;
+        write(board, node.nw, x, y);
+        write(board, node.ne, x + half, y);
+        write(board, node.sw, x, y + half);
+        write(board, node.se, x + half, y + half);
+    }
+
+    private Node join(Node nw, Node ne, Node sw, Node se) {
+        // Empty and wall nodes live outside the cache; keeping them unique keeps their parents canonical
+        Node empty = emptyNodes[nw.level];
+        if (nw == empty && ne == empty && sw == empty && se == empty) {
+            return empty(nw.level + 1);
+        }
+        Node wall = wallNodes[nw.level];
+        if (nw == wall && ne == wall && sw == wall && se == wall) {
+            return wall(nw.level + 1);
+        }
+        int hash = Node.hash(nw, ne, sw, se);
+        int mask = table.length - 1;
+
+        int slot = hash & mask;
+        for (Node node = table[slot]; node != null; node = table[slot = (slot + 1) & mask]) {
+            if (node.hash == hash && node.nw == nw && node.ne == ne && node.sw == sw && node.se == se) {
+                return node;
+            }
+        }
+
+        Node node = new Node(nw, ne, sw, se, hash);
+        table[slot] = node;
+        // Nodes in use mid-jump cannot be collected, so the table grows instead
+        if (++count * 2 > table.length) {
+            grow();
+        }
+        return node;
+    }
+
+    private void grow() {
+        Node[] previous = table;
+        table = new Node[previous.length << 1];
+        int mask = table.length - 1;
+        for (Node node : previous) {
+            if (node == null) continue;
+            int slot = node.hash & mask;
+            while (table[slot] != null) slot = (slot + 1) & mask;
+            table[slot] = node;
+        }
+    }
+
+    private Node empty(int level) {
+        Node node = emptyNodes[level];
+        if (node == null) {
+            Node child = empty(level - 1);
+            node = new Node(child, child, child, child);
+            emptyNodes[level] = node;
+        }
+        return node;
+    }
+
+    private Node wall(int level) {
+        Node node = wallNodes[level];
+        if (node == null) {
+            Node child = wall(level - 1);
+            node = new Node(child, child, child, child);
+            wallNodes[level] = node;
+        }
+        return node;
+    }
+
+    /**
+     * The same pattern one level up, surrounded by walls
+     */
+    private Node centre(Node node) {
+        if (node.level >= MAX_LEVEL) {
+            throw new IllegalStateException("Too many generations for the HashLife universe");
+        }
+        Node border = wall(node.level - 1);
+        return join(join(border, border, border, node.nw), join(border, border, node.ne, border),
+                join(border, node.sw, border, border), join(node.se, border, border, border));
+    }
+
+    /**
+     * Shrink the root while its outer ring is all wall
+     */
+    private Node crop(Node node) {
+        while (node.level > 3 && isPadded(node)) {
+            node = join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);
+        }
+        return node;
+    }
+
+    private static boolean isPadded(Node node) {
+        return node.nw.area == node.nw.se.se.area
+                && node.ne.area == node.ne.sw.sw.area
+                && node.sw.area == node.sw.ne.ne.area
+                && node.se.area == node.se.nw.nw.area;
+    }
+
+    /**
+     * Centre of the node, one level down, 2^j generations ahead (j at most level - 2)
+     */
+    private Node successor(Node node, int j) {
+        // Without B0 dead space stays dead, and walls stay walls
+        if (node == emptyNodes[node.level]) {
+            return empty(node.level - 1);
+        }
+        if (node == wallNodes[node.level]) {
+            return wall(node.level - 1);
+        }
+        j = Math.min(j, node.level - 2);
+        if (node.result != null && node.resultStep == j && node.resultRule == ruleVersion) {
+            return node.result;
+        }
+
+        Node result;
+        if (node.level == 2) {
+            result = step4x4(node);
+        } else {
+            Node c1 = successor(node.nw, j);
+            Node c2 = successor(join(node.nw.ne, node.ne.nw, node.nw.se, node.ne.sw), j);
+            Node c3 = successor(node.ne, j);
+            Node c4 = successor(join(node.nw.sw, node.nw.se, node.sw.nw, node.sw.ne), j);
+            Node c5 = successor(join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw), j);
+            Node c6 = successor(join(node.ne.sw, node.ne.se, node.se.nw, node.se.ne), j);
+            Node c7 = successor(node.sw, j);
+            Node c8 = successor(join(node.sw.ne, node.se.nw, node.sw.se, node.se.sw), j);
+            Node c9 = successor(node.se, j);
+
+            if (j < node.level - 2) {
+                // Already far enough ahead: just take the centres
+                result = join(join(c1.se, c2.sw, c4.ne, c5.nw), join(c2.se, c3.sw, c5.ne, c6.nw),
+                        join(c4.se, c5.sw, c7.ne, c8.nw), join(c5.se, c6.sw, c8.ne, c9.nw));
+            } else {
+                result = join(successor(join(c1, c2, c4, c5), j), successor(join(c2, c3, c5, c6), j),
+                        successor(join(c4, c5, c7, c8), j), successor(join(c5, c6, c8, c9), j));
+            }
+        }
+
+        node.result = result;
+        node.resultStep = j;
+        node.resultRule = ruleVersion;
+        return result;
+    }
+
+    /**
+     * One generation of the centre 2x2 of a 4x4 node
+     */
+    private Node step4x4(Node node) {
+        // Row-major 4x4 bitmasks of live and of on-board cells, bit (row * 4 + col)
+        int cells = quadrantBits(node.nw, 0, false) | quadrantBits(node.ne, 2, false)
+                | quadrantBits(node.sw, 8, false) | quadrantBits(node.se, 10, false);
+        int board = quadrantBits(node.nw, 0, true) | quadrantBits(node.ne, 2, true)
+                | quadrantBits(node.sw, 8, true) | quadrantBits(node.se, 10, true);
+        return join(lifeCell(cells, board, 1, 1), lifeCell(cells, board, 1, 2),
+                lifeCell(cells, board, 2, 1), lifeCell(cells, board, 2, 2));
+    }
+
+    private static int quadrantBits(Node quadrant, int base, boolean area) {
+        return (int) (area ? quadrant.nw.area : quadrant.nw.population) << base
+                | (int) (area ? quadrant.ne.area : quadrant.ne.population) << (base + 1)
+                | (int) (area ? quadrant.sw.area : quadrant.sw.population) << (base + 4)
+                | (int) (area ? quadrant.se.area : quadrant.se.population) << (base + 5);
+    }
+
+    private Node lifeCell(int cells, int board, int row, int col) {
+        int bit = row * 4 + col;
+        if ((board >>> bit & 1) == 0) {
+            return WALL;
+        }
+        if (persistent && (cells >>> bit & 1) != 0) {
+            return ON;
+        }
+        int shift = (row - 1) * 4 + col - 1;
+        int neighbourhood = (cells >>> shift & 7) | (cells >>> (shift + 4) & 7) << 3 | (cells >>> (shift + 8) & 7) << 6;
+        return rule.next(neighbourhood) ? ON : OFF;
+    }
+
+    /**
+     * Quadtree node; children are compared by identity since they are canonical
+     */
+    private static final class Node {
+        final Node nw, ne, sw, se;
+        final int level;
+        final long population;
+        final long area; // cells on the board
+        final int hash;
+
+        Node result;
+        int resultStep = -1;
+        int resultRule;
+
+        Node(long area, long population, int hash) {
+            this.nw = this.ne = this.sw = this.se = null;
+            this.level = 0;
+            this.population = population;
+            this.area = area;
+            this.hash = hash;
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se) {
+            this(nw, ne, sw, se, hash(nw, ne, sw, se));
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se, int hash) {
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            this.level = nw.level + 1;
+            this.population = nw.population + ne.population + sw.population + se.population;
+            this.area = nw.area + ne.area + sw.area + se.area;
+            this.hash = hash;
+        }
+
+        static int hash(Node nw, Node ne, Node sw, Node se) {
+            // Mix both child pairs at 64 bits; a linear 32-bit combination collides on quadtrees
+            long top = (nw.hash & 0xFFFFFFFFL) | ((long) ne.hash << 32);
+            long bottom = (sw.hash & 0xFFFFFFFFL) | ((long) se.hash << 32);
+            long h = top * 0x9E3779B97F4A7C15L ^ Long.rotateLeft(bottom * 0xC2B2AE3D27D4EB4FL, 31);
+            h ^= h >>> 29;
+            h *= 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 32;
+            return (int) h;
+        }
+    }
+}
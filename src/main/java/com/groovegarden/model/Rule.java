@@ -0,0 +1,184 @@
+package com.groovegarden.model;
+
+import java.util.Locale;
+
+/**
+ * Life-like rule parsed from a B/S rulestring such as {@code B36/S23}.
+ *
+ * A rule is compiled once into a 512-entry neighbourhood table for cell-at-a-
+ * time callers and into a table of all-zero or all-one words for the packed
+ * engine, which evaluates it on 64 cells at once with a branch-free select
+ * tree over the neighbour-count bit planes. Conway's rule keeps its own
+ * shorter adder network. Rules are immutable, so switching between them is
+ * a reference swap.
+ *
+ * Rules that give birth with no neighbours (B0) are rejected: empty space
+ * would not stay empty, which HashLife and the still-tile skipping rely on.
+ */
+public final class Rule {
+    public static final Rule CONWAY = parse("B3/S23");
+    public static final Rule HIGHLIFE = parse("B36/S23");
+    public static final Rule SEEDS = parse("B2/S");
+    public static final Rule DAY_AND_NIGHT = parse("B3678/S34678");
+
+    private final String rulestring;
+    private final int birthMask;   // bit n set: a dead cell with n neighbours is born
+    private final int surviveMask; // bit n set: a live cell with n neighbours survives
+    private final boolean conway;
+    private final boolean[] neighbourhoods = new boolean[512];
+
+    // Outcome per neighbour count as 0 or -1, ready to be selected by the count planes
+    private final long[] birthWords = new long[9];
+    private final long[] surviveWords = new long[9];
+
+    private Rule(int birthMask, int surviveMask) {
+        this.birthMask = birthMask;
+        this.surviveMask = surviveMask;
+        this.conway = birthMask == 1 << 3 && surviveMask == (1 << 2 | 1 << 3);
+        this.rulestring = "B" + digits(birthMask) + "/S" + digits(surviveMask);
+
+        for (int count = 0; count <= 8; count++) {
+            birthWords[count] = (birthMask >>> count & 1) == 0 ? 0L : -1L;
+            surviveWords[count] = (surviveMask >>> count & 1) == 0 ? 0L : -1L;
+        }
+        for (int index = 0; index < 512; index++) {
+            int count = Integer.bitCount(index & ~(1 << 4));
+            boolean alive = (index & (1 << 4)) != 0;
+            neighbourhoods[index] = ((alive ? surviveMask : birthMask) >>> count & 1) != 0;
+        }
+    }
+
+    /**
+     * Parse a B/S rulestring; case and the order of the two parts do not matter
+     */
+    public static Rule parse(String rulestring) {
+        if (rulestring == null) {
+            throw new IllegalArgumentException("Rulestring is missing");
+        }
+        int birth = -1;
+        int survive = -1;
+        for (String part : rulestring.trim().toUpperCase(Locale.ROOT).split("/")) {
+            if (part.isEmpty()) continue;
+            int mask = 0;
+            for (int i = 1; i < part.length(); i++) {
+                char c = part.charAt(i);
+                if (c < '0' || c > '8') {
+                    throw new IllegalArgumentException("Invalid neighbour count '" + c + "' in rule: " + rulestring);
+                }
+                mask |= 1 << (c - '0');
+            }
+            if (part.charAt(0) == 'B' && birth < 0) {
+                birth = mask;
+            } else if (part.charAt(0) == 'S' && survive < 0) {
+                survive = mask;
+            } else {
+                throw new IllegalArgumentException("Expected a B/S rulestring: " + rulestring);
+            }
+        }
+        if (birth < 0 || survive < 0) {
+            throw new IllegalArgumentException("Expected a B/S rulestring: " + rulestring);
+        }
+        if ((birth & 1) != 0) {
+            throw new IllegalArgumentException("B0 rules are not supported: " + rulestring);
+        }
+        return new Rule(birth, survive);
+    }
+
+    /**
+     * Next state of a cell from its 3x3 neighbourhood, bit (row * 3 + col) with the cell itself at bit 4
+     */
+    public boolean next(int neighbourhood) {
+        return neighbourhoods[neighbourhood];
+    }
+
+    /**
+     * Next state of 64 cells at once from their eight neighbour planes
+     */
+    long apply(long alive, long nw, long n, long ne, long w, long e, long sw, long s, long se) {
+        // Count each neighbour row: above and below give 0-3, the middle 0-2
+        long above0 = nw ^ n ^ ne;
+        long above1 = (nw & n) | (ne & (nw ^ n));
+        long below0 = sw ^ s ^ se;
+        long below1 = (sw & s) | (se & (sw ^ s));
+        long mid0 = w ^ e;
+        long mid1 = w & e;
+
+        // Add the ones column, carrying into the twos column
+        long ones = above0 ^ below0 ^ mid0;
+        long carry = (above0 & below0) | (mid0 & (above0 ^ below0));
+
+        long p = above1 ^ below1;
+        long q = above1 & below1;
+        long r = mid1 ^ carry;
+        long t = mid1 & carry;
+
+        if (conway) {
+            // Exactly one of the four twos bits set means the count is 2 or 3
+            long twoOrThree = (p ^ r) & ~(q | t);
+            return twoOrThree & (ones | alive);
+        }
+
+        // Finish the count as four bit planes; at most two of q, t and p & r can be set
+        long twos = p ^ r;
+        long fours = q ^ t ^ (p & r);
+        long eights = q & t;
+        return select(birthWords, ones, twos, fours, eights) & ~alive
+                | select(surviveWords, ones, twos, fours, eights) & alive;
+    }
+
+    /**
+     * Pick each cell's outcome for its neighbour count from a 0/-1 table
+     */
+    private static long select(long[] words, long ones, long twos, long fours, long eights) {
+        long c01 = pick(words[0], words[1], ones);
+        long c23 = pick(words[2], words[3], ones);
+        long c45 = pick(words[4], words[5], ones);
+        long c67 = pick(words[6], words[7], ones);
+        long c03 = pick(c01, c23, twos);
+        long c47 = pick(c45, c67, twos);
+        // A count of eight is the only one with the eights bit, and its lower bits are clear
+        return pick(pick(c03, c47, fours), words[8], eights);
+    }
+
+    private static long pick(long ifClear, long ifSet, long selector) {
+        return ifClear ^ ((ifClear ^ ifSet) & selector);
+    }
+
+    public boolean isConway() {
+        return conway;
+    }
+
+    public int getBirthMask() {
+        return birthMask;
+    }
+
+    public int getSurviveMask() {
+        return surviveMask;
+    }
+
+    private static String digits(int mask) {
+        StringBuilder sb = new StringBuilder();
+        for (int count = 0; count <= 8; count++) {
+            if ((mask >>> count & 1) != 0) sb.append(count);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Rule)) return false;
+        Rule other = (Rule) o;
+        return birthMask == other.birthMask && surviveMask == other.surviveMask;
+    }
+
+    @Override
+    public int hashCode() {
+        return birthMask * 512 + surviveMask;
+    }
+
+    @Override
+    public String toString() {
+        return rulestring;
+    }
+}
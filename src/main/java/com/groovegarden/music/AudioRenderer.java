@@ -0,0 +1,294 @@
+package com.groovegarden.music;
+
+import com.groovegarden.config.AppConfig;
+import com.groovegarden.model.GridModel;
+
+import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Renders a garden straight to a WAV file, without a sound card or real time.
+ *
+ * The engine is ticked against a virtual clock, as in {@link OfflineRenderer},
+ * but its timestamped events go to the software synthesizer opened as a
+ * stream, which never touches an audio device. After each step the stream is read up to that step's time,
+ * so every event reaches the synthesizer before the samples it falls in are
+ * made, and the samples collect in a large buffer written to the file
+ * whenever it fills. Like the MIDI render, it starts after fast-forwarding
+ * the garden {@code render.start.generation} generations.
+ *
+ * Only the JDK's own software synthesizer can be opened as a stream, through
+ * {@code com.sun.media.sound.AudioSynthesizer#openStream}, which is not
+ * exported API. It is called reflectively so the build needs no internal
+ * API, but the JVM running a render still needs
+ * {@code --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED}.
+ */
+public class AudioRenderer {
+    private static final Logger LOGGER = Logger.getLogger(AudioRenderer.class.getName());
+
+    private static final int STEPS_PER_BEAT = 4;
+    // Rendered after the last note so releases and reverb die away
+    private static final long TAIL_MICROS = 2_000_000;
+
+    private final int tempo;
+    private final String scaleName;
+    private final AudioFormat format;
+    private final int chunkFrames;
+    private long startGeneration;
+
+    // Figures from the last render
+    private long setupNanos;
+    private long renderNanos;
+    private long eventCount;
+    private long frameCount;
+
+    /**
+     * Render 16-bit stereo at this sample rate
+     */
+    public AudioRenderer(int tempo, String scaleName, float sampleRate) {
+        if (tempo <= 0) {
+            throw new IllegalArgumentException("Tempo must be positive: " + tempo);
+        }
+        this.tempo = tempo;
+        this.scaleName = scaleName;
+        this.format = new AudioFormat(sampleRate, 16, 2, true, false);
+        this.chunkFrames = Math.max(1024, AppConfig.getInt("audio.chunk.frames"));
+        this.startGeneration = Math.max(0, AppConfig.getInt("render.start.generation"));
+    }
+
+    /**
+     * Generations the garden skips ahead before the first step is played
+     */
+    public void setStartGeneration(long startGeneration) {
+        if (startGeneration < 0) {
+            throw new IllegalArgumentException("Start generation cannot be negative: " + startGeneration);
+        }
+        this.startGeneration = startGeneration;
+    }
+
+    /**
+     * Steps in this many minutes of music at the renderer's tempo
+     */
+    public long stepsFor(double minutes) {
+        return Math.round(minutes * tempo * STEPS_PER_BEAT);
+    }
+
+    /**
+     * Step the garden, play each step into the synthesizer and write what it
+     * sounds like; the same garden, seed and soundbank render the same audio
+     */
+    public void render(GridModel gridModel, long steps, long seed, File file)
+            throws MidiUnavailableException, InvalidMidiDataException, IOException {
+        long start = System.nanoTime();
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             WavWriter wav = new WavWriter(channel, format);
+             AudioInputStream stream = openStream(synthesizer, format)) {
+            loadSoundbank(synthesizer);
+            StreamReceiver receiver = new StreamReceiver(synthesizer.getReceiver());
+            SamplePump pump = new SamplePump(stream, wav);
+            setupNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            gridModel.fastForward(startGeneration);
+            gridModel.discardChanges();
+            MidiEngine engine = new MidiEngine(receiver, seed);
+            try {
+                engine.setScale(scaleName);
+                engine.setTempo(tempo);
+                engine.start();
+                long stepNanos = 60_000_000_000L / ((long) tempo * STEPS_PER_BEAT);
+                for (long step = 0; step < steps; step++) {
+                    gridModel.update();
+                    // Nothing draws this model, so its changed cells would only pile up
+                    gridModel.discardChanges();
+                    long due = step * stepNanos;
+                    engine.tick(gridModel, due);
+                    // Events of later steps come at or after their own due time
+                    pump.renderUntil(due / 1000);
+                }
+                // Notes still sounding are released at their ends, then allowed to ring out
+                engine.stop();
+                pump.renderUntil(Math.max(steps * stepNanos / 1000, receiver.lastMicros) + TAIL_MICROS);
+            } finally {
+                engine.close();
+            }
+            pump.flush();
+            eventCount = receiver.events;
+            frameCount = wav.getFrameCount();
+        } finally {
+            synthesizer.close();
+        }
+        renderNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Open the synthesizer to render into a stream instead of a sound card
+     */
+    private static AudioInputStream openStream(Synthesizer synthesizer, AudioFormat format)
+            throws MidiUnavailableException {
+        Method openStream;
+        try {
+            openStream = Class.forName("com.sun.media.sound.AudioSynthesizer")
+                    .getMethod("openStream", AudioFormat.class, Map.class);
+        } catch (ReflectiveOperationException e) {
+            throw new MidiUnavailableException("This JDK has no streaming synthesizer: " + e);
+        }
+        if (!openStream.getDeclaringClass().isInstance(synthesizer)) {
+            throw new MidiUnavailableException("Default synthesizer cannot render to a stream: "
+                    + synthesizer.getDeviceInfo().getName());
+        }
+        try {
+            return (AudioInputStream) openStream.invoke(synthesizer, format, null);
+        } catch (IllegalAccessException e) {
+            throw new MidiUnavailableException("Run with --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED "
+                    + "to render audio");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof MidiUnavailableException) {
+                throw (MidiUnavailableException) e.getCause();
+            }
+            MidiUnavailableException unavailable = new MidiUnavailableException("Cannot open the synthesizer stream");
+            unavailable.initCause(e.getCause());
+            throw unavailable;
+        }
+    }
+
+    /**
+     * Instruments from {@code audio.soundbank}, if set, replace the built-in ones they overlap
+     */
+    private static void loadSoundbank(Synthesizer synthesizer) throws InvalidMidiDataException, IOException {
+        String path = AppConfig.getString("audio.soundbank").trim();
+        if (path.isEmpty()) return;
+        Soundbank soundbank = MidiSystem.getSoundbank(new File(path));
+        if (!synthesizer.loadAllInstruments(soundbank)) {
+            LOGGER.warning("Soundbank not supported, using the built-in instruments: " + path);
+        }
+    }
+
+    /**
+     * Time to open the synthesizer and load its instruments, not counted in the render time
+     */
+    public long getSetupNanos() {
+        return setupNanos;
+    }
+
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Length of the last render's audio divided by the time it took
+     */
+    public double getSpeedup() {
+        return frameCount / format.getSampleRate() / (renderNanos / 1e9);
+    }
+
+    /**
+     * Forwards the engine's events to the synthesizer, noting the last timestamp
+     */
+    private static final class StreamReceiver implements Receiver {
+        private final Receiver target;
+        long events;
+        long lastMicros;
+
+        StreamReceiver(Receiver target) {
+            this.target = target;
+        }
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            target.send(message, timeStamp);
+            lastMicros = Math.max(lastMicros, timeStamp);
+            events++;
+        }
+
+        @Override
+        public void close() {
+            target.close();
+        }
+    }
+
+    /**
+     * Reads the synthesizer's stream into a chunk buffer and writes full chunks out
+     */
+    private final class SamplePump {
+        private final AudioInputStream stream;
+        private final WavWriter wav;
+        private final int frameBytes = format.getFrameSize();
+        private final byte[] chunk = new byte[chunkFrames * frameBytes];
+        private int filled;
+        private long frames;
+
+        SamplePump(AudioInputStream stream, WavWriter wav) {
+            this.stream = stream;
+            this.wav = wav;
+        }
+
+        void renderUntil(long micros) throws IOException {
+            long target = (long) (micros * (double) format.getSampleRate() / 1_000_000);
+            while (frames < target) {
+                int bytes = (int) Math.min((target - frames) * frameBytes, chunk.length - filled);
+                int read = stream.read(chunk, filled, bytes);
+                if (read < 0) {
+                    throw new EOFException("Synthesizer stream ended");
+                }
+                filled += read;
+                frames += read / frameBytes;
+                if (filled == chunk.length) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            wav.write(chunk, 0, filled);
+            filled = 0;
+        }
+    }
+
+    /**
+     * Render a seeded random garden to audio headlessly:
+     * {@code <output.wav> [minutes] [tempo] [grid size] [seed] [sample rate]}
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: AudioRenderer <output.wav> [minutes] [tempo] [grid size] [seed] [sample rate]");
+            System.exit(2);
+        }
+        File output = new File(args[0]);
+        double minutes = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        int tempo = args.length > 2 ? Integer.parseInt(args[2]) : AppConfig.getInt("music.default.tempo");
+        int gridSize = args.length > 3 ? Integer.parseInt(args[3]) : AppConfig.getInt("grid.size");
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+        float sampleRate = args.length > 5 ? Float.parseFloat(args[5]) : AppConfig.getInt("audio.sample.rate");
+
+        GridModel gridModel = new GridModel(gridSize);
+        OfflineRenderer.scatterCells(gridModel, new SessionRandom(seed).stream(SessionRandom.Voice.GARDEN));
+        AudioRenderer renderer = new AudioRenderer(tempo, AppConfig.getString("music.default.scale"), sampleRate);
+        renderer.render(gridModel, renderer.stepsFor(minutes), seed, output);
+
+        LOGGER.info(String.format("Rendered %.1f min (%d events, %d frames at %.0f Hz) to %s in %.2f s "
+                        + "after %.2f s setup, %.1fx realtime",
+                minutes, renderer.getEventCount(), renderer.getFrameCount(), sampleRate, output,
+                renderer.getRenderNanos() / 1e9, renderer.getSetupNanos() / 1e9, renderer.getSpeedup()));
+    }
+}
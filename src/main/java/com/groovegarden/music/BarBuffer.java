@@ -0,0 +1,84 @@
+package com.groovegarden.music;
+
+import java.util.Arrays;
+
+/**
+ * One bar of generated note events in preallocated primitive arrays.
+ *
+ * Each event is packed into an int as channel, note, velocity and duration,
+ * so reading a step back is an array walk with no objects involved. The
+ * melody's scale degree per step is kept alongside, for the next bar's
+ * Markov context.
+ */
+public final class BarBuffer {
+    public static final int STEPS = 16;
+    public static final int MAX_EVENTS_PER_STEP = 8;
+    public static final int MAX_DURATION_MS = (1 << 14) - 1;
+
+    private final int[] counts = new int[STEPS];
+    private final int[] events = new int[STEPS * MAX_EVENTS_PER_STEP];
+    private final int[] degrees = new int[STEPS];
+
+    public BarBuffer() {
+        clear();
+    }
+
+    public void clear() {
+        clearFrom(0);
+    }
+
+    /**
+     * Forget the events and degrees of this step and every later one
+     */
+    public void clearFrom(int step) {
+        Arrays.fill(counts, step, STEPS, 0);
+        Arrays.fill(degrees, step, STEPS, -1);
+    }
+
+    /**
+     * @return false if the step is already full
+     */
+    public boolean add(int step, int channel, int note, int velocity, int durationMs) {
+        int count = counts[step];
+        if (count == MAX_EVENTS_PER_STEP) return false;
+        events[step * MAX_EVENTS_PER_STEP + count] = channel << 28 | note << 21 | velocity << 14
+                | Math.min(durationMs, MAX_DURATION_MS);
+        counts[step] = count + 1;
+        return true;
+    }
+
+    public int getEventCount(int step) {
+        return counts[step];
+    }
+
+    public int getEvent(int step, int index) {
+        return events[step * MAX_EVENTS_PER_STEP + index];
+    }
+
+    public void setDegree(int step, int degree) {
+        degrees[step] = degree;
+    }
+
+    /**
+     * Scale degree the melody played on this step, or -1
+     */
+    public int getDegree(int step) {
+        return degrees[step];
+    }
+
+    public static int channel(int event) {
+        return event >>> 28;
+    }
+
+    public static int note(int event) {
+        return event >>> 21 & 0x7F;
+    }
+
+    public static int velocity(int event) {
+        return event >>> 14 & 0x7F;
+    }
+
+    public static int durationMs(int event) {
+        return event & MAX_DURATION_MS;
+    }
+}
@@ -0,0 +1,286 @@
+package com.groovegarden.music;
+
+import com.groovegarden.algo.ContextTrie;
+import com.groovegarden.config.AppConfig;
+import com.groovegarden.model.GridModel;
+import com.groovegarden.util.LongIntMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Imports reference grooves from MIDI files as a garden seed and a melody model.
+ *
+ * Files are memory-mapped and parsed in place by {@link SmfReader}, in
+ * parallel. Every note is quantized to a sixteenth-note step and projected
+ * onto the grid, steps running across the columns and wrapping, pitch up
+ * the rows. The cells hit most often across all files seed a quarter of
+ * the garden: mostly by drums they become rhythm cells, mostly by pitched
+ * notes melody cells, and otherwise both. The pitched notes also form the
+ * melodic lines a {@link MelodyCorpusTrainer} turns into a model for
+ * {@link com.groovegarden.algo.MarkovMelody}.
+ */
+public class GrooveImporter {
+    private static final Logger LOGGER = Logger.getLogger(GrooveImporter.class.getName());
+
+    private static final int DRUM_CHANNEL = 9;
+    private static final int STEPS_PER_BEAT = 4;
+    // Fraction of the garden seeded, as with a random scatter
+    private static final double SEED_DENSITY = 0.25;
+
+    private final int gridSize;
+    private final MelodyCorpusTrainer trainer;
+    private final ForkJoinPool pool;
+
+    // Figures and results from the last import
+    private int filesImported;
+    private int filesFailed;
+    private long hits;
+    private long parseNanos;
+    private ContextTrie melodyModel;
+
+    public GrooveImporter(int gridSize, int order, int minCount) {
+        this(gridSize, order, minCount, ForkJoinPool.commonPool());
+    }
+
+    public GrooveImporter(int gridSize, int order, int minCount, ForkJoinPool pool) {
+        if (gridSize < GridModel.MIN_GRID_SIZE || gridSize > GridModel.MAX_GRID_SIZE) {
+            throw new IllegalArgumentException("Grid size must be between " + GridModel.MIN_GRID_SIZE
+                    + " and " + GridModel.MAX_GRID_SIZE + ": " + gridSize);
+        }
+        this.gridSize = gridSize;
+        this.trainer = new MelodyCorpusTrainer(order, minCount, pool);
+        this.pool = pool;
+    }
+
+    /**
+     * Import every .mid and .midi file under the directory
+     *
+     * @return layer of each seeded cell, or -1 where the cell stays off
+     */
+    public int[][] importDirectory(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).filter(MelodyCorpusTrainer::isMidiFile).collect(Collectors.toList());
+        }
+        return importFiles(files);
+    }
+
+    /**
+     * @return layer of each seeded cell, or -1 where the cell stays off
+     */
+    public int[][] importFiles(List<Path> files) {
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        List<GrooveCollector> grooves = pool.submit(() -> files.parallelStream()
+                .map(file -> parse(file, failed))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())).join();
+        filesFailed = failed.get();
+        filesImported = files.size() - filesFailed;
+        parseNanos = System.nanoTime() - start;
+
+        // Hits per cell, keyed by cell index * 2 plus one for pitched notes
+        LongIntMap counts = new LongIntMap(1 << 12);
+        List<byte[]> lines = new ArrayList<>();
+        hits = 0;
+        for (GrooveCollector groove : grooves) {
+            for (int i = 0; i < groove.count; i++) {
+                counts.add(groove.cells[i], 1);
+            }
+            hits += groove.count;
+            lines.addAll(groove.melody.lines);
+        }
+        melodyModel = trainer.trainLines(lines);
+        int[][] layers = project(counts);
+
+        LOGGER.info(String.format("Imported %d files (%d failed), %d notes in %.2f s, %.0f files/s; melody %s",
+                filesImported, filesFailed, hits, parseNanos / 1e9, getFilesPerSecond(), melodyModel));
+        return layers;
+    }
+
+    private GrooveCollector parse(Path file, AtomicInteger failed) {
+        GrooveCollector collector = new GrooveCollector();
+        try {
+            int division = SmfReader.read(file, collector);
+            collector.project(division, gridSize);
+        } catch (IOException | InvalidMidiDataException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.fine("Skipping " + file + ": " + e.getMessage());
+            return null;
+        }
+        return collector;
+    }
+
+    private int[][] project(LongIntMap counts) {
+        LongIntMap totals = new LongIntMap(counts.size());
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            long key = counts.keyAt(slot);
+            if (key != LongIntMap.FREE) totals.add(key >>> 1, counts.valueAt(slot));
+        }
+
+        // The busiest cells win; ties at the threshold are all kept
+        int[] sorted = new int[totals.size()];
+        int hitCells = 0;
+        for (int slot = 0; slot < totals.capacity(); slot++) {
+            if (totals.keyAt(slot) != LongIntMap.FREE) sorted[hitCells++] = totals.valueAt(slot);
+        }
+        Arrays.sort(sorted);
+        int seeded = Math.min(hitCells, (int) Math.ceil((double) gridSize * gridSize * SEED_DENSITY));
+        int threshold = seeded == 0 ? Integer.MAX_VALUE : sorted[hitCells - seeded];
+
+        int[][] layers = new int[gridSize][gridSize];
+        for (int[] row : layers) {
+            Arrays.fill(row, -1);
+        }
+        for (int slot = 0; slot < totals.capacity(); slot++) {
+            long cell = totals.keyAt(slot);
+            if (cell == LongIntMap.FREE || totals.valueAt(slot) < threshold) continue;
+            int drums = counts.get(cell << 1);
+            int pitched = counts.get(cell << 1 | 1);
+            layers[(int) (cell / gridSize)][(int) (cell % gridSize)] = drums >= 2 * pitched ? GridModel.RHYTHM_LAYER
+                    : pitched >= 2 * drums ? GridModel.MELODY_LAYER
+                    : GridModel.BOTH_LAYER;
+        }
+        return layers;
+    }
+
+    /**
+     * Replace the garden's cells with the seed; call with the model's lock held
+     */
+    public static void seed(GridModel gridModel, int[][] layers) {
+        gridModel.clear();
+        int size = Math.min(gridModel.getGridSize(), layers.length);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (layers[row][col] < 0) continue;
+                gridModel.toggleCell(row, col);
+                for (int layer = 0; layer < layers[row][col]; layer++) {
+                    gridModel.cycleCellLayer(row, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notes of one file, with the melodic lines collected alongside
+     */
+    private static final class GrooveCollector implements SmfReader.Handler {
+        final MelodyCorpusTrainer.LineCollector melody = new MelodyCorpusTrainer.LineCollector();
+        private long[] ticks = new long[256];
+        private byte[] keys = new byte[256];
+        private boolean[] drum = new boolean[256];
+        long[] cells;
+        int count;
+
+        @Override
+        public void noteOn(int track, int channel, int key, int velocity, long tick) {
+            melody.noteOn(track, channel, key, velocity, tick);
+            if (count == ticks.length) {
+                ticks = Arrays.copyOf(ticks, count * 2);
+                keys = Arrays.copyOf(keys, count * 2);
+                drum = Arrays.copyOf(drum, count * 2);
+            }
+            ticks[count] = tick;
+            keys[count] = (byte) key;
+            drum[count] = channel == DRUM_CHANNEL;
+            count++;
+        }
+
+        @Override
+        public void endTrack(int track) {
+            melody.endTrack(track);
+        }
+
+        /**
+         * Turn the notes into cell keys once the file's division is known
+         */
+        void project(int division, int gridSize) {
+            cells = new long[count];
+            for (int i = 0; i < count; i++) {
+                long step = Math.round(ticks[i] * (double) STEPS_PER_BEAT / division);
+                int col = (int) (step % gridSize);
+                int row = gridSize - 1 - keys[i] * gridSize / 128;
+                cells[i] = ((long) row * gridSize + col) << 1 | (drum[i] ? 0 : 1);
+            }
+            ticks = null;
+            keys = null;
+            drum = null;
+        }
+    }
+
+    public int getFilesImported() {
+        return filesImported;
+    }
+
+    public int getFilesFailed() {
+        return filesFailed;
+    }
+
+    /**
+     * Notes projected onto the grid
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Time to map and parse the files, without training
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public double getFilesPerSecond() {
+        return (filesImported + filesFailed) / (parseNanos / 1e9);
+    }
+
+    /**
+     * Melody model trained on the last import's pitched notes
+     */
+    public ContextTrie getMelodyModel() {
+        return melodyModel;
+    }
+
+    /**
+     * Import a directory of grooves and write the seed as a text grid for BatchComposer:
+     * {@code <directory> [grid size] [seed.txt]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: GrooveImporter <directory> [grid size] [seed.txt]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        int gridSize = args.length > 1 ? Integer.parseInt(args[1]) : AppConfig.getInt("grid.size");
+        Path output = Paths.get(args.length > 2 ? args[2] : "seed.txt");
+
+        GrooveImporter importer = new GrooveImporter(gridSize,
+                AppConfig.getInt("melody.corpus.order"), AppConfig.getInt("melody.corpus.min.count"));
+        int[][] layers = importer.importDirectory(directory);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+            for (int[] row : layers) {
+                StringBuilder line = new StringBuilder(gridSize);
+                for (int layer : row) {
+                    line.append(layer == GridModel.RHYTHM_LAYER ? 'r' : layer == GridModel.MELODY_LAYER ? 'm'
+                            : layer == GridModel.BOTH_LAYER ? 'b' : '.');
+                }
+                writer.println(line);
+            }
+        }
+        LOGGER.info("Wrote seed grid to " + output);
+    }
+}
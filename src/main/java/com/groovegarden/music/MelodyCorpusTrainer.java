@@ -0,0 +1,282 @@
+package com.groovegarden.music;
+
+import com.groovegarden.algo.ContextTrie;
+import com.groovegarden.util.LongIntMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Trains a {@link ContextTrie} of pitch classes on a corpus of MIDI files.
+ *
+ * Files are memory-mapped and stream-parsed in parallel into one melodic
+ * line per track: drums are skipped, a chord keeps its highest note and
+ * each note becomes its absolute pitch class, which a {@code MarkovMelody}
+ * transposes to its scale's root. N-grams up to the order are then counted
+ * in parallel, each worker enumerating only its own share of the lines into
+ * one map per hash shard of the keys; the workers' maps of each shard are
+ * then merged, shards in parallel. N-grams seen fewer than {@code minCount}
+ * times are pruned, except for the single-note distribution that backoff
+ * ends on.
+ */
+public class MelodyCorpusTrainer {
+    private static final Logger LOGGER = Logger.getLogger(MelodyCorpusTrainer.class.getName());
+
+    public static final int PITCH_CLASSES = 12;
+    private static final int DRUM_CHANNEL = 9;
+
+    private final int order;
+    private final int minCount;
+    private final ForkJoinPool pool;
+
+    // Figures from the last training run
+    private int filesParsed;
+    private int filesFailed;
+    private long notes;
+    private long distinctNgrams;
+    private long parseNanos;
+    private long countNanos;
+    private long buildNanos;
+
+    public MelodyCorpusTrainer(int order, int minCount) {
+        this(order, minCount, ForkJoinPool.commonPool());
+    }
+
+    public MelodyCorpusTrainer(int order, int minCount, ForkJoinPool pool) {
+        if (order < 1 || order > ContextTrie.MAX_ORDER) {
+            throw new IllegalArgumentException("Order must be between 1 and " + ContextTrie.MAX_ORDER + ": " + order);
+        }
+        this.order = order;
+        this.minCount = Math.max(1, minCount);
+        this.pool = pool;
+    }
+
+    /**
+     * Train on every .mid and .midi file under the directory
+     */
+    public ContextTrie train(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).filter(MelodyCorpusTrainer::isMidiFile).collect(Collectors.toList());
+        }
+        return train(files);
+    }
+
+    static boolean isMidiFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".mid") || name.endsWith(".midi");
+    }
+
+    public ContextTrie train(List<Path> files) {
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        List<byte[]> lines = pool.submit(() -> files.parallelStream()
+                .flatMap(file -> parse(file, failed).stream())
+                .collect(Collectors.toList())).join();
+        filesFailed = failed.get();
+        filesParsed = files.size() - filesFailed;
+        parseNanos = System.nanoTime() - start;
+
+        ContextTrie trie = trainLines(lines);
+        LOGGER.info(String.format("Trained on %d files (%d failed), %d notes: %s in %.1f s",
+                filesParsed, filesFailed, notes, trie, getTotalNanos() / 1e9));
+        return trie;
+    }
+
+    /**
+     * Train on melodic lines already parsed, one pitch class per byte, as a
+     * {@link LineCollector} makes them; the parse figures are left as they are
+     */
+    public ContextTrie trainLines(List<byte[]> lines) {
+        notes = lines.stream().mapToLong(line -> line.length).sum();
+
+        long start = System.nanoTime();
+        int shards = pool.getParallelism();
+        LongIntMap[][] partial = new LongIntMap[shards][];
+        pool.submit(() -> IntStream.range(0, shards).parallel()
+                .forEach(worker -> partial[worker] = count(lines, worker, shards))).join();
+        LongIntMap[] counts = new LongIntMap[shards];
+        pool.submit(() -> IntStream.range(0, shards).parallel()
+                .forEach(shard -> counts[shard] = merge(partial, shard))).join();
+        countNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long kept = 0;
+        distinctNgrams = 0;
+        for (LongIntMap map : counts) {
+            distinctNgrams += map.size();
+            for (int slot = 0; slot < map.capacity(); slot++) {
+                if (keep(map.keyAt(slot), map.valueAt(slot))) kept++;
+            }
+        }
+        if (kept > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many n-grams kept; raise the minimum count");
+        }
+        long[] keys = new long[(int) kept];
+        int size = 0;
+        for (LongIntMap map : counts) {
+            for (int slot = 0; slot < map.capacity(); slot++) {
+                if (keep(map.keyAt(slot), map.valueAt(slot))) keys[size++] = map.keyAt(slot);
+            }
+        }
+        Arrays.parallelSort(keys);
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = counts[shardOf(keys[i], shards)].get(keys[i]);
+        }
+        ContextTrie trie = ContextTrie.build(order, PITCH_CLASSES, keys, values, size);
+        buildNanos = System.nanoTime() - start;
+        return trie;
+    }
+
+    private boolean keep(long key, int count) {
+        return key != LongIntMap.FREE && (count >= minCount || ContextTrie.keyLength(key) == 0);
+    }
+
+    private List<byte[]> parse(Path file, AtomicInteger failed) {
+        LineCollector collector = new LineCollector();
+        try {
+            SmfReader.read(file, collector);
+        } catch (IOException | InvalidMidiDataException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.fine("Skipping " + file + ": " + e.getMessage());
+            return List.of();
+        }
+        return collector.lines;
+    }
+
+    /**
+     * Count the n-grams of every {@code workers}-th line, starting at the worker's, into a map per shard
+     */
+    private LongIntMap[] count(List<byte[]> lines, int worker, int workers) {
+        LongIntMap[] maps = new LongIntMap[workers];
+        for (int shard = 0; shard < workers; shard++) {
+            maps[shard] = new LongIntMap(1 << 10);
+        }
+        for (int index = worker; index < lines.size(); index += workers) {
+            byte[] line = lines.get(index);
+            for (int i = 0; i < line.length; i++) {
+                long context = 0;
+                int next = line[i];
+                for (int length = 0; length <= order && length <= i; length++) {
+                    if (length > 0) {
+                        context = ContextTrie.withContextSymbol(context, length - 1, line[i - length]);
+                    }
+                    long key = ContextTrie.ngramKey(length, context, next);
+                    maps[shardOf(key, workers)].add(key, 1);
+                }
+            }
+        }
+        return maps;
+    }
+
+    /**
+     * Sum the workers' counts of one shard into the first worker's map
+     */
+    private static LongIntMap merge(LongIntMap[][] partial, int shard) {
+        LongIntMap map = partial[0][shard];
+        for (int worker = 1; worker < partial.length; worker++) {
+            LongIntMap other = partial[worker][shard];
+            for (int slot = 0; slot < other.capacity(); slot++) {
+                long key = other.keyAt(slot);
+                if (key != LongIntMap.FREE) {
+                    map.add(key, other.valueAt(slot));
+                }
+            }
+        }
+        return map;
+    }
+
+    private static int shardOf(long key, int shards) {
+        long h = key * 0xC2B2AE3D27D4EB4FL;
+        return (int) ((h >>> 33) % shards);
+    }
+
+    /**
+     * Monophonic pitch-class line per track
+     */
+    static final class LineCollector implements SmfReader.Handler {
+        final List<byte[]> lines = new ArrayList<>();
+        private byte[] line = new byte[256];
+        private int length;
+        private long pendingTick = -1;
+        private int pendingKey = -1;
+
+        @Override
+        public void noteOn(int track, int channel, int key, int velocity, long tick) {
+            if (channel == DRUM_CHANNEL) return;
+            if (tick == pendingTick) {
+                pendingKey = Math.max(pendingKey, key);
+                return;
+            }
+            flush();
+            pendingTick = tick;
+            pendingKey = key;
+        }
+
+        @Override
+        public void endTrack(int track) {
+            flush();
+            if (length > 1) {
+                lines.add(Arrays.copyOf(line, length));
+            }
+            length = 0;
+            pendingTick = -1;
+        }
+
+        private void flush() {
+            if (pendingKey < 0) return;
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte) (pendingKey % PITCH_CLASSES);
+            pendingKey = -1;
+        }
+    }
+
+    public int getFilesParsed() {
+        return filesParsed;
+    }
+
+    public int getFilesFailed() {
+        return filesFailed;
+    }
+
+    public long getNotes() {
+        return notes;
+    }
+
+    /**
+     * N-grams counted before pruning
+     */
+    public long getDistinctNgrams() {
+        return distinctNgrams;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public long getCountNanos() {
+        return countNanos;
+    }
+
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    public long getTotalNanos() {
+        return parseNanos + countNanos + buildNanos;
+    }
+}
@@ -1,11 +1,18 @@
 package com.groovegarden.music;
 
+import com.groovegarden.algo.ContextTrie;
 import com.groovegarden.algo.EuclideanRhythm;
 import com.groovegarden.algo.MarkovMelody;
+import com.groovegarden.config.AppConfig;
 import com.groovegarden.model.GridModel;
 
 import javax.sound.midi.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class MidiEngine {
     private Synthesizer synthesizer;
@@ -18,12 +25,76 @@ public class MidiEngine {
     // Algorithm instances
     private EuclideanRhythm euclideanRhythm;
     private MarkovMelody markovMelody;
+    private final SessionRandom session;
     
     // Music state
-    private List<Integer> melodyHistory;
     private boolean[] rhythmPattern;
     private int tempo;
     
+    // Bars are generated a bar ahead; playing a step only reads the current buffer
+    private BarBuffer previousBar = new BarBuffer();
+    private BarBuffer playingBar = new BarBuffer();
+    private BarBuffer nextBar = new BarBuffer();
+    private boolean currentReady;
+    private boolean nextReady;
+    private long seenEdits;
+    private boolean scaleChanged;
+    private final int[] melodyContext = new int[MELODY_CONTEXT];
+    
+    // Rhythm bars of recently seen garden states, reused once the garden cycles; direct-mapped by state hash
+    private static final int RHYTHM_CACHE_SIZE = 64; // power of two
+    private final long[] rhythmKeys = new long[RHYTHM_CACHE_SIZE];
+    private final boolean[] rhythmCached = new boolean[RHYTHM_CACHE_SIZE];
+    private final boolean[][] rhythmPatterns = new boolean[RHYTHM_CACHE_SIZE][BarBuffer.STEPS];
+    private final boolean[] freshRhythm = new boolean[BarBuffer.STEPS];
+    private int gardenPeriod;
+    
+    // One timing wheel owns every pending note-off; offline engines stamp their note-offs instead and have none
+    private final NoteOffScheduler noteOffs;
+    
+    // Every note sounds through a bounded voice; stolen and released voices are sent from here
+    private final VoiceManager voices = new VoiceManager(
+            Math.max(1, AppConfig.getInt("midi.voices.per.channel")), configuredStealPolicy(),
+            new VoiceManager.Output() {
+                @Override
+                public void noteOn(int channel, int note, int velocity, long micros) {
+                    if (micros >= 0) {
+                        send(ShortMessage.NOTE_ON, channel, note, velocity, micros);
+                    } else if (channels != null && channels[channel] != null) {
+                        channels[channel].noteOn(note, velocity);
+                    }
+                }
+                
+                @Override
+                public void noteOff(int channel, int note, long micros) {
+                    if (micros >= 0) {
+                        send(ShortMessage.NOTE_OFF, channel, note, 0, micros);
+                    } else if (channels != null && channels[channel] != null) {
+                        channels[channel].noteOff(note);
+                    }
+                }
+            });
+    
+    // Lookahead mode: steps run ahead of time and their events are stamped in the synthesizer's clock
+    private Receiver receiver;
+    private int lookaheadMs;
+    private long synthOffsetMicros;
+    // Each bar's new offset sample moves the mapping this fraction of the way
+    private static final int SYNTH_CLOCK_SMOOTHING = 8;
+    private long dueNanos = -1;
+    private volatile long scheduledEvents;
+    private volatile long lateEvents;
+    private volatile long maxLateMicros;
+    
+    // Notes as played, for export; live engines only
+    private PerformanceRecorder recorder;
+    private long performanceOrigin;
+    
+    // Offline: no synthesizer, every event goes to the receiver stamped with the caller's clock
+    private boolean offline;
+    
+    private static final int MELODY_CONTEXT = 8;
+    
     // Channel assignments
     private static final int DRUM_CHANNEL = 9;
     private static final int BASS_CHANNEL = 1;
@@ -35,14 +106,43 @@ public class MidiEngine {
         this.currentStep = 0;
         this.currentBar = 0;
         this.tempo = 120;
+        this.lookaheadMs = Math.max(0, AppConfig.getInt("midi.lookahead.ms"));
+        
+        this.session = SessionRandom.fromConfig();
+        this.noteOffs = new NoteOffScheduler(this::sendNoteOff);
+        this.recorder = new PerformanceRecorder(Math.max(1, AppConfig.getInt("midi.recorder.events")));
         
         this.euclideanRhythm = new EuclideanRhythm(16, 4);
-        this.markovMelody = new MarkovMelody(2);
-        this.melodyHistory = new ArrayList<>();
+        this.markovMelody = new MarkovMelody(2, session.stream(SessionRandom.Voice.MELODY));
         this.rhythmPattern = new boolean[16];
         
         initializeMidi();
         updateMarkovScale();
+        trainCorpusModel();
+    }
+    
+    /**
+     * Engine that renders into a receiver instead of a synthesizer; the
+     * due times passed to {@link #tick(GridModel, long)} become the event
+     * timestamps, in microseconds from zero, and the melody is drawn from
+     * the seed
+     */
+    public MidiEngine(Receiver receiver, long seed) {
+        this.currentScale = Scale.getScale("C Dorian");
+        this.tempo = 120;
+        this.euclideanRhythm = new EuclideanRhythm(16, 4);
+        this.session = new SessionRandom(seed);
+        this.markovMelody = new MarkovMelody(2, session.stream(SessionRandom.Voice.MELODY));
+        this.rhythmPattern = new boolean[16];
+        this.receiver = receiver;
+        this.offline = true;
+        this.noteOffs = null;
+        
+        // Same instruments as the synthesizer gets
+        send(ShortMessage.PROGRAM_CHANGE, MELODY_CHANNEL, 0, 0, 0);
+        send(ShortMessage.PROGRAM_CHANGE, BASS_CHANNEL, 32, 0, 0);
+        send(ShortMessage.PROGRAM_CHANGE, DRUM_CHANNEL, 0, 0, 0);
+        updateMarkovScale();
     }
     
     private void initializeMidi() {
@@ -50,6 +150,7 @@ public class MidiEngine {
             synthesizer = MidiSystem.getSynthesizer();
             synthesizer.open();
             channels = synthesizer.getChannels();
+            receiver = synthesizer.getReceiver();
             
             // Set up channels
             if (channels[MELODY_CHANNEL] != null) {
@@ -67,119 +168,389 @@ public class MidiEngine {
         }
     }
     
+    private void trainCorpusModel() {
+        String corpus = AppConfig.getString("melody.corpus.dir").trim();
+        if (corpus.isEmpty()) return;
+        
+        // Training can take a while on a large corpus, so the tables are used until it is done
+        Path directory = Paths.get(corpus);
+        MelodyCorpusTrainer trainer = new MelodyCorpusTrainer(
+                AppConfig.getInt("melody.corpus.order"), AppConfig.getInt("melody.corpus.min.count"));
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return trainer.train(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((model, error) -> {
+            if (error != null) {
+                System.err.println("Could not train on MIDI corpus " + directory + ": " + error.getMessage());
+            } else {
+                markovMelody.setCorpusModel(model);
+            }
+        });
+    }
+    
     public void start() {
         isPlaying = true;
         currentStep = 0;
         currentBar = 0;
+        previousBar.clear();
+        currentReady = false;
+        nextReady = false;
+        performanceOrigin = System.nanoTime();
+        if (recorder != null) {
+            recorder.clear();
+        }
+        
+        // Map System.nanoTime onto the synthesizer's clock for timestamped events
+        if (synthesizer != null) {
+            synthOffsetMicros = sampleSynthOffset();
+        }
+        scheduledEvents = 0;
+        lateEvents = 0;
+        maxLateMicros = 0;
     }
     
     public void stop() {
         isPlaying = false;
-        // Stop all notes
-        if (channels != null) {
-            for (MidiChannel channel : channels) {
-                if (channel != null) {
-                    channel.allNotesOff();
-                }
-            }
+        if (offline) {
+            // Nothing is listening in real time, so every note plays out to its end
+            voices.releaseAll(Long.MAX_VALUE);
+            return;
         }
+        panic();
+    }
+    
+    /**
+     * Silence exactly the notes that are sounding or queued ahead, now
+     */
+    public void panic() {
+        if (noteOffs != null) {
+            noteOffs.flush();
+        }
+        // Timestamped notes are cut at the synthesizer's clock, or at their own start if still queued
+        voices.releaseAll(synthesizer != null && synthesizer.isOpen() ? synthesizer.getMicrosecondPosition() : -1);
     }
     
     public void tick(GridModel gridModel) {
+        tick(gridModel, -1);
+    }
+    
+    /**
+     * Play the step due at this {@link System#nanoTime()}; with a lookahead
+     * its events are sent ahead, timestamped, instead of played immediately
+     */
+    public void tick(GridModel gridModel, long dueNanos) {
         if (!isPlaying) return;
+        this.dueNanos = dueNanos;
+        gardenPeriod = gridModel.getCyclePeriod();
+        if (!currentReady) {
+            generateSteps(playingBar, previousBar, 0, gridModel);
+            seenEdits = gridModel.getEditCount();
+            currentReady = true;
+        }
         
-        // Update algorithms based on grid state
-        updateAlgorithms(gridModel);
+        // The timing-critical part: send what was generated for this step
+        playStep(playingBar, currentStep);
+        if (dueNanos >= 0) {
+            // Note-offs due before the next step go out now, ahead of time like the notes
+            voices.releaseUntil(synthOffsetMicros + dueNanos / 1000 + 60_000_000L / (tempo * 4L));
+        }
         
-        // Generate and play music
-        generateRhythm();
-        generateMelody();
+        // Edits since the last step only change what has not been played yet
+        long edits = gridModel.getEditCount();
+        if (edits != seenEdits || scaleChanged) {
+            seenEdits = edits;
+            scaleChanged = false;
+            if (currentStep + 1 < BarBuffer.STEPS) {
+                generateSteps(playingBar, previousBar, currentStep + 1, gridModel);
+            }
+            nextReady = false;
+        }
+        if (!nextReady) {
+            generateSteps(nextBar, playingBar, 0, gridModel);
+            nextReady = true;
+        }
         
-        // Advance step
-        currentStep = (currentStep + 1) % 16;
+        // Advance step, swapping buffers at the bar line
+        currentStep = (currentStep + 1) % BarBuffer.STEPS;
         if (currentStep == 0) {
             currentBar++;
+            BarBuffer played = previousBar;
+            previousBar = playingBar;
+            playingBar = nextBar;
+            nextBar = played;
+            nextReady = false;
+            resyncSynthClock();
+        }
+    }
+    
+    /**
+     * Follow the synthesizer's clock as it drifts from System.nanoTime.
+     *
+     * The synthesizer counts time in the samples it has rendered, so its
+     * clock runs at the sound card's rate, not the CPU's, and over a long
+     * session the two part by far more than the lookahead: events stamped
+     * with an offset taken once at start end up early or late. The offset
+     * is sampled again once a bar, but the synthesizer's position only
+     * moves a buffer at a time, so each sample is smoothed in rather than
+     * taken as is, which also keeps successive timestamps from jumping.
+     */
+    private void resyncSynthClock() {
+        if (synthesizer == null || offline || !synthesizer.isOpen()) return;
+        synthOffsetMicros += (sampleSynthOffset() - synthOffsetMicros) / SYNTH_CLOCK_SMOOTHING;
+    }
+    
+    private long sampleSynthOffset() {
+        return synthesizer.getMicrosecondPosition() - System.nanoTime() / 1000;
+    }
+    
+    /**
+     * Play the step at this position since {@link #start()}; steps the
+     * caller dropped in between are skipped, so bars stay on its step grid
+     */
+    public void tick(GridModel gridModel, long dueNanos, long position) {
+        if (!isPlaying) return;
+        long expected = (long) currentBar * BarBuffer.STEPS + currentStep;
+        if (position > expected) {
+            skip(position - expected);
+        }
+        tick(gridModel, dueNanos);
+    }
+    
+    /**
+     * Move the playhead forward without playing, crossing bar lines as the steps would
+     */
+    private void skip(long steps) {
+        long target = currentStep + steps;
+        long bars = target / BarBuffer.STEPS;
+        currentStep = (int) (target % BarBuffer.STEPS);
+        if (bars == 0) return;
+        currentBar += (int) bars;
+        if (bars == 1) {
+            // The bar generated ahead is the one now playing
+            BarBuffer played = previousBar;
+            previousBar = playingBar;
+            playingBar = nextBar;
+            nextBar = played;
+            currentReady = nextReady;
+        } else {
+            // Both buffered bars are in the past
+            currentReady = false;
+        }
+        nextReady = false;
+    }
+    
+    private void playStep(BarBuffer bar, int step) {
+        if (channels == null && !offline) return;
+        long micros = ((dueNanos >= 0 ? dueNanos : System.nanoTime()) - performanceOrigin) / 1000;
+        for (int i = 0; i < bar.getEventCount(step); i++) {
+            int event = bar.getEvent(step, i);
+            int channel = BarBuffer.channel(event);
+            if (offline || channels[channel] != null) {
+                playNote(channel, BarBuffer.note(event), BarBuffer.velocity(event), BarBuffer.durationMs(event));
+                if (recorder != null) {
+                    recorder.record(micros, event);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Fill a bar from this step on, continuing the melody from the steps before it
+     */
+    private void generateSteps(BarBuffer bar, BarBuffer before, int fromStep, GridModel gridModel) {
+        bar.clearFrom(fromStep);
+        updateRhythm(gridModel);
+        for (int step = fromStep; step < BarBuffer.STEPS; step++) {
+            generateRhythm(bar, step);
+            generateMelody(bar, before, step);
         }
     }
     
-    private void updateAlgorithms(GridModel gridModel) {
+    private void updateRhythm(GridModel gridModel) {
+        // A cyclic garden revisits the same states, so their bars can be reused
+        int slot = -1;
+        if (gardenPeriod > 0) {
+            long hash = gridModel.getStateHash();
+            long mixed = hash * 0x9E3779B97F4A7C15L;
+            slot = (int) (mixed >>> 32) & (RHYTHM_CACHE_SIZE - 1);
+            if (rhythmCached[slot] && rhythmKeys[slot] == hash) {
+                rhythmPattern = rhythmPatterns[slot];
+                return;
+            }
+            // A state that shared the slot loses it and is generated again when it comes back
+            rhythmKeys[slot] = hash;
+            rhythmCached[slot] = true;
+        }
+        
         // Update Euclidean rhythm based on grid density
         double density = gridModel.getGridDensity();
         int pulses = Math.max(1, (int) (density * 8));
         euclideanRhythm.setPulses(pulses);
-        rhythmPattern = euclideanRhythm.generate();
-        
-        // Update Markov melody based on grid color distribution
-        updateMarkovScale();
+        rhythmPattern = slot >= 0 ? rhythmPatterns[slot] : freshRhythm;
+        euclideanRhythm.generate(rhythmPattern);
     }
     
-    private void generateRhythm() {
-        if (channels[DRUM_CHANNEL] == null) return;
-        
-        if (rhythmPattern[currentStep]) {
+    private void generateRhythm(BarBuffer bar, int step) {
+        if (rhythmPattern[step]) {
             // Kick drum on strong beats
-            if (currentStep % 4 == 0) {
-                channels[DRUM_CHANNEL].noteOn(36, 100); // Kick
-                scheduleNoteOff(DRUM_CHANNEL, 36, 200);
+            if (step % 4 == 0) {
+                bar.add(step, DRUM_CHANNEL, 36, 100, 200); // Kick
             }
             
             // Snare on weak beats
-            if (currentStep % 4 == 2) {
-                channels[DRUM_CHANNEL].noteOn(38, 80); // Snare
-                scheduleNoteOff(DRUM_CHANNEL, 38, 200);
+            if (step % 4 == 2) {
+                bar.add(step, DRUM_CHANNEL, 38, 80, 200); // Snare
             }
             
             // Hi-hat on every pulse
-            channels[DRUM_CHANNEL].noteOn(42, 60); // Hi-hat
-            scheduleNoteOff(DRUM_CHANNEL, 42, 100);
+            bar.add(step, DRUM_CHANNEL, 42, 60, 100); // Hi-hat
         }
     }
     
-    private void generateMelody() {
-        if (channels[MELODY_CHANNEL] == null) return;
-        
-        // Generate melody note using Markov chain
-        int scaleDegree = markovMelody.generateNextNote(melodyHistory);
-        int octave = 4 + (currentStep / 8); // Vary octave by position
+    private void generateMelody(BarBuffer bar, BarBuffer before, int step) {
+        // Generate melody note using Markov chain, continuing from the last few notes
+        int length = 0;
+        for (int i = step - MELODY_CONTEXT; i < step; i++) {
+            int degree = i < 0 ? before.getDegree(BarBuffer.STEPS + i) : bar.getDegree(i);
+            if (degree >= 0) melodyContext[length++] = degree;
+        }
+        int scaleDegree = markovMelody.generateNextNote(melodyContext, length);
+        int octave = 4 + (step / 8); // Vary octave by position
         int midiNote = currentScale.getNote(scaleDegree, octave);
         
-        // Play note
-        channels[MELODY_CHANNEL].noteOn(midiNote, 80);
-        scheduleNoteOff(MELODY_CHANNEL, midiNote, 300);
-        
-        // Update history
-        melodyHistory.add(scaleDegree);
-        if (melodyHistory.size() > 8) {
-            melodyHistory.remove(0);
+        bar.add(step, MELODY_CHANNEL, midiNote, 80, 300);
+        bar.setDegree(step, scaleDegree);
+    }
+    
+    private void playNote(int channel, int note, int velocity, int durationMs) {
+        if ((offline || lookaheadMs > 0) && receiver != null && dueNanos >= 0) {
+            long onMicros = synthOffsetMicros + dueNanos / 1000;
+            voices.noteOn(channel, note, velocity, onMicros, onMicros + durationMs * 1000L);
+            return;
         }
+        voices.noteOn(channel, note, velocity, -1, VoiceManager.NO_END);
+        scheduleNoteOff(channel, note, durationMs);
     }
     
-    private void scheduleNoteOff(int channel, int note, int delayMs) {
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (channels[channel] != null) {
-                    channels[channel].noteOff(note);
-                }
-                timer.cancel();
+    private void send(int command, int channel, int data1, int data2, long micros) {
+        ShortMessage message;
+        try {
+            message = new ShortMessage(command, channel, data1, data2);
+        } catch (InvalidMidiDataException e) {
+            System.err.println("Invalid MIDI event: " + e.getMessage());
+            return;
+        }
+        // An event stamped at or before the synthesizer's clock plays late
+        if (synthesizer != null) {
+            long late = synthesizer.getMicrosecondPosition() - micros;
+            if (late >= 0) {
+                lateEvents++;
+                maxLateMicros = Math.max(maxLateMicros, late);
             }
-        }, delayMs);
+        }
+        scheduledEvents++;
+        receiver.send(message, micros);
+    }
+    
+    private void scheduleNoteOff(int channel, int note, int delayMs) {
+        // Untimed notes only sound through a synthesizer, which offline engines do not have
+        if (noteOffs != null) {
+            noteOffs.schedule(channel, note, delayMs);
+        }
+    }
+    
+    private void sendNoteOff(int channel, int note) {
+        // A note stolen or already released is not sounding and gets nothing
+        voices.noteOff(channel, note, -1);
+    }
+    
+    private static VoiceManager.StealPolicy configuredStealPolicy() {
+        String policy = AppConfig.getString("midi.voice.steal").trim().toUpperCase();
+        try {
+            return VoiceManager.StealPolicy.valueOf(policy);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown midi.voice.steal '" + policy + "', stealing the oldest voice");
+            return VoiceManager.StealPolicy.OLDEST;
+        }
     }
     
     private void updateMarkovScale() {
+        markovMelody.setRootNote(currentScale.getRootNote());
         markovMelody.setScaleDegrees(currentScale.getScaleDegrees());
     }
     
     public void setScale(String scaleName) {
         this.currentScale = Scale.getScale(scaleName);
         updateMarkovScale();
+        // Steps already generated in the old scale are regenerated at the next tick
+        scaleChanged = true;
     }
     
     public void setTempo(int tempo) {
         this.tempo = tempo;
     }
     
+    public int getTempo() {
+        return tempo;
+    }
+    
+    /**
+     * Milliseconds ahead of the playhead that steps are generated, or 0 to play them at tick time
+     */
+    public int getLookaheadMillis() {
+        return receiver != null ? lookaheadMs : 0;
+    }
+    
+    public void setLookaheadMillis(int lookaheadMs) {
+        this.lookaheadMs = Math.max(0, lookaheadMs);
+    }
+    
+    /**
+     * Timestamped events sent since the last start
+     */
+    public long getScheduledEventCount() {
+        return scheduledEvents;
+    }
+    
+    /**
+     * Timestamped events that reached the synthesizer at or after their time
+     */
+    public long getLateEventCount() {
+        return lateEvents;
+    }
+    
+    public long getMaxLateMicros() {
+        return maxLateMicros;
+    }
+    
+    /**
+     * Draw the melody from a trained model as well as the scale's tables
+     */
+    public void setCorpusModel(ContextTrie model) {
+        markovMelody.setCorpusModel(model);
+    }
+    
+    /**
+     * Seed and per-voice random streams of this engine's session
+     */
+    public SessionRandom getSession() {
+        return session;
+    }
+    
+    /**
+     * Notes played since the last start, timed from it; null for offline engines
+     */
+    public PerformanceRecorder getRecorder() {
+        return recorder;
+    }
+    
+    public VoiceManager getVoices() {
+        return voices;
+    }
+    
     public Scale getCurrentScale() {
         return currentScale;
     }
@@ -196,7 +567,20 @@ public class MidiEngine {
         return currentBar;
     }
     
+    /**
+     * Period of the garden at the last tick, or 0 while it is still evolving
+     */
+    public int getGardenPeriod() {
+        return gardenPeriod;
+    }
+    
     public void close() {
+        if (noteOffs != null) {
+            noteOffs.shutdown();
+        }
+        if (receiver != null) {
+            receiver.close();
+        }
         if (synthesizer != null && synthesizer.isOpen()) {
             synthesizer.close();
         }
@@ -1,127 +1,286 @@
 package com.groovegarden.music;
 
+import com.groovegarden.config.AppConfig;
 import com.groovegarden.model.GridModel;
+import com.groovegarden.model.GridSnapshot;
 
-import javax.sound.midi.*;
-import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class MidiExporter {
     private static final int TICKS_PER_BEAT = 480;
-    private static final int BARS_TO_EXPORT = 8;
+    
+    // Channel assignments, as in the engine
+    private static final int DRUM_CHANNEL = 9;
+    private static final int BASS_CHANNEL = 1;
+    private static final int MELODY_CHANNEL = 0;
     private static final int STEPS_PER_BAR = 16;
     
+    // Recorded notes written between progress reports and cancellation checks
+    private static final int PROGRESS_INTERVAL = 4096;
+    
+    /**
+     * Told how much of an export is done; called on the exporting thread
+     */
+    @FunctionalInterface
+    public interface Progress {
+        Progress NONE = (done, total) -> { };
+        
+        void update(long done, long total);
+    }
+    
+    private final SplittableRandom random;
+    private long startGeneration;
+    
+    public MidiExporter(SplittableRandom random) {
+        this.random = random;
+        this.startGeneration = Math.max(0, AppConfig.getInt("midi.export.start.generation"));
+    }
+    
+    /**
+     * Export the garden as it will be this many generations after the snapshot, e.g. to preview a
+     * piece far ahead; {@code midi.export.start.generation} sets it initially
+     */
+    public void setStartGeneration(long startGeneration) {
+        if (startGeneration < 0) {
+            throw new IllegalArgumentException("Start generation cannot be negative: " + startGeneration);
+        }
+        this.startGeneration = startGeneration;
+    }
+    
     public void export(GridModel gridModel, MidiEngine midiEngine, String filePath) {
+        export(gridModel, midiEngine, filePath, Math.max(1, AppConfig.getInt("midi.export.bars")));
+    }
+    
+    public void export(GridModel gridModel, MidiEngine midiEngine, String filePath, int bars) {
         try {
-            // Create MIDI sequence
-            Sequence sequence = new Sequence(Sequence.PPQ, TICKS_PER_BEAT);
-            Track track = sequence.createTrack();
+            export(gridModel.getSnapshot(), midiEngine.getCurrentScale(), midiEngine.getTempo(), bars,
+                    Paths.get(filePath), Progress.NONE);
+        } catch (IOException e) {
+            System.err.println("Error exporting MIDI: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Stream the bars to a format 1 file, one track per voice, reading only
+     * the snapshot, so it may run on any thread while play goes on
+     *
+     * @throws InterruptedIOException if the thread is interrupted, leaving the file incomplete
+     */
+    public void export(GridSnapshot snapshot, Scale scale, int tempo, int bars, Path file, Progress progress)
+            throws IOException {
+        // Fast-forwarded on a copy, so the live model never waits on it
+        snapshot = GridModel.advance(snapshot, startGeneration);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             SmfWriter writer = new SmfWriter(channel, TICKS_PER_BEAT)) {
+            // Conductor track
+            writer.beginTrack();
+            writer.trackName("Groove Garden");
+            writer.tempo(0, tempo);
+            writer.endTrack();
             
-            // Set tempo
-            MetaMessage tempoMessage = createTempoMessage(120);
-            track.add(new MidiEvent(tempoMessage, 0));
+            // Three voice tracks of the given bars each
+            long total = 3L * bars;
             
             // Export rhythm track
-            exportRhythmTrack(track, gridModel, midiEngine);
+            writer.beginTrack();
+            writer.trackName("Drums");
+            exportRhythmTrack(writer, snapshot, bars, progress, 0, total);
+            writer.endTrack();
             
             // Export melody track
-            exportMelodyTrack(track, gridModel, midiEngine);
+            writer.beginTrack();
+            writer.trackName("Melody");
+            writer.programChange(0, MELODY_CHANNEL, 0); // Acoustic Grand Piano
+            exportMelodyTrack(writer, snapshot, scale, bars, progress, bars, total);
+            writer.endTrack();
             
             // Export bass track
-            exportBassTrack(track, gridModel, midiEngine);
-            
-            // Write to file
-            MidiSystem.write(sequence, 1, new File(filePath));
-            
-        } catch (InvalidMidiDataException | IOException e) {
+            writer.beginTrack();
+            writer.trackName("Bass");
+            writer.programChange(0, BASS_CHANNEL, 32); // Acoustic Bass
+            exportBassTrack(writer, scale, bars, progress, 2L * bars, total);
+            writer.endTrack();
+        }
+    }
+    
+    /**
+     * Write the notes the engine actually played, one track per channel, at
+     * the engine's tempo; tempo changes during play keep their real timing
+     *
+     * @return notes written
+     */
+    public int exportPerformance(PerformanceRecorder recorder, int tempo, String filePath) {
+        long[] times = new long[recorder.getCapacity()];
+        int[] events = new int[recorder.getCapacity()];
+        int count = recorder.copy(times, events);
+        try {
+            exportPerformance(times, events, count, tempo, Paths.get(filePath), Progress.NONE);
+        } catch (IOException e) {
             System.err.println("Error exporting MIDI: " + e.getMessage());
         }
+        return count;
     }
     
-    private void exportRhythmTrack(Track track, GridModel gridModel, MidiEngine midiEngine) {
-        int channel = 9; // Drum channel
+    /**
+     * Write notes copied out of a {@link PerformanceRecorder}; the arrays are only read
+     *
+     * @throws InterruptedIOException if the thread is interrupted, leaving the file incomplete
+     */
+    public void exportPerformance(long[] times, int[] events, int count, int tempo, Path file, Progress progress)
+            throws IOException {
+        double ticksPerMicro = TICKS_PER_BEAT * tempo / 60_000_000.0;
+        boolean[] used = new boolean[16];
+        int tracks = 0;
+        for (int i = 0; i < count; i++) {
+            int voice = BarBuffer.channel(events[i]);
+            if (!used[voice]) tracks++;
+            used[voice] = true;
+        }
+        // Each channel's track reads through all the notes
+        long total = (long) count * tracks;
+        long done = 0;
         
-        for (int bar = 0; bar < BARS_TO_EXPORT; bar++) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             SmfWriter writer = new SmfWriter(channel, TICKS_PER_BEAT)) {
+            writer.beginTrack();
+            writer.trackName("Groove Garden");
+            writer.tempo(0, tempo);
+            writer.endTrack();
+            
+            // Recorded in play order, so each channel's notes are already in time order
+            for (int voice = 0; voice < used.length; voice++) {
+                if (!used[voice]) continue;
+                writer.beginTrack();
+                writer.trackName(voice == DRUM_CHANNEL ? "Drums" : voice == BASS_CHANNEL ? "Bass"
+                        : voice == MELODY_CHANNEL ? "Melody" : "Channel " + (voice + 1));
+                if (voice == MELODY_CHANNEL) writer.programChange(0, voice, 0); // Acoustic Grand Piano
+                if (voice == BASS_CHANNEL) writer.programChange(0, voice, 32); // Acoustic Bass
+                long origin = count > 0 ? times[0] : 0;
+                for (int i = 0; i < count; i++) {
+                    if (i % PROGRESS_INTERVAL == 0) {
+                        checkCancelled();
+                        progress.update(done + i, total);
+                    }
+                    int event = events[i];
+                    if (BarBuffer.channel(event) != voice) continue;
+                    writer.note(Math.round((times[i] - origin) * ticksPerMicro), voice, BarBuffer.note(event),
+                            BarBuffer.velocity(event), (int) Math.round(BarBuffer.durationMs(event) * 1000L * ticksPerMicro));
+                }
+                writer.endTrack();
+                done += count;
+            }
+        }
+        progress.update(total, total);
+    }
+    
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Export cancelled");
+        }
+    }
+    
+    private void exportRhythmTrack(SmfWriter writer, GridSnapshot snapshot, int bars, Progress progress,
+            long done, long total) throws IOException {
+        int channel = DRUM_CHANNEL;
+        
+        for (int bar = 0; bar < bars; bar++) {
+            checkCancelled();
+            progress.update(done + bar, total);
             for (int step = 0; step < STEPS_PER_BAR; step++) {
-                long tick = (bar * STEPS_PER_BAR + step) * TICKS_PER_BEAT / 4; // 16th note
+                long tick = ((long) bar * STEPS_PER_BAR + step) * TICKS_PER_BEAT / 4; // 16th note
                 
                 // Generate rhythm based on grid state
-                boolean shouldPlay = shouldPlayRhythm(gridModel, bar, step);
+                boolean shouldPlay = shouldPlayRhythm(snapshot, bar, step);
                 
                 if (shouldPlay) {
                     // Kick drum on strong beats
                     if (step % 4 == 0) {
-                        addNote(track, channel, 36, 100, tick, 120); // Kick
+                        writer.note(tick, channel, 36, 100, 120); // Kick
                     }
                     
                     // Snare on weak beats
                     if (step % 4 == 2) {
-                        addNote(track, channel, 38, 80, tick, 120); // Snare
+                        writer.note(tick, channel, 38, 80, 120); // Snare
                     }
                     
                     // Hi-hat on every pulse
-                    addNote(track, channel, 42, 60, tick, 60); // Hi-hat
+                    writer.note(tick, channel, 42, 60, 60); // Hi-hat
                 }
             }
         }
     }
     
-    private void exportMelodyTrack(Track track, GridModel gridModel, MidiEngine midiEngine) {
-        int channel = 0; // Melody channel
+    private void exportMelodyTrack(SmfWriter writer, GridSnapshot snapshot, Scale scale, int bars,
+            Progress progress, long done, long total) throws IOException {
+        int channel = MELODY_CHANNEL;
         
-        for (int bar = 0; bar < BARS_TO_EXPORT; bar++) {
+        for (int bar = 0; bar < bars; bar++) {
+            checkCancelled();
+            progress.update(done + bar, total);
             for (int step = 0; step < STEPS_PER_BAR; step++) {
-                long tick = (bar * STEPS_PER_BAR + step) * TICKS_PER_BEAT / 4;
+                long tick = ((long) bar * STEPS_PER_BAR + step) * TICKS_PER_BEAT / 4;
                 
                 // Generate melody based on grid state
-                int note = generateMelodyNote(gridModel, bar, step, midiEngine.getCurrentScale());
+                int note = generateMelodyNote(snapshot, bar, step, scale);
                 
                 if (note > 0) {
-                    addNote(track, channel, note, 80, tick, 240);
+                    writer.note(tick, channel, note, 80, 240);
                 }
             }
         }
     }
     
-    private void exportBassTrack(Track track, GridModel gridModel, MidiEngine midiEngine) {
-        int channel = 1; // Bass channel
+    private void exportBassTrack(SmfWriter writer, Scale scale, int bars, Progress progress,
+            long done, long total) throws IOException {
+        int channel = BASS_CHANNEL;
         
-        for (int bar = 0; bar < BARS_TO_EXPORT; bar++) {
+        for (int bar = 0; bar < bars; bar++) {
+            checkCancelled();
+            progress.update(done + bar, total);
             for (int step = 0; step < STEPS_PER_BAR; step++) {
-                long tick = (bar * STEPS_PER_BAR + step) * TICKS_PER_BEAT / 4;
+                long tick = ((long) bar * STEPS_PER_BAR + step) * TICKS_PER_BEAT / 4;
                 
                 // Generate bass based on grid state
-                int note = generateBassNote(gridModel, bar, step, midiEngine.getCurrentScale());
+                int note = generateBassNote(bar, step, scale);
                 
                 if (note > 0) {
-                    addNote(track, channel, note, 70, tick, 480); // Longer bass notes
+                    writer.note(tick, channel, note, 70, 480); // Longer bass notes
                 }
             }
         }
+        progress.update(total, total);
     }
     
-    private boolean shouldPlayRhythm(GridModel gridModel, int bar, int step) {
+    private boolean shouldPlayRhythm(GridSnapshot snapshot, int bar, int step) {
         // Use grid density to determine rhythm probability
-        double density = gridModel.getGridDensity();
-        return Math.random() < density * 0.8;
+        double density = snapshot.getGridDensity();
+        return random.nextDouble() < density * 0.8;
     }
     
-    private int generateMelodyNote(GridModel gridModel, int bar, int step, Scale scale) {
-        // Map grid position to scale degree
-        int row = step % gridModel.getGridSize();
-        int col = bar % gridModel.getGridSize();
+    private int generateMelodyNote(GridSnapshot snapshot, int bar, int step, Scale scale) {
+        // Map grid position to scale degree; grids taller than a bar are spread across its steps
+        int gridSize = snapshot.getGridSize();
+        int row = gridSize > STEPS_PER_BAR ? step * gridSize / STEPS_PER_BAR : step % gridSize;
+        int col = bar % gridSize;
         
-        if (gridModel.isCellActive(row, col) && gridModel.getCellLayer(row, col) == 1) {
+        if (snapshot.isCellActive(row, col) && snapshot.getCellLayer(row, col) == 1) {
             int scaleDegree = row % scale.getSize();
-            int octave = 4 + (col / 8);
+            int octave = 4 + (col * 2 / Math.max(STEPS_PER_BAR, gridSize));
             return scale.getNote(scaleDegree, octave);
         }
         
         return -1; // No note
     }
     
-    private int generateBassNote(GridModel gridModel, int bar, int step, Scale scale) {
+    private int generateBassNote(int bar, int step, Scale scale) {
         // Bass follows root notes of the scale
         if (step % 4 == 0) { // On beat
             int scaleDegree = (bar + step / 4) % scale.getSize();
@@ -130,38 +289,4 @@ public class MidiExporter {
         
         return -1; // No note
     }
-    
-    private void addNote(Track track, int channel, int note, int velocity, long tick, int duration) {
-        try {
-            // Note on
-            ShortMessage noteOn = new ShortMessage();
-            noteOn.setMessage(ShortMessage.NOTE_ON, channel, note, velocity);
-            track.add(new MidiEvent(noteOn, tick));
-            
-            // Note off
-            ShortMessage noteOff = new ShortMessage();
-            noteOff.setMessage(ShortMessage.NOTE_OFF, channel, note, 0);
-            track.add(new MidiEvent(noteOff, tick + duration));
-            
-        } catch (InvalidMidiDataException e) {
-            System.err.println("Error adding note: " + e.getMessage());
-        }
-    }
-    
-    private MetaMessage createTempoMessage(int bpm) {
-        try {
-            // Convert BPM to microseconds per quarter note
-            int tempo = 60000000 / bpm;
-            byte[] data = new byte[3];
-            data[0] = (byte) ((tempo >> 16) & 0xFF);
-            data[1] = (byte) ((tempo >> 8) & 0xFF);
-            data[2] = (byte) (tempo & 0xFF);
-            
-            return new MetaMessage(0x51, data, data.length);
-            
-        } catch (InvalidMidiDataException e) {
-            System.err.println("Error creating tempo message: " + e.getMessage());
-            return null;
-        }
-    }
 } 
\ No newline at end of file
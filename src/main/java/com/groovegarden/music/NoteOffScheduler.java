@@ -0,0 +1,213 @@
+package com.groovegarden.music;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Single-threaded hashed timing wheel for pending note-offs.
+ *
+ * There is one preallocated entry per MIDI channel and note, linked into the
+ * wheel's slots by index, so scheduling never allocates and a note that is
+ * struck again before it ends simply has its note-off moved. The wheel turns
+ * once per {@value #TICK_MILLIS} ms on an absolute grid and the thread sleeps
+ * while nothing is pending, so thread count and allocation rate stay flat
+ * however busy the music gets.
+ */
+public class NoteOffScheduler {
+    private static final Logger LOGGER = Logger.getLogger(NoteOffScheduler.class.getName());
+
+    public static final int CHANNELS = 16;
+    public static final int NOTES = 128;
+    private static final int ENTRIES = CHANNELS * NOTES;
+
+    private static final int TICK_MILLIS = 1;
+    private static final long TICK_NANOS = TICK_MILLIS * 1_000_000L;
+    private static final int WHEEL_SLOTS = 256; // power of two
+    private static final int NONE = -1;
+
+    /**
+     * Receives due note-offs on the scheduler thread, or on the caller of {@link #flush()}
+     */
+    public interface Sink {
+        void noteOff(int channel, int note);
+    }
+
+    private final Sink sink;
+    private final Thread thread;
+    private final long origin = System.nanoTime();
+
+    // Wheel slots hold doubly linked lists of entry keys (channel * NOTES + note)
+    private final int[] slotHeads = new int[WHEEL_SLOTS];
+    private final int[] next = new int[ENTRIES];
+    private final int[] prev = new int[ENTRIES];
+    private final int[] slotOf = new int[ENTRIES];
+    private final int[] rounds = new int[ENTRIES];
+    private final boolean[] scheduled = new boolean[ENTRIES];
+    private int pending;
+    private long currentTick;
+    private volatile boolean running = true;
+
+    // Due keys collected under the lock and fired outside it
+    private final int[] dueKeys = new int[ENTRIES];
+    private final int[] flushKeys = new int[ENTRIES];
+
+    public NoteOffScheduler(Sink sink) {
+        this.sink = sink;
+        Arrays.fill(slotHeads, NONE);
+        this.thread = new Thread(this::run, "note-off-scheduler");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+        this.thread.start();
+    }
+
+    /**
+     * Send a note-off for this channel and note after the delay, replacing any pending one
+     */
+    public void schedule(int channel, int note, int delayMs) {
+        if (channel < 0 || channel >= CHANNELS || note < 0 || note >= NOTES) {
+            throw new IllegalArgumentException("No such channel/note: " + channel + "/" + note);
+        }
+        int key = channel * NOTES + note;
+        long ticks = Math.max(1, (delayMs + TICK_MILLIS - 1) / TICK_MILLIS);
+        synchronized (this) {
+            long nowTick = (System.nanoTime() - origin) / TICK_NANOS;
+            if (pending == 0) {
+                // The wheel stood still while idle; start turning from now
+                currentTick = nowTick;
+            }
+            if (scheduled[key]) {
+                unlink(key);
+            } else {
+                pending++;
+            }
+            long offset = Math.max(nowTick, currentTick) + ticks - currentTick;
+            link(key, (int) ((currentTick + offset) & (WHEEL_SLOTS - 1)), (int) ((offset - 1) / WHEEL_SLOTS));
+            if (pending == 1) {
+                notify();
+            }
+        }
+    }
+
+    /**
+     * Send every pending note-off now, on the calling thread
+     */
+    public void flush() {
+        int count = 0;
+        synchronized (this) {
+            for (int slot = 0; slot < WHEEL_SLOTS; slot++) {
+                while (slotHeads[slot] != NONE) {
+                    int key = slotHeads[slot];
+                    unlink(key);
+                    flushKeys[count++] = key;
+                }
+            }
+            pending = 0;
+        }
+        fire(flushKeys, count);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Drop pending note-offs without sending them and stop the thread
+     */
+    public void shutdown() {
+        running = false;
+        synchronized (this) {
+            notify();
+        }
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            long deadline;
+            synchronized (this) {
+                while (running && pending == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                deadline = origin + (currentTick + 1) * TICK_NANOS;
+            }
+            long delay = deadline - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+                continue;
+            }
+
+            int count;
+            synchronized (this) {
+                count = advance((System.nanoTime() - origin) / TICK_NANOS);
+            }
+            fire(dueKeys, count);
+        }
+    }
+
+    /**
+     * Turn the wheel up to this tick, collecting due keys
+     */
+    private int advance(long targetTick) {
+        int count = 0;
+        while (currentTick < targetTick && pending > 0) {
+            currentTick++;
+            int key = slotHeads[(int) (currentTick & (WHEEL_SLOTS - 1))];
+            while (key != NONE) {
+                int following = next[key];
+                if (rounds[key] == 0) {
+                    unlink(key);
+                    pending--;
+                    dueKeys[count++] = key;
+                } else {
+                    rounds[key]--;
+                }
+                key = following;
+            }
+        }
+        if (pending == 0) {
+            currentTick = targetTick;
+        }
+        return count;
+    }
+
+    private void fire(int[] keys, int count) {
+        for (int i = 0; i < count; i++) {
+            try {
+                sink.noteOff(keys[i] / NOTES, keys[i] % NOTES);
+            } catch (RuntimeException e) {
+                LOGGER.warning("Note-off failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void link(int key, int slot, int keyRounds) {
+        int head = slotHeads[slot];
+        next[key] = head;
+        prev[key] = NONE;
+        if (head != NONE) {
+            prev[head] = key;
+        }
+        slotHeads[slot] = key;
+        slotOf[key] = slot;
+        rounds[key] = keyRounds;
+        scheduled[key] = true;
+    }
+
+    private void unlink(int key) {
+        if (prev[key] != NONE) {
+            next[prev[key]] = next[key];
+        } else {
+            slotHeads[slotOf[key]] = next[key];
+        }
+        if (next[key] != NONE) {
+            prev[next[key]] = prev[key];
+        }
+        scheduled[key] = false;
+    }
+}
@@ -0,0 +1,270 @@
+package com.groovegarden.music;
+
+import com.groovegarden.algo.ContextTrie;
+import com.groovegarden.config.AppConfig;
+import com.groovegarden.model.GridModel;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+
+/**
+ * Renders a garden to MIDI without a synthesizer, a display or real time.
+ *
+ * The garden is stepped and the {@link MidiEngine} ticked in a plain loop
+ * against a virtual clock, so the same music the sequencer would play over
+ * an hour is produced as fast as the CPU generates it. Events stream
+ * through an {@link SmfWriter} into a format 1 file, a conductor track and
+ * one track for all channels: each step's events wait only until the next
+ * step, which stamps nothing earlier, and are then written in time order,
+ * so memory stays flat however long the render. The model is nobody's to
+ * draw, so its changed cells are dropped after every step instead of piling
+ * up. With {@code render.start.generation} set, the garden is
+ * first fast-forwarded that far, so a render can start deep into a piece
+ * without stepping through everything before it.
+ */
+public class OfflineRenderer {
+    private static final Logger LOGGER = Logger.getLogger(OfflineRenderer.class.getName());
+
+    public static final int TICKS_PER_BEAT = 480;
+    private static final int STEPS_PER_BEAT = 4;
+
+    private final int tempo;
+    private final String scaleName;
+    private ContextTrie melodyModel;
+    private long startGeneration;
+
+    // Figures from the last render
+    private long renderNanos;
+    private long eventCount;
+
+    public OfflineRenderer(int tempo, String scaleName) {
+        if (tempo <= 0) {
+            throw new IllegalArgumentException("Tempo must be positive: " + tempo);
+        }
+        this.tempo = tempo;
+        this.scaleName = scaleName;
+        this.startGeneration = Math.max(0, AppConfig.getInt("render.start.generation"));
+    }
+
+    /**
+     * Generations the garden skips ahead before the first step is played
+     */
+    public void setStartGeneration(long startGeneration) {
+        if (startGeneration < 0) {
+            throw new IllegalArgumentException("Start generation cannot be negative: " + startGeneration);
+        }
+        this.startGeneration = startGeneration;
+    }
+
+    public long getStartGeneration() {
+        return startGeneration;
+    }
+
+    /**
+     * Model the melody draws on, such as one trained on imported grooves; null for none
+     */
+    public void setMelodyModel(ContextTrie melodyModel) {
+        this.melodyModel = melodyModel;
+    }
+
+    /**
+     * Steps in this many minutes of music at the renderer's tempo
+     */
+    public long stepsFor(double minutes) {
+        return Math.round(minutes * tempo * STEPS_PER_BEAT);
+    }
+
+    /**
+     * Step the garden, play each step as the sequencer would and write a
+     * standard MIDI file; the same garden and seed render the same music
+     */
+    public void render(GridModel gridModel, long steps, long seed, File file) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             SmfWriter writer = new SmfWriter(channel, TICKS_PER_BEAT)) {
+            writer.beginTrack();
+            writer.trackName("Groove Garden");
+            writer.tempo(0, tempo);
+            writer.endTrack();
+
+            writer.beginTrack();
+            writer.trackName("Performance");
+            StreamingReceiver receiver = new StreamingReceiver(writer, tempo);
+            gridModel.fastForward(startGeneration);
+            gridModel.discardChanges();
+            MidiEngine engine = new MidiEngine(receiver, seed);
+            try {
+                engine.setScale(scaleName);
+                engine.setTempo(tempo);
+                if (melodyModel != null) {
+                    engine.setCorpusModel(melodyModel);
+                }
+                engine.start();
+                long stepNanos = 60_000_000_000L / ((long) tempo * STEPS_PER_BEAT);
+                for (long step = 0; step < steps; step++) {
+                    gridModel.update();
+                    gridModel.discardChanges();
+                    long due = step * stepNanos;
+                    // Nothing from this step on is stamped before it
+                    receiver.writeUntil(due / 1000);
+                    engine.tick(gridModel, due);
+                }
+                engine.stop();
+            } finally {
+                engine.close();
+            }
+            receiver.writeUntil(Long.MAX_VALUE);
+            writer.endTrack();
+            eventCount = receiver.events;
+        }
+        renderNanos = System.nanoTime() - start;
+    }
+
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Realtime length of the last render divided by the time it took
+     */
+    public double getSpeedup(long steps) {
+        double seconds = steps * 60.0 / (tempo * STEPS_PER_BEAT);
+        return seconds / (renderNanos / 1e9);
+    }
+
+    /**
+     * Holds the engine's timestamped events until {@link #writeUntil} puts
+     * them in time order and writes them as ticks
+     */
+    private static final class StreamingReceiver implements Receiver {
+        private final SmfWriter writer;
+        private final double ticksPerMicro;
+        // Events not yet written: timestamps, and status << 16 | data1 << 8 | data2
+        private long[] times = new long[256];
+        private int[] messages = new int[256];
+        private int count;
+        long events;
+
+        StreamingReceiver(SmfWriter writer, int tempo) {
+            this.writer = writer;
+            this.ticksPerMicro = TICKS_PER_BEAT * tempo / 60_000_000.0;
+        }
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            if (!(message instanceof ShortMessage)) return;
+            ShortMessage shortMessage = (ShortMessage) message;
+            int command = shortMessage.getCommand();
+            if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF
+                    && command != ShortMessage.PROGRAM_CHANGE) return;
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                messages = Arrays.copyOf(messages, count * 2);
+            }
+            times[count] = Math.max(0, timeStamp);
+            messages[count++] = shortMessage.getStatus() << 16 | shortMessage.getData1() << 8 | shortMessage.getData2();
+        }
+
+        /**
+         * Write the events stamped before this time; the rest wait for later ones
+         */
+        void writeUntil(long micros) throws IOException {
+            // Stable insertion sort: only about a step's events wait, mostly in order already
+            for (int i = 1; i < count; i++) {
+                long time = times[i];
+                int message = messages[i];
+                int j = i - 1;
+                for (; j >= 0 && times[j] > time; j--) {
+                    times[j + 1] = times[j];
+                    messages[j + 1] = messages[j];
+                }
+                times[j + 1] = time;
+                messages[j + 1] = message;
+            }
+            int written = 0;
+            for (; written < count && times[written] < micros; written++) {
+                write(Math.round(times[written] * ticksPerMicro), messages[written]);
+            }
+            System.arraycopy(times, written, times, 0, count - written);
+            System.arraycopy(messages, written, messages, 0, count - written);
+            count -= written;
+            events += written;
+        }
+
+        private void write(long tick, int message) throws IOException {
+            int channel = message >> 16 & 0x0F;
+            int data1 = message >> 8 & 0x7F;
+            int data2 = message & 0x7F;
+            switch (message >> 16 & 0xF0) {
+                case ShortMessage.NOTE_ON:
+                    writer.noteOn(tick, channel, data1, data2);
+                    break;
+                case ShortMessage.NOTE_OFF:
+                    writer.noteOff(tick, channel, data1);
+                    break;
+                default:
+                    writer.programChange(tick, channel, data1);
+                    break;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Render a seeded random garden headlessly:
+     * {@code <output.mid> [minutes] [tempo] [grid size] [seed]}
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: OfflineRenderer <output.mid> [minutes] [tempo] [grid size] [seed]");
+            System.exit(2);
+        }
+        File output = new File(args[0]);
+        double minutes = args.length > 1 ? Double.parseDouble(args[1]) : 60;
+        int tempo = args.length > 2 ? Integer.parseInt(args[2]) : AppConfig.getInt("music.default.tempo");
+        int gridSize = args.length > 3 ? Integer.parseInt(args[3]) : AppConfig.getInt("grid.size");
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+
+        GridModel gridModel = new GridModel(gridSize);
+        scatterCells(gridModel, new SessionRandom(seed).stream(SessionRandom.Voice.GARDEN));
+        OfflineRenderer renderer = new OfflineRenderer(tempo, AppConfig.getString("music.default.scale"));
+        long steps = renderer.stepsFor(minutes);
+        renderer.render(gridModel, steps, seed, output);
+
+        LOGGER.info(String.format("Rendered %.1f min (%d steps, %d events) to %s in %.2f s, %.0fx realtime",
+                minutes, steps, renderer.getEventCount(), output, renderer.getRenderNanos() / 1e9,
+                renderer.getSpeedup(steps)));
+    }
+
+    /**
+     * Scatter cells over a quarter of the garden, across all three layers
+     */
+    public static void scatterCells(GridModel gridModel, SplittableRandom random) {
+        int size = gridModel.getGridSize();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (random.nextInt(4) != 0) continue;
+                gridModel.toggleCell(row, col);
+                for (int layer = random.nextInt(3); layer > 0; layer--) {
+                    gridModel.cycleCellLayer(row, col);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.groovegarden.music;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free recorder of the notes the engine plays.
+ *
+ * One writer, the engine's tick, appends each note as a timestamp and a
+ * {@link BarBuffer}-packed event into preallocated primitive arrays used as
+ * a ring; once full, the oldest notes are overwritten. Readers copy the
+ * ring without stopping the writer: the writer claims an index before it
+ * overwrites a slot and publishes it after, so a reader can tell which of
+ * the slots it copied were overwritten meanwhile and drop them. Recording
+ * costs two ordered stores and never allocates or blocks.
+ */
+public class PerformanceRecorder {
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final int[] events;
+
+    // Writer-side position, and what readers see of it
+    private long writeIndex;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private volatile long sessionStart;
+
+    /**
+     * @param capacity notes kept, rounded up to a power of two
+     */
+    public PerformanceRecorder(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit((capacity - 1) << 1);
+        this.mask = this.capacity - 1;
+        this.times = new long[this.capacity];
+        this.events = new int[this.capacity];
+    }
+
+    /**
+     * Append a note played at this many microseconds into the session; writer thread only
+     */
+    public void record(long micros, int event) {
+        long index = writeIndex;
+        // Readers must see the claim before any part of the overwritten slot
+        claimed.lazySet(index + 1);
+        VarHandle.storeStoreFence();
+        int slot = (int) index & mask;
+        times[slot] = micros;
+        events[slot] = event;
+        writeIndex = index + 1;
+        published.lazySet(index + 1);
+    }
+
+    /**
+     * Start a new session; notes recorded so far are no longer read. Writer thread only
+     */
+    public void clear() {
+        sessionStart = writeIndex;
+    }
+
+    /**
+     * Copy the session's notes, oldest first, into arrays of at least {@link #getCapacity()} entries
+     *
+     * @return notes copied
+     */
+    public int copy(long[] timesOut, int[] eventsOut) {
+        long from = sessionStart;
+        long end = published.get();
+        long start = Math.max(from, end - capacity);
+        int count = (int) (end - start);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (start + i) & mask;
+            timesOut[i] = times[slot];
+            eventsOut[i] = events[slot];
+        }
+
+        // Slots the writer claimed while we copied may be torn
+        VarHandle.loadLoadFence();
+        long overwritten = claimed.get() - capacity - start;
+        if (overwritten > 0) {
+            int dropped = (int) Math.min(count, overwritten);
+            count -= dropped;
+            System.arraycopy(timesOut, dropped, timesOut, 0, count);
+            System.arraycopy(eventsOut, dropped, eventsOut, 0, count);
+        }
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Notes recorded in this session, including any already overwritten
+     */
+    public long getRecordedCount() {
+        return published.get() - sessionStart;
+    }
+
+    /**
+     * Notes of this session lost to the ring wrapping around
+     */
+    public long getOverwrittenCount() {
+        return Math.max(0, getRecordedCount() - capacity);
+    }
+}
@@ -0,0 +1,70 @@
+package com.groovegarden.music;
+
+import com.groovegarden.config.AppConfig;
+
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+
+/**
+ * The random streams of one session, all derived from a single seed.
+ *
+ * Each voice gets its own {@link SplittableRandom}, split off the seed's
+ * root generator in a fixed order, so the streams are independent of each
+ * other and of other sessions, need no locking, and the same seed always
+ * replays the same choices.
+ */
+public final class SessionRandom {
+    private static final Logger LOGGER = Logger.getLogger(SessionRandom.class.getName());
+
+    /**
+     * Consumers of randomness; new ones go at the end so existing seeds keep their music
+     */
+    public enum Voice {
+        MELODY,
+        RHYTHM,
+        GARDEN,
+        SCORE
+    }
+
+    private final long seed;
+
+    public SessionRandom(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Session seeded by {@code music.seed}, or by the clock when that is blank
+     */
+    public static SessionRandom fromConfig() {
+        String configured = AppConfig.getString("music.seed").trim();
+        long seed;
+        if (configured.isEmpty()) {
+            seed = System.nanoTime();
+        } else {
+            try {
+                seed = Long.parseLong(configured);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid music.seed, using the clock: " + configured);
+                seed = System.nanoTime();
+            }
+        }
+        LOGGER.info("Session seed " + seed);
+        return new SessionRandom(seed);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * A fresh stream for the voice, starting from the beginning of its sequence
+     */
+    public SplittableRandom stream(Voice voice) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom stream = root.split();
+        for (int i = 0; i < voice.ordinal(); i++) {
+            stream = root.split();
+        }
+        return stream;
+    }
+}
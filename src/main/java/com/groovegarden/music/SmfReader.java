@@ -0,0 +1,182 @@
+package com.groovegarden.music;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Streaming Standard MIDI File parser.
+ *
+ * Events are read straight out of the buffer with absolute gets and handed
+ * to a callback, so no {@code Sequence}, {@code Track} or message objects
+ * are built and a memory-mapped buffer is parsed without copying it.
+ * Only metrical timing is read: a file timed in SMPTE frames is rejected.
+ */
+public final class SmfReader {
+    private static final int MTHD = 0x4D546864;
+    private static final int MTRK = 0x4D54726B;
+
+    /**
+     * Receives the events of interest in file order, track by track
+     */
+    public interface Handler {
+        void noteOn(int track, int channel, int key, int velocity, long tick);
+
+        default void noteOff(int track, int channel, int key, long tick) {
+        }
+
+        default void tempo(int track, int microsPerQuarter, long tick) {
+        }
+
+        default void endTrack(int track) {
+        }
+    }
+
+    private SmfReader() {
+    }
+
+    /**
+     * Parse a file by mapping it into memory; its bytes are never copied onto the heap
+     *
+     * @return ticks per quarter note from the header
+     * @throws IOException if the file cannot be read or is not a well-formed MIDI file
+     * @throws InvalidMidiDataException if the file is timed in SMPTE frames, not ticks per quarter note
+     */
+    public static int read(Path file, Handler handler) throws IOException, InvalidMidiDataException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("MIDI file too large: " + size + " bytes");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), handler);
+        }
+    }
+
+    /**
+     * Parse the file in the buffer from its position to its limit
+     *
+     * @return ticks per quarter note from the header
+     * @throws IOException if the data is not a well-formed MIDI file
+     * @throws InvalidMidiDataException if the file is timed in SMPTE frames, not ticks per quarter note
+     */
+    public static int read(ByteBuffer buffer, Handler handler) throws IOException, InvalidMidiDataException {
+        int pos = buffer.position();
+        int end = buffer.limit();
+        if (end - pos < 14 || buffer.getInt(pos) != MTHD) {
+            throw new IOException("Not a MIDI file");
+        }
+        int headerLength = buffer.getInt(pos + 4);
+        int tracks = buffer.getShort(pos + 10) & 0xFFFF;
+        int division = buffer.getShort(pos + 12) & 0xFFFF;
+        // A set top bit means frames per second and ticks per frame, which no caller can place on the beat
+        if ((division & 0x8000) != 0) {
+            throw new InvalidMidiDataException("SMPTE timing is not supported: " + -(byte) (division >> 8)
+                    + " fps, " + (division & 0xFF) + " ticks per frame");
+        }
+        if (division == 0) {
+            throw new InvalidMidiDataException("Zero ticks per quarter note");
+        }
+        pos += 8 + headerLength;
+
+        for (int track = 0; track < tracks && pos + 8 <= end; ) {
+            int chunkType = buffer.getInt(pos);
+            int chunkLength = buffer.getInt(pos + 4);
+            pos += 8;
+            if (chunkLength < 0 || chunkLength > end - pos) {
+                throw new IOException("Truncated MIDI chunk");
+            }
+            // Unknown chunks are skipped, as the format asks
+            if (chunkType == MTRK) {
+                readTrack(buffer, pos, pos + chunkLength, track, handler);
+                handler.endTrack(track);
+                track++;
+            }
+            pos += chunkLength;
+        }
+        return division;
+    }
+
+    private static void readTrack(ByteBuffer buffer, int pos, int end, int track, Handler handler) throws IOException {
+        long tick = 0;
+        int status = 0;
+        while (pos < end) {
+            // Variable-length delta time
+            int delta = 0;
+            int b;
+            do {
+                if (pos >= end) throw new IOException("Truncated delta time");
+                b = buffer.get(pos++) & 0xFF;
+                delta = (delta << 7) | (b & 0x7F);
+            } while ((b & 0x80) != 0);
+            tick += delta;
+
+            if (pos >= end) throw new IOException("Truncated event");
+            int first = buffer.get(pos) & 0xFF;
+            if (first >= 0x80) {
+                pos++;
+                if (first < 0xF0) {
+                    status = first; // running status applies to channel messages only
+                }
+            } else if (status == 0) {
+                throw new IOException("Data byte without status");
+            } else {
+                first = status;
+            }
+
+            if (first == 0xFF) {
+                if (pos >= end) throw new IOException("Truncated meta event");
+                int type = buffer.get(pos++) & 0xFF;
+                int length = 0;
+                do {
+                    if (pos >= end) throw new IOException("Truncated meta length");
+                    b = buffer.get(pos++) & 0xFF;
+                    length = (length << 7) | (b & 0x7F);
+                } while ((b & 0x80) != 0);
+                if (length > end - pos) throw new IOException("Truncated meta event");
+                if (type == 0x51 && length == 3) {
+                    int micros = (buffer.get(pos) & 0xFF) << 16 | (buffer.get(pos + 1) & 0xFF) << 8
+                            | (buffer.get(pos + 2) & 0xFF);
+                    handler.tempo(track, micros, tick);
+                } else if (type == 0x2F) {
+                    return;
+                }
+                pos += length;
+                continue;
+            }
+            if (first == 0xF0 || first == 0xF7) {
+                int length = 0;
+                do {
+                    if (pos >= end) throw new IOException("Truncated sysex length");
+                    b = buffer.get(pos++) & 0xFF;
+                    length = (length << 7) | (b & 0x7F);
+                } while ((b & 0x80) != 0);
+                if (length > end - pos) throw new IOException("Truncated sysex");
+                pos += length;
+                continue;
+            }
+            if (first >= 0xF0) {
+                // Realtime and common messages do not belong in files; skip their data bytes
+                int dataBytes = first == 0xF2 ? 2 : first == 0xF1 || first == 0xF3 ? 1 : 0;
+                if (dataBytes > end - pos) throw new IOException("Truncated system message");
+                pos += dataBytes;
+                continue;
+            }
+
+            int command = first & 0xF0;
+            int channel = first & 0x0F;
+            int dataBytes = command == 0xC0 || command == 0xD0 ? 1 : 2;
+            if (dataBytes > end - pos) throw new IOException("Truncated channel message");
+            int data1 = buffer.get(pos) & 0x7F;
+            int data2 = dataBytes == 2 ? buffer.get(pos + 1) & 0x7F : 0;
+            pos += dataBytes;
+
+            if (command == 0x90 && data2 > 0) {
+                handler.noteOn(track, channel, data1, data2, tick);
+            } else if (command == 0x80 || command == 0x90) {
+                handler.noteOff(track, channel, data1, tick);
+            }
+        }
+    }
+}
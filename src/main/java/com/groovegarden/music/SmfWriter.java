@@ -0,0 +1,267 @@
+package com.groovegarden.music;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming Standard MIDI File writer.
+ *
+ * Events are encoded with variable-length delta times into a fixed buffer
+ * that is drained to the file channel as it fills, and each track's length
+ * is patched into its header when the track ends, as is the track count on
+ * close. Tracks are written one after another, format 1, and events within
+ * a track must come in tick order; note-offs given as durations wait in a
+ * small heap until their tick comes up. Memory stays constant however long
+ * the file gets.
+ */
+public final class SmfWriter implements Closeable {
+    private static final int MTHD = 0x4D546864;
+    private static final int MTRK = 0x4D54726B;
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int END_OF_TRACK = 0x2F;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final long fileStart;
+    private long flushed;
+    private int tracks;
+
+    // Current track
+    private boolean inTrack;
+    private long trackStart;
+    private long lastTick;
+    private int runningStatus;
+
+    // Pending note-offs as a min-heap on tick; each packs tick << 16 | channel << 8 | note
+    private long[] pendingOffs = new long[64];
+    private int pendingCount;
+
+    /**
+     * Start a file at the channel's position with this many ticks per quarter note
+     */
+    public SmfWriter(FileChannel channel, int ticksPerBeat) throws IOException {
+        if (ticksPerBeat < 1 || ticksPerBeat > 0x7FFF) {
+            throw new IllegalArgumentException("Ticks per beat must be between 1 and 32767: " + ticksPerBeat);
+        }
+        this.channel = channel;
+        this.fileStart = channel.position();
+        buffer.putInt(MTHD).putInt(6).putShort((short) 1).putShort((short) 0).putShort((short) ticksPerBeat);
+    }
+
+    public void beginTrack() throws IOException {
+        if (inTrack) {
+            throw new IllegalStateException("Track already open");
+        }
+        inTrack = true;
+        trackStart = position();
+        lastTick = 0;
+        runningStatus = 0;
+        ensure(8);
+        buffer.putInt(MTRK).putInt(0);
+    }
+
+    /**
+     * Pending note-offs up to the tick are written first, so events stay in order
+     */
+    public void noteOn(long tick, int channel, int note, int velocity) throws IOException {
+        flushOffs(tick);
+        event(tick, 0x90 | channel, note, velocity);
+    }
+
+    public void noteOff(long tick, int channel, int note) throws IOException {
+        flushOffs(tick);
+        event(tick, 0x80 | channel, note, 0);
+    }
+
+    /**
+     * Note-on now and its note-off after the duration, written when later
+     * events reach it; a note struck again before its off ends there instead
+     */
+    public void note(long tick, int channel, int note, int velocity, int duration) throws IOException {
+        flushOffs(tick);
+        int key = channel << 8 | note;
+        for (int i = 0; i < pendingCount; i++) {
+            if ((int) (pendingOffs[i] & 0xFFFF) == key) {
+                removeOff(i);
+                event(tick, 0x80 | channel, note, 0);
+                break;
+            }
+        }
+        noteOn(tick, channel, note, velocity);
+        if (pendingCount == pendingOffs.length) {
+            pendingOffs = Arrays.copyOf(pendingOffs, pendingCount * 2);
+        }
+        pendingOffs[pendingCount++] = (tick + Math.max(0, duration)) << 16 | key;
+        siftUp(pendingCount - 1);
+    }
+
+    public void programChange(long tick, int channel, int program) throws IOException {
+        flushOffs(tick);
+        checkTick(tick);
+        writeDelta(tick);
+        ensure(2);
+        buffer.put((byte) (0xC0 | channel)).put((byte) program);
+        runningStatus = 0xC0 | channel;
+    }
+
+    public void tempo(long tick, int bpm) throws IOException {
+        int micros = 60_000_000 / bpm;
+        meta(tick, 0x51, new byte[] {(byte) (micros >> 16), (byte) (micros >> 8), (byte) micros});
+    }
+
+    public void trackName(String name) throws IOException {
+        meta(lastTick, 0x03, name.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Write the remaining note-offs and the end of track, then patch the track's length
+     */
+    public void endTrack() throws IOException {
+        flushOffs(Long.MAX_VALUE);
+        meta(lastTick, END_OF_TRACK, new byte[0]);
+        long end = position();
+        flush();
+        ByteBuffer length = ByteBuffer.allocate(4).putInt(0, (int) (end - trackStart - 8));
+        channel.write(length, trackStart + 4);
+        inTrack = false;
+        tracks++;
+    }
+
+    /**
+     * Patch the track count into the header and flush; the channel stays open
+     */
+    @Override
+    public void close() throws IOException {
+        if (inTrack) {
+            endTrack();
+        }
+        flush();
+        ByteBuffer count = ByteBuffer.allocate(2).putShort(0, (short) tracks);
+        channel.write(count, fileStart + 10);
+    }
+
+    private void flushOffs(long tick) throws IOException {
+        while (pendingCount > 0 && pendingOffs[0] >>> 16 <= tick) {
+            long entry = pendingOffs[0];
+            removeOff(0);
+            event(entry >>> 16, 0x80 | (int) (entry >> 8 & 0xF), (int) (entry & 0x7F), 0);
+        }
+    }
+
+    private void removeOff(int index) {
+        long last = pendingOffs[--pendingCount];
+        if (index == pendingCount) return;
+        pendingOffs[index] = last;
+        siftUp(index);
+        siftDown(index);
+    }
+
+    private void siftUp(int i) {
+        long entry = pendingOffs[i];
+        while (i > 0 && pendingOffs[(i - 1) / 2] > entry) {
+            pendingOffs[i] = pendingOffs[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        pendingOffs[i] = entry;
+    }
+
+    private void siftDown(int i) {
+        long entry = pendingOffs[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= pendingCount) break;
+            if (child + 1 < pendingCount && pendingOffs[child + 1] < pendingOffs[child]) child++;
+            if (pendingOffs[child] >= entry) break;
+            pendingOffs[i] = pendingOffs[child];
+            i = child;
+        }
+        pendingOffs[i] = entry;
+    }
+
+    private void event(long tick, int status, int data1, int data2) throws IOException {
+        checkTick(tick);
+        writeDelta(tick);
+        ensure(3);
+        // Running status: a repeated status byte is left out
+        if (status != runningStatus) {
+            buffer.put((byte) status);
+            runningStatus = status;
+        }
+        buffer.put((byte) data1).put((byte) data2);
+    }
+
+    /**
+     * Pending note-offs up to the tick go first, like any other event; end of
+     * track has had them all written already
+     */
+    private void meta(long tick, int type, byte[] data) throws IOException {
+        if (type != END_OF_TRACK) {
+            flushOffs(tick);
+        }
+        checkTick(tick);
+        writeDelta(tick);
+        ensure(2);
+        buffer.put((byte) 0xFF).put((byte) type);
+        writeVarLength(data.length);
+        for (byte b : data) {
+            ensure(1);
+            buffer.put(b);
+        }
+        runningStatus = 0;
+    }
+
+    private void checkTick(long tick) {
+        if (!inTrack) {
+            throw new IllegalStateException("No track open");
+        }
+        if (tick < lastTick) {
+            throw new IllegalArgumentException("Event at tick " + tick + " after tick " + lastTick);
+        }
+    }
+
+    private void writeDelta(long tick) throws IOException {
+        long delta = tick - lastTick;
+        if (delta > 0x0FFFFFFF) {
+            throw new IllegalArgumentException("Delta time too large: " + delta);
+        }
+        writeVarLength((int) delta);
+        lastTick = tick;
+    }
+
+    private void writeVarLength(int value) throws IOException {
+        ensure(4);
+        // Seven bits per byte, most significant first, continuation bit on all but the last
+        int shift = 21;
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 7;
+        }
+        for (; shift > 0; shift -= 7) {
+            buffer.put((byte) (0x80 | (value >>> shift) & 0x7F));
+        }
+        buffer.put((byte) (value & 0x7F));
+    }
+
+    private long position() {
+        return fileStart + flushed + buffer.position();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        long at = fileStart + flushed;
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+        flushed = at - fileStart;
+        buffer.clear();
+    }
+}
@@ -0,0 +1,196 @@
+package com.groovegarden.music;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Sixteenth-note clock on its own high-priority thread.
+ *
+ * Step n is due at {@code anchorTime + (n - anchorStep) * stepNanos} on the
+ * {@link System#nanoTime()} grid, so a late step never pushes the ones after
+ * it back and error does not accumulate. A tempo change re-anchors the grid
+ * at the next step boundary instead of restarting the clock. The thread
+ * parks until shortly before each deadline and spins the rest of the way.
+ * With a lookahead set, each step runs that much before it is due and is
+ * told its due time, so its events can be timestamped for the synthesizer.
+ *
+ * Other threads only observe: {@link #getPosition()} and the timing counters
+ * are safe to read from anywhere.
+ */
+public class StepSequencer {
+    private static final Logger LOGGER = Logger.getLogger(StepSequencer.class.getName());
+
+    public static final int STEPS_PER_BEAT = 4;
+
+    // Park until this close to a deadline, then spin
+    private static final long SPIN_NANOS = 200_000L;
+
+    /**
+     * Runs each step on the sequencer thread, up to the lookahead before it is due.
+     * Positions count every step of the grid, so they jump past dropped steps.
+     */
+    public interface StepListener {
+        void step(long position, long dueNanos);
+    }
+
+    private final StepListener listener;
+    private volatile long pendingStepNanos;
+    private volatile long lookaheadNanos;
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long position = -1;
+    private volatile long lateSteps;
+    private volatile long skippedSteps;
+    private volatile long maxLatenessNanos;
+
+    public StepSequencer(int tempo, StepListener listener) {
+        this.listener = listener;
+        setTempo(tempo);
+    }
+
+    /**
+     * Takes effect at the next step boundary
+     */
+    public void setTempo(int tempo) {
+        if (tempo <= 0) {
+            throw new IllegalArgumentException("Tempo must be positive: " + tempo);
+        }
+        pendingStepNanos = 60_000_000_000L / ((long) tempo * STEPS_PER_BEAT);
+    }
+
+    public int getTempo() {
+        return (int) Math.round(60_000_000_000.0 / (pendingStepNanos * STEPS_PER_BEAT));
+    }
+
+    /**
+     * Run steps this long before they are due; takes effect at the next step
+     */
+    public void setLookaheadMillis(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Lookahead must not be negative: " + millis);
+        }
+        lookaheadNanos = millis * 1_000_000L;
+    }
+
+    public int getLookaheadMillis() {
+        return (int) (lookaheadNanos / 1_000_000L);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        position = -1;
+        lateSteps = 0;
+        skippedSteps = 0;
+        maxLatenessNanos = 0;
+        thread = new Thread(this::run, "step-sequencer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop after the step in progress, if any, has finished
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        long stepNanos = pendingStepNanos;
+        // The first step is due one lookahead from now, so it can still be played ahead
+        long anchorTime = System.nanoTime() + lookaheadNanos;
+        long anchorStep = 0;
+        long step = 0;
+
+        while (running) {
+            long deadline = anchorTime + (step - anchorStep) * stepNanos;
+            long lookahead = lookaheadNanos;
+            if (!waitUntil(deadline - lookahead)) break;
+
+            long lateness = System.nanoTime() - (deadline - lookahead);
+            if (lateness > stepNanos) {
+                // A stall of more than a step: drop the missed steps rather than rush them out
+                long missed = lateness / stepNanos;
+                skippedSteps += missed;
+                step += missed;
+                deadline += missed * stepNanos;
+                lateness -= missed * stepNanos;
+            }
+            if (lateness > SPIN_NANOS) {
+                lateSteps++;
+            }
+            if (lateness > maxLatenessNanos) {
+                maxLatenessNanos = lateness;
+            }
+
+            position = step;
+            try {
+                listener.step(step, deadline);
+            } catch (RuntimeException e) {
+                LOGGER.warning("Step " + step + " failed: " + e.getMessage());
+            }
+            step++;
+
+            long requested = pendingStepNanos;
+            if (requested != stepNanos) {
+                // Re-anchor on the boundary that was just played
+                anchorTime = deadline;
+                anchorStep = step - 1;
+                stepNanos = requested;
+            }
+        }
+    }
+
+    private boolean waitUntil(long deadline) {
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Steps played since start, counting from 0, or -1 before the first
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Steps that started more than {@value #SPIN_NANOS} ns after their wake-up time
+     */
+    public long getLateSteps() {
+        return lateSteps;
+    }
+
+    /**
+     * Steps dropped after the thread stalled for longer than a step
+     */
+    public long getSkippedSteps() {
+        return skippedSteps;
+    }
+
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+}
@@ -0,0 +1,222 @@
+package com.groovegarden.music;
+
+import java.util.Arrays;
+
+/**
+ * Bounds polyphony per channel and keeps track of every sounding note.
+ *
+ * Each channel has a fixed number of voice slots. A table indexed by
+ * channel and note finds a note's slot in O(1), and a note struck while its
+ * channel is full steals the oldest or quietest voice. Voices may carry an
+ * end time, for notes scheduled ahead with timestamps, or be released
+ * explicitly. Because every note-on and note-off goes through here, stop
+ * and panic release exactly the notes that are sounding.
+ *
+ * Times are microseconds on the caller's clock; a negative time means now.
+ */
+public class VoiceManager {
+    public static final int CHANNELS = 16;
+    public static final int NOTES = 128;
+    public static final long NO_END = Long.MAX_VALUE;
+    private static final int NONE = -1;
+
+    public enum StealPolicy {
+        OLDEST,
+        QUIETEST
+    }
+
+    /**
+     * Where note-ons and note-offs go, including those for stolen and released voices
+     */
+    public interface Output {
+        void noteOn(int channel, int note, int velocity, long micros);
+
+        void noteOff(int channel, int note, long micros);
+    }
+
+    private final int maxVoices;
+    private final StealPolicy policy;
+    private final Output output;
+
+    // Slot of each channel * NOTES + note, or NONE
+    private final int[] slotOf = new int[CHANNELS * NOTES];
+
+    // Per slot, in runs of maxVoices per channel; the first active[channel] of a run are in use
+    private final int[] active = new int[CHANNELS];
+    private final byte[] slotNote;
+    private final byte[] slotVelocity;
+    private final long[] slotOrder;
+    private final long[] slotStart;
+    private final long[] slotEnd;
+    private long order;
+    private int sounding;
+    private int peak;
+    private long stolen;
+
+    public VoiceManager(int maxVoicesPerChannel, StealPolicy policy, Output output) {
+        if (maxVoicesPerChannel < 1) {
+            throw new IllegalArgumentException("Need at least one voice per channel: " + maxVoicesPerChannel);
+        }
+        this.maxVoices = maxVoicesPerChannel;
+        this.policy = policy;
+        this.output = output;
+        int slots = CHANNELS * maxVoicesPerChannel;
+        this.slotNote = new byte[slots];
+        this.slotVelocity = new byte[slots];
+        this.slotOrder = new long[slots];
+        this.slotStart = new long[slots];
+        this.slotEnd = new long[slots];
+        Arrays.fill(slotOf, NONE);
+    }
+
+    /**
+     * Start a note, retriggering it if it is already sounding and stealing a voice if the channel is full
+     *
+     * @param endMicros when the note ends by itself, or {@link #NO_END} if it will be released
+     */
+    public synchronized void noteOn(int channel, int note, int velocity, long startMicros, long endMicros) {
+        // Voices that have ended by now free their slots first
+        if (startMicros >= 0) {
+            expire(channel, startMicros);
+        }
+        int key = channel * NOTES + note;
+        if (slotOf[key] != NONE) {
+            release(slotOf[key], startMicros);
+        } else if (active[channel] == maxVoices) {
+            release(victim(channel), startMicros);
+            stolen++;
+        }
+
+        int slot = channel * maxVoices + active[channel]++;
+        slotOf[key] = slot;
+        slotNote[slot] = (byte) note;
+        slotVelocity[slot] = (byte) velocity;
+        slotOrder[slot] = order++;
+        slotStart[slot] = startMicros;
+        slotEnd[slot] = endMicros;
+        sounding++;
+        peak = Math.max(peak, sounding);
+        output.noteOn(channel, note, velocity, startMicros);
+    }
+
+    /**
+     * Release a note now or at the given time
+     *
+     * @return false if it was not sounding, in which case nothing is sent
+     */
+    public synchronized boolean noteOff(int channel, int note, long micros) {
+        int slot = slotOf[channel * NOTES + note];
+        if (slot == NONE) return false;
+        release(slot, micros);
+        return true;
+    }
+
+    /**
+     * Send the note-offs of voices that end before the given time, each stamped with its end
+     *
+     * @return voices released
+     */
+    public synchronized int releaseUntil(long micros) {
+        int released = 0;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            released += expire(channel, micros);
+        }
+        return released;
+    }
+
+    /**
+     * Release every sounding voice at the given time, or at its own end if
+     * that is sooner; a voice never gets its note-off before its note-on
+     *
+     * @return voices released
+     */
+    public synchronized int releaseAll(long micros) {
+        int released = sounding;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            int base = channel * maxVoices;
+            while (active[channel] > 0) {
+                int slot = base + active[channel] - 1;
+                long time = micros < 0 ? micros : Math.max(slotStart[slot], Math.min(slotEnd[slot], micros));
+                release(slot, time);
+            }
+        }
+        return released;
+    }
+
+    private int expire(int channel, long micros) {
+        int released = 0;
+        int base = channel * maxVoices;
+        for (int i = active[channel] - 1; i >= 0; i--) {
+            int slot = base + i;
+            if (slotEnd[slot] <= micros) {
+                release(slot, slotEnd[slot]);
+                released++;
+            }
+        }
+        return released;
+    }
+
+    private int victim(int channel) {
+        int base = channel * maxVoices;
+        int victim = base;
+        for (int slot = base + 1; slot < base + active[channel]; slot++) {
+            boolean quieter = slotVelocity[slot] < slotVelocity[victim];
+            boolean sameLevel = slotVelocity[slot] == slotVelocity[victim];
+            boolean older = slotOrder[slot] < slotOrder[victim];
+            if (policy == StealPolicy.QUIETEST ? quieter || (sameLevel && older) : older) {
+                victim = slot;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Send the slot's note-off and fill the hole with the channel's last slot
+     */
+    private void release(int slot, long micros) {
+        int channel = slot / maxVoices;
+        int note = slotNote[slot];
+        output.noteOff(channel, note, micros);
+        slotOf[channel * NOTES + note] = NONE;
+        sounding--;
+
+        int last = channel * maxVoices + --active[channel];
+        if (last != slot) {
+            slotNote[slot] = slotNote[last];
+            slotVelocity[slot] = slotVelocity[last];
+            slotOrder[slot] = slotOrder[last];
+            slotStart[slot] = slotStart[last];
+            slotEnd[slot] = slotEnd[last];
+            slotOf[channel * NOTES + slotNote[slot]] = slot;
+        }
+    }
+
+    public int getMaxVoicesPerChannel() {
+        return maxVoices;
+    }
+
+    public synchronized int getActiveCount() {
+        return sounding;
+    }
+
+    public synchronized int getActiveCount(int channel) {
+        return active[channel];
+    }
+
+    /**
+     * Most voices sounding at once
+     */
+    public synchronized int getPeakCount() {
+        return peak;
+    }
+
+    public synchronized long getStolenCount() {
+        return stolen;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d voices sounding, peak %d, %d stolen (%d per channel, %s first)",
+                sounding, peak, stolen, maxVoices, policy.name().toLowerCase());
+    }
+}
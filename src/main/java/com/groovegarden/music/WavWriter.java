@@ -0,0 +1,84 @@
+package com.groovegarden.music;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming WAV writer for 16-bit little-endian PCM.
+ *
+ * The header goes out first with zero sizes and the sample data is
+ * appended in whatever chunks the caller has; the RIFF and data sizes are
+ * patched in on close, so a file of any length is written without holding
+ * it in memory.
+ */
+public final class WavWriter implements Closeable {
+    private static final int HEADER_BYTES = 44;
+
+    private final FileChannel channel;
+    private final long fileStart;
+    private final int frameBytes;
+    private long dataBytes;
+
+    /**
+     * Start a file at the channel's position for this format
+     */
+    public WavWriter(FileChannel channel, AudioFormat format) throws IOException {
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16
+                || format.isBigEndian()) {
+            throw new IllegalArgumentException("Need 16-bit signed little-endian PCM: " + format);
+        }
+        this.channel = channel;
+        this.fileStart = channel.position();
+        this.frameBytes = format.getFrameSize();
+        int rate = Math.round(format.getSampleRate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(0).putInt(0x45564157);  // "RIFF", size, "WAVE"
+        header.putInt(0x20746D66).putInt(16).putShort((short) 1)  // "fmt ", PCM
+                .putShort((short) format.getChannels()).putInt(rate).putInt(rate * frameBytes)
+                .putShort((short) frameBytes).putShort((short) 16);
+        header.putInt(0x61746164).putInt(0);                      // "data", size
+        header.flip();
+        write(header, fileStart);
+    }
+
+    /**
+     * Append whole frames of sample data
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (length % frameBytes != 0) {
+            throw new IllegalArgumentException("Not a whole number of frames: " + length + " bytes");
+        }
+        // Sizes in the header are 32 bits
+        if (HEADER_BYTES - 8 + dataBytes + length > 0xFFFFFFFFL) {
+            throw new IOException("Too long for a WAV file: " + (dataBytes + length) + " bytes of samples");
+        }
+        write(ByteBuffer.wrap(data, offset, length), fileStart + HEADER_BYTES + dataBytes);
+        dataBytes += length;
+    }
+
+    public long getFrameCount() {
+        return dataBytes / frameBytes;
+    }
+
+    /**
+     * Patch the sizes into the header; the channel stays open
+     */
+    @Override
+    public void close() throws IOException {
+        ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        write(size.putInt(0, (int) (HEADER_BYTES - 8 + dataBytes)), fileStart + 4);
+        size.clear();
+        write(size.putInt(0, (int) dataBytes), fileStart + 40);
+    }
+
+    private void write(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+}
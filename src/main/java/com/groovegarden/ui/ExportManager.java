@@ -0,0 +1,141 @@
+package com.groovegarden.ui;
+
+import com.groovegarden.config.AppConfig;
+import com.groovegarden.music.MidiExporter;
+import com.groovegarden.util.ErrorHandler;
+import javafx.concurrent.Task;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs MIDI exports in the background so the JavaFX thread never waits on a file.
+ *
+ * Each export is a {@link Task} on a small pool of daemon threads: several
+ * can run at once and any beyond the pool's size queue. Exports work on
+ * data captured when they were requested, never the live model. The
+ * progress bar follows the newest export still pending, and a cancelled or
+ * failed export removes its partial file.
+ */
+public class ExportManager {
+    private static final Logger LOGGER = Logger.getLogger(ExportManager.class.getName());
+
+    /**
+     * Writes one file, reporting progress and stopping when its thread is interrupted
+     */
+    @FunctionalInterface
+    public interface Job {
+        void run(MidiExporter.Progress progress) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final ProgressBar progressBar;
+    private final Label statusLabel;
+    private final Button cancelButton;
+
+    // Queued and running exports, oldest first; JavaFX thread only
+    private final List<Task<Void>> pending = new ArrayList<>();
+
+    public ExportManager(ProgressBar progressBar, Label statusLabel, Button cancelButton) {
+        this.progressBar = progressBar;
+        this.statusLabel = statusLabel;
+        this.cancelButton = cancelButton;
+
+        int threads = Math.max(1, AppConfig.getInt("performance.export.threads"));
+        AtomicInteger created = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "midi-export-" + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        progressBar.setProgress(0);
+        cancelButton.setDisable(true);
+    }
+
+    /**
+     * Queue an export writing the file; call on the JavaFX thread
+     */
+    public Task<Void> submit(File file, Job job) {
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                boolean complete = false;
+                try {
+                    job.run(this::updateProgress);
+                    complete = true;
+                } finally {
+                    if (!complete) {
+                        deletePartial(file);
+                    }
+                }
+                return null;
+            }
+        };
+        task.setOnSucceeded(e -> finished(task, "Exported " + file.getName()));
+        task.setOnCancelled(e -> finished(task, "Cancelled export of " + file.getName()));
+        task.setOnFailed(e -> {
+            finished(task, "Failed to export " + file.getName());
+            Throwable failure = task.getException();
+            ErrorHandler.handleFileError("export", file.getAbsolutePath(),
+                    failure instanceof Exception ? (Exception) failure : new Exception(failure));
+        });
+
+        pending.add(task);
+        follow(task);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancel every queued and running export
+     */
+    public void cancelAll() {
+        for (Task<Void> task : new ArrayList<>(pending)) {
+            task.cancel(true);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void follow(Task<Void> task) {
+        progressBar.progressProperty().unbind();
+        progressBar.progressProperty().bind(task.progressProperty());
+        statusLabel.setText(pending.size() == 1 ? "Exporting..." : "Exporting " + pending.size() + " files...");
+        cancelButton.setDisable(false);
+    }
+
+    private void finished(Task<Void> task, String message) {
+        pending.remove(task);
+        LOGGER.info(message);
+        if (pending.isEmpty()) {
+            progressBar.progressProperty().unbind();
+            progressBar.setProgress(task.getState() == Task.State.SUCCEEDED ? 1 : 0);
+            statusLabel.setText(message);
+            cancelButton.setDisable(true);
+        } else {
+            follow(pending.get(pending.size() - 1));
+        }
+    }
+
+    private static void deletePartial(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not remove partial export " + file, e);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.groovegarden.ui;
 import javafx.application.Platform;
 import javafx.scene.layout.StackPane;
 import com.groovegarden.model.GridModel;
+import com.groovegarden.model.GridSnapshot;
 import com.groovegarden.config.AppConfig;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -97,36 +98,40 @@ public class GridUpdateManager {
     }
     
     private void performFullUpdate() {
+        // Read one published snapshot so the whole pass sees a consistent grid
+        GridSnapshot snapshot = gridModel.getSnapshot();
         Platform.runLater(() -> {
             for (int row = 0; row < cells.length; row++) {
                 for (int col = 0; col < cells[0].length; col++) {
-                    updateCellDisplay(row, col);
+                    updateCellDisplay(snapshot, row, col);
                 }
             }
         });
     }
     
     private void performCellUpdate(int row, int col) {
-        Platform.runLater(() -> updateCellDisplay(row, col));
+        GridSnapshot snapshot = gridModel.getSnapshot();
+        Platform.runLater(() -> updateCellDisplay(snapshot, row, col));
     }
     
     private void performBatchUpdate() {
         // Process multiple updates in batch
         final int maxBatchSize = 16; // Process up to 16 cells at once
+        GridSnapshot snapshot = gridModel.getSnapshot();
         
         Platform.runLater(() -> {
             int batchSize = 0;
             while (!updateQueue.isEmpty() && batchSize < maxBatchSize) {
                 UpdateRequest request = updateQueue.poll();
                 if (request != null && request.hasSpecificCell) {
-                    updateCellDisplay(request.row, request.col);
+                    updateCellDisplay(snapshot, request.row, request.col);
                     batchSize++;
                 }
             }
         });
     }
     
-    private void updateCellDisplay(int row, int col) {
+    private void updateCellDisplay(GridSnapshot snapshot, int row, int col) {
         if (row < 0 || row >= cells.length || col < 0 || col >= cells[0].length) {
             return;
         }
@@ -135,8 +140,8 @@ public class GridUpdateManager {
         if (cell == null) return;
         
         // Update cell appearance based on grid model state
-        boolean isActive = gridModel.isCellActive(row, col);
-        int layer = gridModel.getCellLayer(row, col);
+        boolean isActive = snapshot.isCellActive(row, col);
+        int layer = snapshot.getCellLayer(row, col);
         
         // Apply visual updates
         updateCellVisuals(cell, isActive, layer);
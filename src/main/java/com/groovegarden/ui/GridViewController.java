@@ -20,23 +20,26 @@ public class GridViewController implements Initializable {
     
     private GridModel gridModel;
     private StackPane[][] cells;
-    private static final int GRID_SIZE = 8;
+    private int gridSize;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        initializeGrid();
+        // Cells are built once the model, and with it the grid size, is known
     }
     
     public void setGridModel(GridModel gridModel) {
         this.gridModel = gridModel;
+        initializeGrid();
         updateGridDisplay();
     }
     
     private void initializeGrid() {
-        cells = new StackPane[GRID_SIZE][GRID_SIZE];
+        gridSize = gridModel.getGridSize();
+        gridPane.getChildren().clear();
+        cells = new StackPane[gridSize][gridSize];
         
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
                 StackPane cell = createCell(row, col);
                 cells[row][col] = cell;
                 gridPane.add(cell, col, row);
@@ -64,12 +67,15 @@ public class GridViewController implements Initializable {
     }
     
     private void handleCellClick(MouseEvent event, int row, int col) {
-        if (event.getButton() == MouseButton.PRIMARY) {
-            // Left click: toggle active state
-            gridModel.toggleCell(row, col);
-        } else if (event.getButton() == MouseButton.SECONDARY) {
-            // Right click: cycle through layers
-            gridModel.cycleCellLayer(row, col);
+        // The sequencer thread steps the same model under its lock
+        synchronized (gridModel) {
+            if (event.getButton() == MouseButton.PRIMARY) {
+                // Left click: toggle active state
+                gridModel.toggleCell(row, col);
+            } else if (event.getButton() == MouseButton.SECONDARY) {
+                // Right click: cycle through layers
+                gridModel.cycleCellLayer(row, col);
+            }
         }
         
         updateGridDisplay();
@@ -78,9 +84,11 @@ public class GridViewController implements Initializable {
     public void updateGridDisplay() {
         if (gridModel == null) return;
         
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                updateCellDisplay(row, col);
+        synchronized (gridModel) {
+            for (int row = 0; row < gridSize; row++) {
+                for (int col = 0; col < gridSize; col++) {
+                    updateCellDisplay(row, col);
+                }
             }
         }
     }
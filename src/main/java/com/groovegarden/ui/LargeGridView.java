@@ -0,0 +1,126 @@
+package com.groovegarden.ui;
+
+import com.groovegarden.model.BitBoard;
+import com.groovegarden.model.DirtyCells;
+import com.groovegarden.model.GridModel;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
+
+import java.util.Arrays;
+
+/**
+ * Image-backed grid view for gardens too large for one node per cell.
+ *
+ * Each image pixel covers one cell, or a block of cells when the grid is
+ * larger than the view; a block takes the colour of any active cell in it.
+ * Redraws only visit non-empty words of the packed activity grid, and as a
+ * change listener the view repaints just the pixels covering changed cells.
+ */
+public class LargeGridView extends ImageView implements DirtyCells.Listener {
+    private static final int INACTIVE = 0xFFFFFFFF;
+    private static final int[] LAYER_COLORS = {
+        0xFF007BFF, // Rhythm layer
+        0xFF28A745, // Melody layer
+        0xFFDC3545  // Both layers
+    };
+
+    /**
+     * Receives clicks already mapped to grid coordinates
+     */
+    public interface CellClickHandler {
+        void onCellClick(MouseEvent event, int row, int col);
+    }
+
+    private final GridModel gridModel;
+    private final int gridSize;
+    private final int pixels;
+    private final int[] pixelBuffer;
+    private final WritableImage image;
+
+    public LargeGridView(GridModel gridModel, int viewSize, CellClickHandler clickHandler) {
+        this.gridModel = gridModel;
+        this.gridSize = gridModel.getGridSize();
+        this.pixels = Math.max(1, Math.min(gridSize, viewSize));
+        this.pixelBuffer = new int[pixels * pixels];
+        this.image = new WritableImage(pixels, pixels);
+
+        setImage(image);
+        setFitWidth(viewSize);
+        setFitHeight(viewSize);
+        setSmooth(false);
+        setPreserveRatio(true);
+
+        setOnMouseClicked(event -> {
+            int row = (int) (event.getY() / getFitHeight() * gridSize);
+            int col = (int) (event.getX() / getFitWidth() * gridSize);
+            if (row >= 0 && row < gridSize && col >= 0 && col < gridSize) {
+                clickHandler.onCellClick(event, row, col);
+            }
+        });
+    }
+
+    /**
+     * Repaint the whole image from the model
+     */
+    public void redraw() {
+        Arrays.fill(pixelBuffer, INACTIVE);
+
+        BitBoard board = gridModel.getActiveBoard();
+        long[] words = board.getWords();
+        int stride = board.getStride();
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                int bit = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                int row = bit / stride;
+                int col = bit % stride;
+                int px = (int) ((long) col * pixels / gridSize);
+                int py = (int) ((long) row * pixels / gridSize);
+                pixelBuffer[py * pixels + px] = LAYER_COLORS[gridModel.getCellLayer(row, col)];
+            }
+        }
+
+        image.getPixelWriter().setPixels(0, 0, pixels, pixels,
+                PixelFormat.getIntArgbInstance(), pixelBuffer, 0, pixels);
+    }
+
+    /**
+     * Repaint the pixels covering the changed cells
+     */
+    @Override
+    public void cellsChanged(int[] rows, int[] cols, int count) {
+        BitBoard board = gridModel.getActiveBoard();
+        PixelWriter writer = image.getPixelWriter();
+        for (int i = 0; i < count; i++) {
+            int px = (int) ((long) cols[i] * pixels / gridSize);
+            int py = (int) ((long) rows[i] * pixels / gridSize);
+            int argb = pixelColor(board, px, py);
+            if (pixelBuffer[py * pixels + px] != argb) {
+                pixelBuffer[py * pixels + px] = argb;
+                writer.setArgb(px, py, argb);
+            }
+        }
+    }
+
+    /**
+     * Colour of one pixel, matching redraw(): the last active cell of its block in row-major order wins
+     */
+    private int pixelColor(BitBoard board, int px, int py) {
+        int rowFrom = (int) (((long) py * gridSize + pixels - 1) / pixels);
+        int rowTo = (int) (((long) (py + 1) * gridSize + pixels - 1) / pixels);
+        int colFrom = (int) (((long) px * gridSize + pixels - 1) / pixels);
+        int colTo = (int) (((long) (px + 1) * gridSize + pixels - 1) / pixels);
+        for (int row = rowTo - 1; row >= rowFrom; row--) {
+            for (int col = colTo - 1; col >= colFrom; col--) {
+                if (board.get(row, col)) {
+                    return LAYER_COLORS[gridModel.getCellLayer(row, col)];
+                }
+            }
+        }
+        return INACTIVE;
+    }
+}
@@ -1,12 +1,16 @@
 package com.groovegarden.ui;
 
+import com.groovegarden.config.AppConfig;
 import com.groovegarden.music.MidiEngine;
 import com.groovegarden.music.MidiExporter;
+import com.groovegarden.music.PerformanceRecorder;
+import com.groovegarden.music.Scale;
+import com.groovegarden.music.SessionRandom;
+import com.groovegarden.music.StepSequencer;
 import com.groovegarden.model.GridModel;
+import com.groovegarden.model.GridSnapshot;
 import com.groovegarden.score.ScoreEngine;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
@@ -17,13 +21,15 @@ import javafx.scene.shape.Rectangle;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.stage.FileChooser;
-import javafx.util.Duration;
 
 import java.io.File;
 import java.net.URL;
 import java.util.ResourceBundle;
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
 
 public class MainController implements Initializable {
+    private static final Logger LOGGER = Logger.getLogger(MainController.class.getName());
     
     @FXML private ComboBox<String> scaleComboBox;
     @FXML private Spinner<Integer> tempoSpinner;
@@ -31,6 +37,11 @@ public class MainController implements Initializable {
     @FXML private Button stopButton;
     @FXML private Button exportButton;
     @FXML private Button resetButton;
+    @FXML private Button undoButton;
+    @FXML private Button redoButton;
+    @FXML private Button cancelExportButton;
+    @FXML private ProgressBar exportProgress;
+    @FXML private Label exportStatus;
     
     @FXML private ProgressBar diversityBar;
     @FXML private ProgressBar flowBar;
@@ -44,17 +55,24 @@ public class MainController implements Initializable {
     private GridModel gridModel;
     private MidiEngine midiEngine;
     private ScoreEngine scoreEngine;
-    private Timeline timeline;
+    private ExportManager exportManager;
+    private SplittableRandom scoreRandom;
+    // Steps run on the sequencer thread; the model and engine are guarded by the model's monitor
+    private StepSequencer sequencer;
+    private AnimationTimer displayTimer;
+    private long displayedPosition = -1;
     private boolean isPlaying = false;
     
     private StackPane[][] cells;
-    private static final int GRID_SIZE = 8;
+    private LargeGridView largeGridView;
+    private int gridSize;
+    private double cellSize;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         initializeComponents();
         setupEventHandlers();
-        setupTimeline();
+        setupSequencer();
         initializeGrid();
     }
     
@@ -72,8 +90,10 @@ public class MainController implements Initializable {
         // Initialize models
         gridModel = new GridModel();
         midiEngine = new MidiEngine();
+        scoreRandom = midiEngine.getSession().stream(SessionRandom.Voice.SCORE);
         scoreEngine = new ScoreEngine(diversityBar, flowBar, harmonyBar, 
                                     diversityLabel, flowLabel, harmonyLabel);
+        exportManager = new ExportManager(exportProgress, exportStatus, cancelExportButton);
     }
     
     private void setupEventHandlers() {
@@ -81,29 +101,59 @@ public class MainController implements Initializable {
         tempoSpinner.valueProperty().addListener((obs, oldVal, newVal) -> handleTempoChange());
     }
     
-    private void setupTimeline() {
-        timeline = new Timeline(new KeyFrame(Duration.millis(125), e -> updateMusic()));
-        timeline.setCycleCount(Animation.INDEFINITE);
+    private void setupSequencer() {
+        sequencer = new StepSequencer(tempoSpinner.getValue(), (position, dueNanos) -> updateMusic(position, dueNanos));
+        
+        // The UI only observes the sequencer, repainting once per frame at most
+        displayTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                long position = sequencer.getPosition();
+                if (position != displayedPosition) {
+                    displayedPosition = position;
+                    updateGridDisplay();
+                }
+            }
+        };
     }
     
     private void initializeGrid() {
-        cells = new StackPane[GRID_SIZE][GRID_SIZE];
+        gridSize = gridModel.getGridSize();
+        int viewSize = AppConfig.getInt("grid.view.size");
+        
+        // Past the node limit one node per cell gets too heavy for the scene graph
+        if (gridSize > AppConfig.getInt("grid.node.limit")) {
+            largeGridView = new LargeGridView(gridModel, viewSize, this::handleCellClick);
+            gridPane.add(largeGridView, 0, 0);
+            synchronized (gridModel) {
+                largeGridView.redraw();
+                gridModel.addChangeListener(largeGridView);
+            }
+            return;
+        }
+        
+        int gap = AppConfig.getInt("grid.gap");
+        cellSize = Math.max(4, Math.min(AppConfig.getInt("grid.cell.size"), viewSize / gridSize - gap));
+        cells = new StackPane[gridSize][gridSize];
         
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
                 StackPane cell = createCell(row, col);
                 cells[row][col] = cell;
                 gridPane.add(cell, col, row);
             }
         }
+        synchronized (gridModel) {
+            gridModel.addChangeListener(this::repaintCells);
+        }
     }
     
     private StackPane createCell(int row, int col) {
         StackPane cell = new StackPane();
-        cell.setPrefSize(50, 50);
+        cell.setPrefSize(cellSize, cellSize);
         cell.setStyle("-fx-background-color: #ffffff; -fx-border-color: #e9ecef; -fx-border-width: 1; -fx-background-radius: 4; -fx-border-radius: 4;");
         
-        Rectangle indicator = new Rectangle(40, 40);
+        Rectangle indicator = new Rectangle(cellSize * 0.8, cellSize * 0.8);
         indicator.setFill(Color.WHITE);
         indicator.setStroke(Color.TRANSPARENT);
         indicator.setArcWidth(6);
@@ -117,13 +167,13 @@ public class MainController implements Initializable {
         
         // Add hover effect
         cell.setOnMouseEntered(e -> {
-            if (!gridModel.isCellActive(finalRow, finalCol)) {
+            if (!gridModel.getSnapshot().isCellActive(finalRow, finalCol)) {
                 cell.setStyle("-fx-background-color: #f8f9fa; -fx-border-color: #007bff; -fx-border-width: 2; -fx-background-radius: 4; -fx-border-radius: 4;");
             }
         });
         
         cell.setOnMouseExited(e -> {
-            if (!gridModel.isCellActive(finalRow, finalCol)) {
+            if (!gridModel.getSnapshot().isCellActive(finalRow, finalCol)) {
                 cell.setStyle("-fx-background-color: #ffffff; -fx-border-color: #e9ecef; -fx-border-width: 1; -fx-background-radius: 4; -fx-border-radius: 4;");
             }
         });
@@ -134,24 +184,31 @@ public class MainController implements Initializable {
     private void handleCellClick(MouseEvent event, int row, int col) {
         System.out.println("Cell clicked: row=" + row + ", col=" + col + ", button=" + event.getButton());
         
-        if (event.getButton() == MouseButton.PRIMARY) {
-            // Left click: toggle active state
-            System.out.println("Left click - toggling cell");
-            gridModel.toggleCell(row, col);
-        } else if (event.getButton() == MouseButton.SECONDARY) {
-            // Right click: cycle through layers
-            System.out.println("Right click - cycling layer");
-            gridModel.cycleCellLayer(row, col);
+        synchronized (gridModel) {
+            if (event.getButton() == MouseButton.PRIMARY) {
+                // Left click: toggle active state
+                System.out.println("Left click - toggling cell");
+                gridModel.toggleCell(row, col);
+            } else if (event.getButton() == MouseButton.SECONDARY) {
+                // Right click: cycle through layers
+                System.out.println("Right click - cycling layer");
+                gridModel.cycleCellLayer(row, col);
+            }
         }
         
         updateGridDisplay();
     }
     
     private void updateGridDisplay() {
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                updateCellDisplay(row, col);
-            }
+        // Only cells changed since the last repaint reach the listeners, which read the model under its lock
+        synchronized (gridModel) {
+            gridModel.flushChanges();
+        }
+    }
+    
+    private void repaintCells(int[] rows, int[] cols, int count) {
+        for (int i = 0; i < count; i++) {
+            updateCellDisplay(rows[i], cols[i]);
         }
     }
     
@@ -192,14 +249,14 @@ public class MainController implements Initializable {
             startButton.setDisable(true);
             stopButton.setDisable(false);
             
-            // Calculate interval based on tempo (16th note duration)
-            double intervalMs = 60000.0 / (tempoSpinner.getValue() * 4);
-            timeline.stop();
-            timeline = new Timeline(new KeyFrame(Duration.millis(intervalMs), e -> updateMusic()));
-            timeline.setCycleCount(Animation.INDEFINITE);
-            timeline.play();
-            
-            midiEngine.start();
+            synchronized (gridModel) {
+                midiEngine.setTempo(tempoSpinner.getValue());
+                midiEngine.start();
+            }
+            sequencer.setTempo(tempoSpinner.getValue());
+            sequencer.setLookaheadMillis(midiEngine.getLookaheadMillis());
+            sequencer.start();
+            displayTimer.start();
         }
     }
     
@@ -210,8 +267,18 @@ public class MainController implements Initializable {
             startButton.setDisable(false);
             stopButton.setDisable(true);
             
-            timeline.stop();
-            midiEngine.stop();
+            sequencer.stop();
+            displayTimer.stop();
+            synchronized (gridModel) {
+                midiEngine.stop();
+            }
+            updateGridDisplay();
+            synchronized (gridModel) {
+                LOGGER.fine(() -> "History: " + gridModel.getHistory());
+            }
+            LOGGER.fine(() -> "Late events: " + midiEngine.getLateEventCount() + " of "
+                    + midiEngine.getScheduledEventCount() + ", worst " + midiEngine.getMaxLateMicros() + " us");
+            LOGGER.fine(() -> "Voices: " + midiEngine.getVoices());
         }
     }
     
@@ -226,50 +293,105 @@ public class MainController implements Initializable {
         
         File file = fileChooser.showSaveDialog(startButton.getScene().getWindow());
         if (file != null) {
-            MidiExporter exporter = new MidiExporter();
-            exporter.export(gridModel, midiEngine, file.getAbsolutePath());
+            // Each export replays the session's rhythm stream from its start
+            MidiExporter exporter = new MidiExporter(
+                    midiEngine.getSession().stream(SessionRandom.Voice.RHYTHM));
+            // The export works on what is captured here and writes the file in the background
+            PerformanceRecorder recorder = midiEngine.getRecorder();
+            if (recorder.getRecordedCount() > 0) {
+                // What was played is read without stopping play; with nothing played yet the grid is rendered
+                long[] times = new long[recorder.getCapacity()];
+                int[] events = new int[recorder.getCapacity()];
+                int count = recorder.copy(times, events);
+                int tempo = midiEngine.getTempo();
+                exportManager.submit(file, progress ->
+                        exporter.exportPerformance(times, events, count, tempo, file.toPath(), progress));
+            } else {
+                GridSnapshot snapshot;
+                Scale scale;
+                int tempo;
+                synchronized (gridModel) {
+                    snapshot = gridModel.getSnapshot();
+                    scale = midiEngine.getCurrentScale();
+                    tempo = midiEngine.getTempo();
+                }
+                int bars = Math.max(1, AppConfig.getInt("midi.export.bars"));
+                exportManager.submit(file, progress ->
+                        exporter.export(snapshot, scale, tempo, bars, file.toPath(), progress));
+            }
         }
     }
     
+    @FXML
+    private void handleCancelExport() {
+        exportManager.cancelAll();
+    }
+    
     @FXML
     private void handleReset() {
         // Clear the grid model
-        gridModel.clear();
+        synchronized (gridModel) {
+            gridModel.clear();
+        }
         // Update the display
         updateGridDisplay();
         System.out.println("Grid reset - all cells cleared");
     }
     
+    @FXML
+    private void handleUndo() {
+        // Restores the previous recorded state, edit or generation
+        boolean restored;
+        synchronized (gridModel) {
+            restored = gridModel.undo();
+        }
+        if (restored) {
+            updateGridDisplay();
+        }
+    }
+    
+    @FXML
+    private void handleRedo() {
+        boolean restored;
+        synchronized (gridModel) {
+            restored = gridModel.redo();
+        }
+        if (restored) {
+            updateGridDisplay();
+        }
+    }
+    
     private void handleScaleChange() {
         String selectedScale = scaleComboBox.getValue();
-        midiEngine.setScale(selectedScale);
-        gridModel.setScale(selectedScale);
+        synchronized (gridModel) {
+            midiEngine.setScale(selectedScale);
+            gridModel.setScale(selectedScale);
+        }
     }
     
     private void handleTempoChange() {
-        if (isPlaying) {
-            double intervalMs = 60000.0 / (tempoSpinner.getValue() * 4);
-            timeline.stop();
-            timeline = new Timeline(new KeyFrame(Duration.millis(intervalMs), e -> updateMusic()));
-            timeline.setCycleCount(Animation.INDEFINITE);
-            timeline.play();
+        // Picked up at the next step boundary, without restarting the clock
+        sequencer.setTempo(tempoSpinner.getValue());
+        synchronized (gridModel) {
+            midiEngine.setTempo(tempoSpinner.getValue());
         }
     }
     
-    private void updateMusic() {
-        // Update grid state
-        gridModel.update();
-        
-        // Generate music
-        midiEngine.tick(gridModel);
+    private void updateMusic(long position, long dueNanos) {
+        // Runs on the sequencer thread; the display timer repaints from what it leaves behind
+        synchronized (gridModel) {
+            // Update grid state
+            gridModel.update();
+            
+            // Generate music
+            midiEngine.tick(gridModel, dueNanos, position);
+            gridModel.publishSnapshot();
+        }
         
         // Update scoring (now handled automatically by ScoreEngine)
         // Add some sample events for demonstration
-        scoreEngine.addPitchEvent(Math.random() * 127);
-        scoreEngine.addRhythmEvent(Math.random());
-        
-        // Update UI
-        updateGridDisplay();
+        scoreEngine.addPitchEvent(scoreRandom.nextDouble() * 127);
+        scoreEngine.addRhythmEvent(scoreRandom.nextDouble());
     }
     
     private void updateScoreDisplay() {
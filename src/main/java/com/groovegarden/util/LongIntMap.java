@@ -0,0 +1,116 @@
+package com.groovegarden.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to int counts, without boxing.
+ *
+ * Keys are probed linearly in parallel arrays; -1 marks a free slot and so
+ * cannot be used as a key.
+ */
+public final class LongIntMap {
+    public static final long FREE = -1L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * 0.6);
+    }
+
+    private static int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Add to the value of the key, starting from 0 if absent
+     */
+    public void add(long key, int delta) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("-1 cannot be used as a key");
+        }
+        int i = slot(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size > resizeAt) {
+            grow();
+        }
+    }
+
+    /**
+     * @return the value of the key, or 0 if absent
+     */
+    public int get(long key) {
+        int i = slot(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == FREE) continue;
+            int j = slot(key) & mask;
+            while (keys[j] != FREE) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = key;
+            values[j] = oldValues[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Slots in the backing arrays, for iterating with {@link #keyAt} and {@link #valueAt}
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Key in this slot, or {@link #FREE}
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Bytes held by the backing arrays
+     */
+    public long getMemoryBytes() {
+        return keys.length * 12L;
+    }
+}
@@ -0,0 +1,124 @@
+package com.groovegarden.algo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextTrieTest {
+    private static final int ALL = 0xFFFF;
+
+    /**
+     * Count every n-gram of the sequence up to the order, the way the corpus trainer does
+     */
+    static ContextTrie train(int order, int symbols, int... sequence) {
+        Map<Long, Integer> counts = new TreeMap<>();
+        for (int i = 0; i < sequence.length; i++) {
+            long context = 0;
+            for (int length = 0; length <= order && length <= i; length++) {
+                if (length > 0) {
+                    context = ContextTrie.withContextSymbol(context, length - 1, sequence[i - length]);
+                }
+                counts.merge(ContextTrie.ngramKey(length, context, sequence[i]), 1, Integer::sum);
+            }
+        }
+        long[] keys = new long[counts.size()];
+        int[] values = new int[counts.size()];
+        int size = 0;
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+            keys[size] = entry.getKey();
+            values[size++] = entry.getValue();
+        }
+        return ContextTrie.build(order, symbols, keys, values, size);
+    }
+
+    @Test
+    void longestContextDecidesTheNextSymbol() {
+        // After 0 comes 1 or 2, but after 3 0 it is always 2 and after 4 0 always 1
+        ContextTrie trie = train(2, 5, 3, 0, 2, 4, 0, 1, 3, 0, 2, 4, 0, 1, 3, 0, 2);
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2, trie.sample(new int[] {3, 0}, 2, ALL, random));
+            assertEquals(1, trie.sample(new int[] {4, 0}, 2, ALL, random));
+        }
+    }
+
+    @Test
+    void samplesFollowTheCounts() {
+        // After 0: three times 1, once 2
+        ContextTrie trie = train(1, 3, 0, 1, 0, 1, 0, 1, 0, 2);
+        SplittableRandom random = new SplittableRandom(7);
+        int ones = 0;
+        int samples = 8000;
+        for (int i = 0; i < samples; i++) {
+            int next = trie.sample(new int[] {0}, 1, ALL, random);
+            assertTrue(next == 1 || next == 2);
+            if (next == 1) ones++;
+        }
+        assertEquals(0.75, ones / (double) samples, 0.03);
+    }
+
+    @Test
+    void unknownContextsBackOffToShorterOnes() {
+        ContextTrie trie = train(3, 6, 0, 1, 2, 0, 1, 2);
+        SplittableRandom random = new SplittableRandom(3);
+        // 5 never occurred, so only 1 of the context 5 1 is known, and 2 always follows it
+        for (int i = 0; i < 50; i++) {
+            assertEquals(2, trie.sample(new int[] {5, 1}, 2, ALL, random));
+        }
+        // Nothing known at all: the empty context's symbols
+        for (int i = 0; i < 50; i++) {
+            int next = trie.sample(new int[] {5}, 1, ALL, random);
+            assertTrue(next >= 0 && next <= 2);
+        }
+    }
+
+    @Test
+    void forbiddenContinuationsBackOffUntilOneIsAllowed() {
+        // After 0 1 only 2 follows, but 3 also follows 1 on its own
+        ContextTrie trie = train(2, 4, 0, 1, 2, 1, 3, 0, 1, 2);
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(2, trie.sample(new int[] {0, 1}, 2, ALL, random));
+            assertEquals(3, trie.sample(new int[] {0, 1}, 2, 1 << 3, random));
+            assertEquals(0, trie.sample(new int[] {0, 1}, 2, 1 << 0, random));
+        }
+        assertEquals(-1, trie.sample(new int[] {0, 1}, 2, 0, random));
+    }
+
+    @Test
+    void emptyTrieHasNothingToSample() {
+        ContextTrie trie = ContextTrie.build(2, 4, new long[0], new int[0], 0);
+        assertEquals(-1, trie.sample(new int[] {1}, 1, ALL, new SplittableRandom(0)));
+    }
+
+    @Test
+    void buildRejectsContextsWithoutTheirSuffixes() {
+        long withoutEmpty = ContextTrie.ngramKey(1, ContextTrie.withContextSymbol(0, 0, 1), 2);
+        assertThrows(IllegalArgumentException.class,
+                () -> ContextTrie.build(1, 4, new long[] {withoutEmpty}, new int[] {1}, 1));
+
+        long empty = ContextTrie.ngramKey(0, 0, 1);
+        long context = ContextTrie.withContextSymbol(ContextTrie.withContextSymbol(0, 0, 1), 1, 3);
+        long withoutSuffix = ContextTrie.ngramKey(2, context, 2);
+        assertThrows(IllegalArgumentException.class,
+                () -> ContextTrie.build(2, 4, new long[] {empty, withoutSuffix}, new int[] {1, 1}, 2));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ContextTrie.build(ContextTrie.MAX_ORDER + 1, 4, new long[0], new int[0], 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> ContextTrie.build(2, ContextTrie.MAX_SYMBOLS + 1, new long[0], new int[0], 0));
+    }
+
+    @Test
+    void nodesAreOnePerDistinctContext() {
+        ContextTrie trie = train(2, 3, 0, 1, 2, 0, 1, 2);
+        // Contexts: empty; 0, 1, 2; 0 1, 1 2, 2 0
+        assertEquals(7, trie.getNodeCount());
+        assertEquals(2, trie.getOrder());
+        assertEquals(3, trie.getSymbolCount());
+    }
+}
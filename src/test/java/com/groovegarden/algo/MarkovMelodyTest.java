@@ -0,0 +1,44 @@
+package com.groovegarden.algo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarkovMelodyTest {
+    private static final List<Integer> MINOR = List.of(0, 2, 3, 5, 7, 8, 10);
+
+    @Test
+    void corpusPitchClassesAreTransposedToTheScaleRoot() {
+        // A B C D E in absolute pitch classes, over and over
+        ContextTrie corpus = ContextTrieTest.train(1, 12, 9, 11, 0, 2, 4, 9, 11, 0, 2, 4, 9, 11, 0, 2, 4);
+        MarkovMelody melody = new MarkovMelody(1, new SplittableRandom(4));
+        melody.setRootNote(57);
+        melody.setScaleDegrees(MINOR);
+        melody.setCorpusModel(corpus);
+
+        // Degrees count semitones up from A: after A comes B, after B comes C
+        for (int i = 0; i < 50; i++) {
+            assertEquals(2, melody.generateNextNote(new int[] {0}, 1));
+            assertEquals(3, melody.generateNextNote(new int[] {2}, 1));
+            assertEquals(7, melody.generateNextNote(List.of(0, 5)));
+        }
+    }
+
+    @Test
+    void notesOutsideTheTransposedScaleAreNotReturned() {
+        // C C# D: the sharp is in no minor scale on A
+        ContextTrie corpus = ContextTrieTest.train(1, 12, 0, 1, 0, 1, 0, 1, 0, 2);
+        MarkovMelody melody = new MarkovMelody(1, new SplittableRandom(8));
+        melody.setRootNote(57);
+        melody.setScaleDegrees(MINOR);
+        melody.setCorpusModel(corpus);
+
+        for (int i = 0; i < 100; i++) {
+            // After C, the corpus mostly plays C#, which backs off to notes allowed in A minor
+            assertTrue(MINOR.contains(melody.generateNextNote(new int[] {3}, 1)));
+        }
+    }
+}
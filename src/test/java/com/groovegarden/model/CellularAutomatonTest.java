@@ -0,0 +1,157 @@
+package com.groovegarden.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CellularAutomatonTest {
+    private static final int GENERATIONS = 40;
+
+    @Test
+    void singleWordBoardsMatchNaiveLife() {
+        for (int size = 1; size <= 8; size++) {
+            for (long seed = 0; seed < 8; seed++) {
+                assertMatchesNaive(size, soup(size, seed, 0.4), new CellularAutomaton(size, ForkJoinPool.commonPool(), 0));
+            }
+        }
+    }
+
+    @Test
+    void tiledBoardsMatchNaiveLife() {
+        // Word and tile boundaries inside the board, and a last word that is only partly used
+        for (int size : new int[] {9, 63, 64, 65, 130, 150}) {
+            assertMatchesNaive(size, soup(size, size, 0.35), new CellularAutomaton(size, ForkJoinPool.commonPool(), 0));
+        }
+    }
+
+    @Test
+    void bandedBoardsMatchNaiveLife() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int size : new int[] {200, 300}) {
+                CellularAutomaton automaton = new CellularAutomaton(size, pool, 1);
+                assertTrue(automaton.isParallel());
+                assertMatchesNaive(size, soup(size, size + 1, 0.35), automaton);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void edgeAndCornerCellsSeeDeadNeighboursOutsideTheBoard() {
+        for (int size : new int[] {4, 8, 70}) {
+            boolean[][] cells = new boolean[size][size];
+            int last = size - 1;
+            // Corner blocks stay still, edge blinkers oscillate against the border
+            cells[0][0] = cells[0][1] = cells[1][0] = cells[1][1] = true;
+            cells[last][last] = cells[last][last - 1] = cells[last - 1][last] = true;
+            cells[0][size / 2 - 1] = cells[0][size / 2] = cells[0][size / 2 + 1] = true;
+            cells[size / 2][last] = cells[size / 2 + 1][last] = true;
+            assertMatchesNaive(size, cells, new CellularAutomaton(size, ForkJoinPool.commonPool(), 0));
+        }
+    }
+
+    @Test
+    void stillBoardsSkipEveryTile() {
+        CellularAutomaton automaton = new CellularAutomaton(256, ForkJoinPool.commonPool(), 0);
+        automaton.setCell(10, 10, true);
+        automaton.setCell(10, 11, true);
+        automaton.setCell(11, 10, true);
+        automaton.setCell(11, 11, true);
+        // The edited tile and the three tiles bordering it in the corner
+        automaton.step();
+        assertEquals(4, automaton.getActiveTileCount());
+        automaton.step();
+        assertEquals(0, automaton.getActiveTileCount());
+        assertTrue(automaton.isStill());
+        assertEquals(4, automaton.getPopulation());
+    }
+
+    @Test
+    void populationFollowsTheBoard() {
+        CellularAutomaton automaton = new CellularAutomaton(100, ForkJoinPool.commonPool(), 0);
+        automaton.update(soup(100, 3, 0.3));
+        for (int gen = 0; gen < GENERATIONS; gen++) {
+            assertEquals(automaton.getBoard().popCount(), automaton.getPopulation());
+            automaton.step();
+        }
+    }
+
+    @Test
+    void persistentCellsNeverDie() {
+        CellularAutomaton automaton = new CellularAutomaton(8, ForkJoinPool.commonPool(), 0);
+        automaton.setPersistent(true);
+        automaton.setCell(3, 3, true);
+        automaton.step();
+        assertTrue(automaton.getBoard().get(3, 3));
+        assertEquals(1, automaton.getPopulation());
+    }
+
+    private static void assertMatchesNaive(int size, boolean[][] seed, CellularAutomaton automaton) {
+        boolean[][] expected = copy(seed);
+        automaton.update(seed);
+        expected = naiveStep(expected);
+        for (int gen = 1; gen <= GENERATIONS; gen++) {
+            assertArrayEquals(expected, automaton.getCurrentState(), size + "x" + size + " board, generation " + gen);
+            assertEquals(count(expected), automaton.getPopulation(), size + "x" + size + " population");
+            automaton.step();
+            expected = naiveStep(expected);
+        }
+    }
+
+    /**
+     * Conway's rule on a 2D array, cells outside the board dead
+     */
+    static boolean[][] naiveStep(boolean[][] cells) {
+        int size = cells.length;
+        boolean[][] next = new boolean[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int neighbours = 0;
+                for (int dr = -1; dr <= 1; dr++) {
+                    for (int dc = -1; dc <= 1; dc++) {
+                        int r = row + dr, c = col + dc;
+                        if ((dr != 0 || dc != 0) && r >= 0 && r < size && c >= 0 && c < size && cells[r][c]) {
+                            neighbours++;
+                        }
+                    }
+                }
+                next[row][col] = neighbours == 3 || (neighbours == 2 && cells[row][col]);
+            }
+        }
+        return next;
+    }
+
+    static boolean[][] soup(int size, long seed, double density) {
+        Random random = new Random(seed);
+        boolean[][] cells = new boolean[size][size];
+        for (boolean[] row : cells) {
+            for (int col = 0; col < size; col++) {
+                row[col] = random.nextDouble() < density;
+            }
+        }
+        return cells;
+    }
+
+    private static boolean[][] copy(boolean[][] cells) {
+        boolean[][] copy = new boolean[cells.length][];
+        for (int row = 0; row < cells.length; row++) {
+            copy[row] = cells[row].clone();
+        }
+        return copy;
+    }
+
+    private static long count(boolean[][] cells) {
+        long count = 0;
+        for (boolean[] row : cells) {
+            for (boolean cell : row) {
+                if (cell) count++;
+            }
+        }
+        return count;
+    }
+}
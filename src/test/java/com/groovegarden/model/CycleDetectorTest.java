@@ -0,0 +1,116 @@
+package com.groovegarden.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CycleDetectorTest {
+
+    private static BitBoard board(int seed) {
+        BitBoard board = new BitBoard(16);
+        board.load(CellularAutomatonTest.soup(16, seed, 0.4));
+        return board;
+    }
+
+    @Test
+    void repeatedStateGivesThePeriod() {
+        CycleDetector detector = new CycleDetector(8, 0);
+        assertEquals(0, detector.record(1));
+        assertEquals(0, detector.record(2));
+        assertEquals(0, detector.record(3));
+        assertEquals(2, detector.record(2));
+        assertTrue(detector.isCyclic());
+        detector.reset();
+        assertEquals(0, detector.record(2));
+    }
+
+    @Test
+    void leastRecentlyUsedTransitionIsEvicted() {
+        CycleDetector detector = new CycleDetector(8, 2);
+        BitBoard a = board(1);
+        BitBoard b = board(2);
+        BitBoard c = board(3);
+        detector.remember(10, a, 20, b);
+        detector.remember(20, b, 30, c);
+        assertNotNull(detector.recall(10, a));
+        detector.remember(30, c, 10, a);
+
+        assertEquals(2, detector.getCacheSize());
+        assertNull(detector.recall(20, b), "the entry used longest ago makes room");
+        CycleDetector.Transition transition = detector.recall(10, a);
+        assertEquals(20, transition.getHash());
+        assertEquals(b, transition.getBoard());
+        assertEquals(a, detector.recall(30, c).getBoard());
+    }
+
+    @Test
+    void collidingHashIsAMissNotAWrongSuccessor() {
+        CycleDetector detector = new CycleDetector(8, 4);
+        BitBoard state = board(1);
+        BitBoard other = board(2);
+        detector.remember(42, state, 7, board(3));
+
+        assertNull(detector.recall(42, other));
+        assertEquals(1, detector.getMisses());
+
+        // The later state takes the entry over
+        detector.remember(42, other, 8, board(4));
+        assertEquals(8, detector.recall(42, other).getHash());
+        assertNull(detector.recall(42, state));
+        assertEquals(1, detector.getCacheSize());
+    }
+
+    @Test
+    void clearedCacheMissesAndFillsAgain() {
+        CycleDetector detector = new CycleDetector(8, 2);
+        BitBoard a = board(1);
+        BitBoard b = board(2);
+        detector.remember(1, a, 2, b);
+        detector.remember(2, b, 1, a);
+        detector.clearCache();
+
+        assertEquals(0, detector.getCacheSize());
+        assertNull(detector.recall(1, a));
+        assertNull(detector.recall(2, b));
+        detector.remember(2, b, 1, a);
+        assertEquals(a, detector.recall(2, b).getBoard());
+    }
+
+    @Test
+    void agreesWithAnAccessOrderedMap() {
+        int capacity = 16;
+        CycleDetector detector = new CycleDetector(8, capacity);
+        Map<Long, Long> reference = new LinkedHashMap<>(16, 0.75f, true);
+        BitBoard[] boards = new BitBoard[40];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = board(i);
+        }
+
+        SplittableRandom random = new SplittableRandom(3);
+        for (int op = 0; op < 20000; op++) {
+            int state = random.nextInt(boards.length);
+            // Keys a multiple of the table size apart share a home slot, so runs and removals get exercised
+            long key = state * 64L;
+            CycleDetector.Transition transition = detector.recall(key, boards[state]);
+            Long expected = reference.get(key);
+            if (expected == null) {
+                assertNull(transition, "op " + op);
+                long successor = (state + 1) % boards.length;
+                detector.remember(key, boards[state], successor * 64L, boards[(int) successor]);
+                reference.put(key, successor * 64L);
+                if (reference.size() > capacity) {
+                    reference.remove(reference.keySet().iterator().next());
+                }
+            } else {
+                assertNotNull(transition, "op " + op);
+                assertEquals((long) expected, transition.getHash());
+                assertEquals(boards[(int) (expected / 64)], transition.getBoard());
+            }
+            assertEquals(reference.size(), detector.getCacheSize());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.groovegarden.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GridHistoryTest {
+    private static final int SIZE = 70;
+    private static final int KEYFRAME_INTERVAL = 4;
+
+    @Test
+    void reconstructsKeyframesAndFramesBetweenThem() {
+        GridHistory history = new GridHistory(SIZE, KEYFRAME_INTERVAL, Long.MAX_VALUE);
+        List<GridSnapshot> recorded = recordWalk(history, 13, new Random(1));
+
+        assertEquals(recorded.size(), history.getFrameCount());
+        assertTrue(history.getKeyframeCount() >= recorded.size() / KEYFRAME_INTERVAL);
+        for (int frame = 0; frame < recorded.size(); frame++) {
+            assertReconstructs(history, frame, recorded.get(frame));
+        }
+    }
+
+    @Test
+    void denseChangesStillReconstruct() {
+        GridHistory history = new GridHistory(SIZE, KEYFRAME_INTERVAL, Long.MAX_VALUE);
+        Random random = new Random(2);
+        List<GridSnapshot> recorded = new ArrayList<>();
+        for (int gen = 0; gen < 9; gen++) {
+            GridSnapshot snapshot = snapshot(gen, randomBoard(random, 0.5), randomBoard(random, 0.5),
+                    randomBoard(random, 0.5));
+            history.record(snapshot);
+            recorded.add(snapshot);
+        }
+        for (int frame = 0; frame < recorded.size(); frame++) {
+            assertReconstructs(history, frame, recorded.get(frame));
+        }
+    }
+
+    @Test
+    void recordingAfterUndoDropsTheRedoFrames() {
+        GridHistory history = new GridHistory(SIZE, KEYFRAME_INTERVAL, Long.MAX_VALUE);
+        List<GridSnapshot> recorded = recordWalk(history, 10, new Random(3));
+        history.setCursor(5);
+        assertTrue(history.canRedo());
+
+        GridSnapshot branch = snapshot(100, randomBoard(new Random(4), 0.1), new BitBoard(SIZE), new BitBoard(SIZE));
+        history.record(branch);
+        assertEquals(7, history.getFrameCount());
+        assertFalse(history.canRedo());
+        assertReconstructs(history, 5, recorded.get(5));
+        assertReconstructs(history, 6, branch);
+    }
+
+    @Test
+    void budgetDropsWholeKeyframeRunsFromTheFront() {
+        GridHistory history = new GridHistory(SIZE, KEYFRAME_INTERVAL, 4096);
+        List<GridSnapshot> recorded = recordWalk(history, 40, new Random(5));
+
+        assertTrue(history.getDroppedFrames() > 0);
+        assertEquals(recorded.size(), history.getFrameCount() + history.getDroppedFrames());
+        int first = (int) history.getDroppedFrames();
+        for (int frame = 0; frame < history.getFrameCount(); frame++) {
+            assertReconstructs(history, frame, recorded.get(first + frame));
+        }
+        assertEquals(-1, history.findFrame(0));
+        assertEquals(history.getFrameCount() - 1, history.findFrame(Long.MAX_VALUE));
+    }
+
+    /**
+     * A few cells change per frame, with the layer planes often shared as the model shares them
+     */
+    private static List<GridSnapshot> recordWalk(GridHistory history, int frames, Random random) {
+        List<GridSnapshot> recorded = new ArrayList<>();
+        BitBoard activity = randomBoard(random, 0.2);
+        BitBoard melody = randomBoard(random, 0.1);
+        BitBoard both = randomBoard(random, 0.05);
+        for (int gen = 0; gen < frames; gen++) {
+            activity = new BitBoard(activity);
+            for (int flips = 0; flips < 20; flips++) {
+                activity.flip(random.nextInt(SIZE), random.nextInt(SIZE));
+            }
+            if (random.nextBoolean()) {
+                melody = new BitBoard(melody);
+                melody.flip(random.nextInt(SIZE), random.nextInt(SIZE));
+            }
+            GridSnapshot snapshot = snapshot(gen, activity, melody, both);
+            history.record(snapshot);
+            recorded.add(snapshot);
+        }
+        return recorded;
+    }
+
+    private static void assertReconstructs(GridHistory history, int frame, GridSnapshot expected) {
+        BitBoard activity = new BitBoard(SIZE);
+        BitBoard melody = new BitBoard(SIZE);
+        BitBoard both = new BitBoard(SIZE);
+        // Leftovers must not leak into the result
+        activity.flip(0, 0);
+        history.reconstruct(frame, activity, melody, both);
+        assertEquals(expected.activity(), activity, "activity of frame " + frame);
+        assertEquals(expected.melodyLayer(), melody, "melody layer of frame " + frame);
+        assertEquals(expected.bothLayer(), both, "both layer of frame " + frame);
+        assertEquals(expected.getGeneration(), history.getGeneration(frame));
+    }
+
+    private static GridSnapshot snapshot(long generation, BitBoard activity, BitBoard melody, BitBoard both) {
+        return new GridSnapshot(SIZE, generation, generation, activity, melody, both, activity.popCount(),
+                activity.hash64());
+    }
+
+    private static BitBoard randomBoard(Random random, double density) {
+        BitBoard board = new BitBoard(SIZE);
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                board.set(row, col, random.nextDouble() < density);
+            }
+        }
+        return board;
+    }
+}
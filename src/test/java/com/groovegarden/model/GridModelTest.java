@@ -0,0 +1,177 @@
+package com.groovegarden.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GridModelTest {
+    private static final int SIZE = 8;
+
+    @Test
+    void clearForgetsTransitionsCachedUnderTheOldZones() {
+        GridModel model = zonedModel();
+        seedBlinker(model);
+        // Melody cells follow Seeds, so the blinker breaks up differently
+        model.cycleCellLayer(3, 2);
+        model.cycleCellLayer(3, 3);
+        model.cycleCellLayer(3, 4);
+        for (int gen = 0; gen < 4; gen++) {
+            model.update();
+        }
+
+        model.clear();
+        seedBlinker(model);
+        model.update();
+
+        GridModel fresh = zonedModel();
+        seedBlinker(fresh);
+        fresh.update();
+        assertEquals(fresh.getActiveBoard(), model.getActiveBoard());
+    }
+
+    @Test
+    void cellsThatDieReturnToTheRhythmLayer() {
+        GridModel model = new GridModel(SIZE);
+        model.setPersistent(false);
+        seedBlinker(model);
+        model.cycleCellLayer(3, 2);
+        model.cycleCellLayer(3, 4);
+        model.cycleCellLayer(3, 4);
+
+        model.update();
+        assertFalse(model.isCellActive(3, 2));
+        assertFalse(model.isCellActive(3, 4));
+        assertEquals(GridModel.RHYTHM_LAYER, model.getCellLayer(3, 2));
+        assertEquals(GridModel.RHYTHM_LAYER, model.getCellLayer(3, 4));
+        model.flushChanges();
+        assertEquals(GridModel.RHYTHM_LAYER, model.getSnapshot().getCellLayer(3, 4));
+
+        // Reborn cells start out in the rhythm layer too
+        model.update();
+        assertTrue(model.isCellActive(3, 2));
+        assertEquals(GridModel.RHYTHM_LAYER, model.getCellLayer(3, 2));
+        assertZonesOnLiveCells(model);
+    }
+
+    @Test
+    void birthsWhereAZoneDiedFollowTheRhythmRule() {
+        // Seeds cells never survive, so a melody blinker dies at once; Conway births above and below it
+        GridModel model = zonedModel();
+        seedBlinker(model);
+        for (int col = 2; col <= 4; col++) {
+            model.cycleCellLayer(3, col);
+        }
+        model.update();
+        assertTrue(model.isCellActive(2, 3));
+        assertTrue(model.isCellActive(4, 3));
+        assertZonesOnLiveCells(model);
+
+        // The centre has two neighbours: Seeds would give birth there, Conway does not
+        model.update();
+        assertFalse(model.isCellActive(3, 3));
+        assertEquals(0, model.getActiveCellCount());
+    }
+
+    @Test
+    void persistentCellsKeepTheirLayer() {
+        GridModel model = new GridModel(SIZE);
+        model.setPersistent(true);
+        model.toggleCell(0, 0);
+        model.cycleCellLayer(0, 0);
+        model.update();
+        assertTrue(model.isCellActive(0, 0));
+        assertEquals(GridModel.MELODY_LAYER, model.getCellLayer(0, 0));
+    }
+
+    @Test
+    void fastForwardMatchesUpdatesWithZonesAndDyingCells() {
+        for (boolean zonedRules : new boolean[] {false, true}) {
+            for (int seed = 0; seed < 30; seed++) {
+                GridModel updated = randomGarden(seed, zonedRules);
+                GridModel jumped = randomGarden(seed, zonedRules);
+                for (int gen = 0; gen < 40; gen++) {
+                    updated.update();
+                }
+                jumped.fastForward(40);
+
+                String context = "seed " + seed + (zonedRules ? " with zoned rules" : "");
+                updated.flushChanges();
+                jumped.flushChanges();
+                assertEquals(updated.getSnapshot().getGeneration(), jumped.getSnapshot().getGeneration(), context);
+                assertEquals(updated.getActiveBoard(), jumped.getActiveBoard(), context);
+                for (int row = 0; row < 16; row++) {
+                    for (int col = 0; col < 16; col++) {
+                        assertEquals(updated.getCellLayer(row, col), jumped.getCellLayer(row, col),
+                                context + " at " + row + "," + col);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void discardingChangesEveryStepKeepsTheGardenTheSame() {
+        for (int seed = 0; seed < 10; seed++) {
+            GridModel flushed = randomGarden(seed, true);
+            GridModel discarded = randomGarden(seed, true);
+            for (int gen = 0; gen < 40; gen++) {
+                flushed.update();
+                flushed.flushChanges();
+                discarded.update();
+                discarded.discardChanges();
+                assertFalse(discarded.hasChanges());
+            }
+
+            assertEquals(flushed.getActiveBoard(), discarded.getActiveBoard(), "seed " + seed);
+            for (int row = 0; row < 16; row++) {
+                for (int col = 0; col < 16; col++) {
+                    assertEquals(flushed.getCellLayer(row, col), discarded.getCellLayer(row, col),
+                            "seed " + seed + " at " + row + "," + col);
+                }
+            }
+        }
+    }
+
+    private static GridModel randomGarden(int seed, boolean zonedRules) {
+        GridModel model = new GridModel(16);
+        model.setPersistent(false);
+        if (zonedRules) {
+            model.setLayerRule(GridModel.MELODY_LAYER, Rule.HIGHLIFE);
+            model.setLayerRule(GridModel.BOTH_LAYER, Rule.DAY_AND_NIGHT);
+        }
+        boolean[][] cells = CellularAutomatonTest.soup(16, seed, 0.4);
+        for (int row = 0; row < 16; row++) {
+            for (int col = 0; col < 16; col++) {
+                if (!cells[row][col]) continue;
+                model.toggleCell(row, col);
+                for (int turn = 0; turn < (row * 7 + col * 3 + seed) % 3; turn++) {
+                    model.cycleCellLayer(row, col);
+                }
+            }
+        }
+        return model;
+    }
+
+    private static void assertZonesOnLiveCells(GridModel model) {
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (!model.isCellActive(row, col)) {
+                    assertEquals(GridModel.RHYTHM_LAYER, model.getCellLayer(row, col), row + "," + col);
+                }
+            }
+        }
+    }
+
+    private static GridModel zonedModel() {
+        GridModel model = new GridModel(SIZE);
+        model.setPersistent(false);
+        model.setLayerRule(GridModel.MELODY_LAYER, Rule.SEEDS);
+        return model;
+    }
+
+    private static void seedBlinker(GridModel model) {
+        model.toggleCell(3, 2);
+        model.toggleCell(3, 3);
+        model.toggleCell(3, 4);
+    }
+}
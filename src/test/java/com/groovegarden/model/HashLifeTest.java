@@ -0,0 +1,160 @@
+package com.groovegarden.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashLifeTest {
+    @Test
+    void centredPatternAgreesWithStepping() {
+        BitBoard seed = new BitBoard(64);
+        boolean[][] soup = CellularAutomatonTest.soup(16, 5, 0.4);
+        for (int row = 0; row < 16; row++) {
+            for (int col = 0; col < 16; col++) {
+                seed.set(24 + row, 24 + col, soup[row][col]);
+            }
+        }
+        for (long generations : new long[] {1, 2, 7, 64, 100}) {
+            assertAgrees(seed, generations, false, new HashLife());
+        }
+    }
+
+    @Test
+    void patternsMeetTheBoardEdgeAsTheStepperDoes() {
+        // Small gardens reach their edges within a few generations
+        for (int size : new int[] {5, 8, 20, 100}) {
+            BitBoard seed = new BitBoard(size);
+            seed.load(CellularAutomatonTest.soup(size, size, 0.4));
+            for (long generations : new long[] {1, 3, 16, 200, 1000}) {
+                assertAgrees(seed, generations, false, new HashLife());
+            }
+        }
+    }
+
+    @Test
+    void gliderDiesInTheCornerInsteadOfLeavingTheBoard() {
+        BitBoard seed = new BitBoard(8);
+        seed.set(0, 1, true);
+        seed.set(1, 2, true);
+        seed.set(2, 0, true);
+        seed.set(2, 1, true);
+        seed.set(2, 2, true);
+        assertAgrees(seed, 100, false, new HashLife());
+    }
+
+    @Test
+    void persistentModeAgreesWithStepping() {
+        for (int size : new int[] {8, 40}) {
+            BitBoard seed = new BitBoard(size);
+            seed.load(CellularAutomatonTest.soup(size, 11, 0.15));
+            for (long generations : new long[] {1, 5, 300}) {
+                assertAgrees(seed, generations, true, new HashLife());
+            }
+        }
+    }
+
+    @Test
+    void otherRulesAgreeWithStepping() {
+        BitBoard seed = new BitBoard(30);
+        seed.load(CellularAutomatonTest.soup(30, 2, 0.45));
+        for (Rule rule : new Rule[] {Rule.HIGHLIFE, Rule.SEEDS, Rule.DAY_AND_NIGHT}) {
+            HashLife hashLife = new HashLife();
+            hashLife.setRule(rule);
+            CellularAutomaton automaton = new CellularAutomaton(30, ForkJoinPool.commonPool(), 0);
+            automaton.setRule(rule);
+            automaton.load(seed);
+            for (int gen = 0; gen < 50; gen++) {
+                automaton.step();
+            }
+            hashLife.load(seed);
+            hashLife.fastForward(50);
+            BitBoard result = new BitBoard(30);
+            hashLife.store(result);
+            assertEquals(automaton.getBoard(), result, rule.toString());
+        }
+    }
+
+    @Test
+    void smallCacheGivesTheSameResult() {
+        BitBoard seed = new BitBoard(64);
+        seed.load(CellularAutomatonTest.soup(64, 8, 0.35));
+        HashLife bounded = new HashLife(1024);
+        bounded.load(seed);
+        bounded.fastForward(5000);
+        HashLife unbounded = new HashLife();
+        unbounded.load(seed);
+        unbounded.fastForward(5000);
+        assertTrue(bounded.getCacheSize() <= bounded.getCacheCapacity());
+        assertEquals(unbounded.getPopulation(), bounded.getPopulation());
+    }
+
+    @Test
+    void collectedCacheStaysWithinCapacityAndKeepsAgreeing() {
+        BitBoard seed = new BitBoard(64);
+        seed.load(CellularAutomatonTest.soup(64, 13, 0.35));
+        CellularAutomaton automaton = new CellularAutomaton(64, ForkJoinPool.commonPool(), 0);
+        automaton.load(seed);
+        HashLife hashLife = new HashLife(1024);
+        hashLife.load(seed);
+        BitBoard result = new BitBoard(64);
+
+        // Jumps continue from patterns whose nodes survived earlier collections
+        for (int jump = 0; jump < 20; jump++) {
+            for (int gen = 0; gen < 37; gen++) {
+                automaton.step();
+            }
+            hashLife.fastForward(37);
+            assertTrue(hashLife.getCacheSize() <= hashLife.getCacheCapacity());
+            hashLife.store(result);
+            assertEquals(automaton.getBoard(), result, "after jump " + jump);
+        }
+        assertTrue(hashLife.getEvictions() > 0);
+    }
+
+    @Test
+    void automatonFastForwardsInPersistentModeAndWithZones() {
+        BitBoard seed = new BitBoard(16);
+        seed.load(CellularAutomatonTest.soup(16, 4, 0.3));
+        BitBoard zone = new BitBoard(16);
+        zone.load(CellularAutomatonTest.soup(16, 9, 0.5));
+
+        for (boolean zoned : new boolean[] {false, true}) {
+            CellularAutomaton stepped = new CellularAutomaton(16, ForkJoinPool.commonPool(), 0);
+            CellularAutomaton jumped = new CellularAutomaton(16, ForkJoinPool.commonPool(), 0);
+            for (CellularAutomaton automaton : new CellularAutomaton[] {stepped, jumped}) {
+                automaton.setPersistent(true);
+                if (zoned) {
+                    automaton.setRules(Rule.CONWAY, new BitBoard[] {zone}, new Rule[] {Rule.SEEDS});
+                }
+                automaton.load(seed);
+            }
+            for (int gen = 0; gen < 500; gen++) {
+                stepped.step();
+            }
+            jumped.fastForward(500);
+            assertEquals(stepped.getBoard(), jumped.getBoard());
+            assertEquals(stepped.getPopulation(), jumped.getPopulation());
+        }
+    }
+
+    private static void assertAgrees(BitBoard seed, long generations, boolean persistent, HashLife hashLife) {
+        int size = seed.getSize();
+        CellularAutomaton automaton = new CellularAutomaton(size, ForkJoinPool.commonPool(), 0);
+        automaton.setPersistent(persistent);
+        automaton.load(seed);
+        for (long gen = 0; gen < generations; gen++) {
+            automaton.step();
+        }
+
+        hashLife.setPersistent(persistent);
+        hashLife.load(seed);
+        hashLife.fastForward(generations);
+        BitBoard result = new BitBoard(size);
+        hashLife.store(result);
+        assertEquals(automaton.getBoard(), result, size + "x" + size + " board after " + generations + " generations");
+        assertEquals(automaton.getPopulation(), hashLife.getPopulation());
+        assertEquals(generations, hashLife.getGeneration());
+    }
+}
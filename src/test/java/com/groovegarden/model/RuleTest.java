@@ -0,0 +1,83 @@
+package com.groovegarden.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleTest {
+    private static final String[] RULESTRINGS = {"B3/S23", "B36/S23", "B2/S", "B3678/S34678"};
+    private static final Rule[] RULES = {Rule.CONWAY, Rule.HIGHLIFE, Rule.SEEDS, Rule.DAY_AND_NIGHT};
+
+    @Test
+    void namedRulesMatchTheirRulestrings() {
+        for (int i = 0; i < RULES.length; i++) {
+            assertEquals(RULESTRINGS[i], RULES[i].toString());
+            assertEquals(Rule.parse(RULESTRINGS[i]), RULES[i]);
+        }
+        assertTrue(Rule.CONWAY.isConway());
+        assertFalse(Rule.HIGHLIFE.isConway());
+    }
+
+    @Test
+    void neighbourhoodTableFollowsTheRulestring() {
+        for (String rulestring : RULESTRINGS) {
+            Rule rule = Rule.parse(rulestring);
+            for (int neighbourhood = 0; neighbourhood < 512; neighbourhood++) {
+                boolean alive = (neighbourhood & 1 << 4) != 0;
+                int count = Integer.bitCount(neighbourhood & ~(1 << 4));
+                assertEquals(expected(rulestring, alive, count), rule.next(neighbourhood),
+                        rulestring + " with " + count + " neighbours, alive " + alive);
+            }
+        }
+    }
+
+    @Test
+    void packedEvaluationFollowsTheRulestring() {
+        Random random = new Random(1);
+        for (String rulestring : RULESTRINGS) {
+            Rule rule = Rule.parse(rulestring);
+            for (int trial = 0; trial < 2000; trial++) {
+                long[] planes = new long[9];
+                for (int i = 0; i < planes.length; i++) {
+                    planes[i] = random.nextLong();
+                }
+                long next = rule.apply(planes[0], planes[1], planes[2], planes[3], planes[4],
+                        planes[5], planes[6], planes[7], planes[8]);
+                for (int bit = 0; bit < 64; bit++) {
+                    boolean alive = (planes[0] >>> bit & 1) != 0;
+                    int count = 0;
+                    for (int i = 1; i < planes.length; i++) {
+                        count += (int) (planes[i] >>> bit & 1);
+                    }
+                    assertEquals(expected(rulestring, alive, count), (next >>> bit & 1) != 0,
+                            rulestring + " with " + count + " neighbours, alive " + alive);
+                }
+            }
+        }
+    }
+
+    @Test
+    void parsingIgnoresCaseAndOrder() {
+        assertEquals(Rule.HIGHLIFE, Rule.parse("s23/b36"));
+        assertEquals(Rule.SEEDS, Rule.parse(" b2/s "));
+    }
+
+    @Test
+    void malformedAndB0RulesAreRejected() {
+        for (String rulestring : new String[] {"B3", "S23", "B39/S23", "X3/S23", "B3/S23/B2", "B03/S23"}) {
+            assertThrows(IllegalArgumentException.class, () -> Rule.parse(rulestring));
+        }
+        assertThrows(IllegalArgumentException.class, () -> Rule.parse(null));
+    }
+
+    /**
+     * Outcome read straight off a B/S rulestring
+     */
+    private static boolean expected(String rulestring, boolean alive, int count) {
+        String[] parts = rulestring.split("/");
+        String digits = alive ? parts[1].substring(1) : parts[0].substring(1);
+        return digits.indexOf((char) ('0' + count)) >= 0;
+    }
+}
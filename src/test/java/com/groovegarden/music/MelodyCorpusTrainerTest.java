@@ -0,0 +1,86 @@
+package com.groovegarden.music;
+
+import com.groovegarden.algo.ContextTrie;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MelodyCorpusTrainerTest {
+
+    private static List<byte[]> randomLines(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<byte[]> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] line = new byte[2 + random.nextInt(60)];
+            for (int j = 0; j < line.length; j++) {
+                // A lopsided walk, so some n-grams are common and others rare
+                int step = random.nextInt(4) == 0 ? random.nextInt(12) : 2;
+                line[j] = (byte) ((j == 0 ? 0 : line[j - 1] + step) % MelodyCorpusTrainer.PITCH_CLASSES);
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    void workerCountDoesNotChangeTheModel() {
+        List<byte[]> lines = randomLines(500, 1);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(4);
+        try {
+            MelodyCorpusTrainer alone = new MelodyCorpusTrainer(3, 2, single);
+            MelodyCorpusTrainer together = new MelodyCorpusTrainer(3, 2, several);
+            ContextTrie expected = alone.trainLines(lines);
+            ContextTrie actual = together.trainLines(lines);
+
+            assertEquals(alone.getDistinctNgrams(), together.getDistinctNgrams());
+            assertEquals(expected.getNodeCount(), actual.getNodeCount());
+            assertEquals(expected.getEntryCount(), actual.getEntryCount());
+            // Same counts in the same layout draw the same notes from the same stream
+            SplittableRandom first = new SplittableRandom(9);
+            SplittableRandom second = new SplittableRandom(9);
+            int[] history = {0, 2, 4};
+            for (int i = 0; i < 200; i++) {
+                assertEquals(expected.sample(history, 3, 0xFFF, first), actual.sample(history, 3, 0xFFF, second));
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    @Test
+    void everyNgramIsCountedOnce() {
+        List<byte[]> lines = randomLines(200, 2);
+        Set<Long> distinct = new HashSet<>();
+        for (byte[] line : lines) {
+            for (int i = 0; i < line.length; i++) {
+                long context = 0;
+                for (int length = 0; length <= 2 && length <= i; length++) {
+                    if (length > 0) {
+                        context = ContextTrie.withContextSymbol(context, length - 1, line[i - length]);
+                    }
+                    distinct.add(ContextTrie.ngramKey(length, context, line[i]));
+                }
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            MelodyCorpusTrainer trainer = new MelodyCorpusTrainer(2, 1, pool);
+            ContextTrie trie = trainer.trainLines(lines);
+            assertEquals(distinct.size(), trainer.getDistinctNgrams());
+            // Nothing pruned: one entry per n-gram
+            assertEquals(distinct.size(), trie.getEntryCount());
+            assertEquals(lines.stream().mapToLong(line -> line.length).sum(), trainer.getNotes());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
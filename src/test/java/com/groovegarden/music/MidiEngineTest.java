@@ -0,0 +1,91 @@
+package com.groovegarden.music;
+
+import com.groovegarden.model.GridModel;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiEngineTest {
+    private static final long STEP_NANOS = 125_000_000L;
+
+    @Test
+    void skippedStepsKeepTheBarOnTheSequencerGrid() {
+        MidiEngine engine = startedEngine(new Counter());
+        GridModel model = new GridModel(8);
+
+        engine.tick(model, 0, 0);
+        engine.tick(model, STEP_NANOS, 1);
+        assertPosition(engine, 0, 2);
+
+        // A stall inside the bar
+        engine.tick(model, 5 * STEP_NANOS, 5);
+        assertPosition(engine, 0, 6);
+
+        // Across one bar line, then across several
+        engine.tick(model, 18 * STEP_NANOS, 18);
+        assertPosition(engine, 1, 3);
+        engine.tick(model, 70 * STEP_NANOS, 70);
+        assertPosition(engine, 4, 7);
+        engine.close();
+    }
+
+    @Test
+    void playingOnAfterASkipStillSoundsEveryStep() {
+        Counter counter = new Counter();
+        MidiEngine engine = startedEngine(counter);
+        GridModel model = new GridModel(8);
+
+        engine.tick(model, 0, 0);
+        long position = 40;
+        for (int i = 0; i < 32; i++, position++) {
+            long before = counter.noteOns;
+            engine.tick(model, position * STEP_NANOS, position);
+            // The melody plays a note on every step
+            assertTrue(counter.noteOns > before, "nothing played at step " + position);
+        }
+        assertPosition(engine, 4, 8);
+        engine.close();
+    }
+
+    @Test
+    void ticksWithoutAPositionPlayTheNextStep() {
+        MidiEngine engine = startedEngine(new Counter());
+        GridModel model = new GridModel(8);
+        for (int step = 0; step < 20; step++) {
+            engine.tick(model, step * STEP_NANOS);
+        }
+        assertPosition(engine, 1, 4);
+        engine.close();
+    }
+
+    private static MidiEngine startedEngine(Receiver receiver) {
+        MidiEngine engine = new MidiEngine(receiver, 42L);
+        engine.setTempo(120);
+        engine.start();
+        return engine;
+    }
+
+    private static void assertPosition(MidiEngine engine, int bar, int step) {
+        assertEquals(bar, engine.getCurrentBar(), "bar");
+        assertEquals(step, engine.getCurrentStep(), "step");
+    }
+
+    private static final class Counter implements Receiver {
+        long noteOns;
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            if (message instanceof ShortMessage && ((ShortMessage) message).getCommand() == ShortMessage.NOTE_ON) {
+                noteOns++;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
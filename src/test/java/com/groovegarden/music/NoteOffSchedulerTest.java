@@ -0,0 +1,107 @@
+package com.groovegarden.music;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoteOffSchedulerTest {
+    // Generous upper bound, so a busy build machine does not fail the test
+    private static final long SLACK_MS = 250;
+
+    private final List<long[]> fired = new ArrayList<>();
+    private final NoteOffScheduler scheduler = new NoteOffScheduler((channel, note) -> {
+        synchronized (fired) {
+            fired.add(new long[] {channel, note, System.nanoTime()});
+            fired.notifyAll();
+        }
+    });
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void firesEachNoteOffOnceWhenDue() throws InterruptedException {
+        long start = System.nanoTime();
+        scheduler.schedule(9, 36, 20);
+        scheduler.schedule(0, 60, 40);
+        // Past one turn of the wheel, so the entry waits out a round
+        scheduler.schedule(1, 40, 300);
+        assertEquals(3, scheduler.getPendingCount());
+
+        awaitFired(3, 300 + SLACK_MS);
+        Thread.sleep(50);
+        synchronized (fired) {
+            assertEquals(3, fired.size());
+            assertFiredAfter(fired.get(0), 9, 36, start, 20);
+            assertFiredAfter(fired.get(1), 0, 60, start, 40);
+            assertFiredAfter(fired.get(2), 1, 40, start, 300);
+        }
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    void restrikingMovesThePendingNoteOff() throws InterruptedException {
+        long start = System.nanoTime();
+        scheduler.schedule(0, 60, 10);
+        scheduler.schedule(0, 60, 80);
+        assertEquals(1, scheduler.getPendingCount());
+
+        awaitFired(1, 80 + SLACK_MS);
+        Thread.sleep(50);
+        synchronized (fired) {
+            assertEquals(1, fired.size());
+            assertFiredAfter(fired.get(0), 0, 60, start, 80);
+        }
+    }
+
+    @Test
+    void flushSendsEveryPendingNoteOffAtOnce() throws InterruptedException {
+        scheduler.schedule(9, 42, 10_000);
+        scheduler.schedule(0, 64, 20_000);
+        scheduler.flush();
+
+        synchronized (fired) {
+            assertEquals(2, fired.size());
+        }
+        assertEquals(0, scheduler.getPendingCount());
+        // Flushed note-offs are not sent a second time
+        Thread.sleep(50);
+        synchronized (fired) {
+            assertEquals(2, fired.size());
+        }
+    }
+
+    @Test
+    void rejectsNotesOutsideMidi() {
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule(16, 60, 10));
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule(0, 128, 10));
+    }
+
+    private void awaitFired(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (fired) {
+            while (fired.size() < count) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    fail("Only " + fired.size() + " of " + count + " note-offs fired");
+                }
+                fired.wait(left);
+            }
+        }
+    }
+
+    private static void assertFiredAfter(long[] event, int channel, int note, long start, long delayMs) {
+        assertEquals(channel, event[0]);
+        assertEquals(note, event[1]);
+        long elapsedMs = (event[2] - start) / 1_000_000;
+        // The wheel turns once a millisecond, so a note-off may land up to one tick early
+        assertTrue(elapsedMs >= delayMs - 1, "fired after " + elapsedMs + " ms, due at " + delayMs);
+        assertTrue(elapsedMs <= delayMs + SLACK_MS, "fired after " + elapsedMs + " ms, due at " + delayMs);
+    }
+}
@@ -0,0 +1,97 @@
+package com.groovegarden.music;
+
+import com.groovegarden.model.GridModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OfflineRendererTest {
+    private Path first;
+    private Path second;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        first = Files.createTempFile("offline-renderer-test", ".mid");
+        second = Files.createTempFile("offline-renderer-test", ".mid");
+    }
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(first);
+        Files.deleteIfExists(second);
+    }
+
+    private static GridModel garden(long seed) {
+        GridModel model = new GridModel(16);
+        model.setPersistent(false);
+        OfflineRenderer.scatterCells(model, new SplittableRandom(seed));
+        return model;
+    }
+
+    @Test
+    void streamedEventsComeBackInTimeOrderWithEveryNoteEnded() throws IOException, InvalidMidiDataException {
+        OfflineRenderer renderer = new OfflineRenderer(120, "C Dorian");
+        renderer.setStartGeneration(0);
+        long steps = renderer.stepsFor(2);
+        renderer.render(garden(5), steps, 5, first.toFile());
+
+        long[] lastTick = new long[2];
+        Map<Integer, Integer> sounding = new HashMap<>();
+        int[] notes = new int[2];
+        int[] tempos = new int[1];
+        int division = SmfReader.read(first, new SmfReader.Handler() {
+            @Override
+            public void noteOn(int track, int channel, int key, int velocity, long tick) {
+                assertTrue(tick >= lastTick[track], "note-on at " + tick + " after " + lastTick[track]);
+                lastTick[track] = tick;
+                sounding.merge(channel << 8 | key, 1, Integer::sum);
+                notes[0]++;
+            }
+
+            @Override
+            public void noteOff(int track, int channel, int key, long tick) {
+                assertTrue(tick >= lastTick[track], "note-off at " + tick + " after " + lastTick[track]);
+                lastTick[track] = tick;
+                sounding.merge(channel << 8 | key, -1, Integer::sum);
+                notes[1]++;
+            }
+
+            @Override
+            public void tempo(int track, int microsPerQuarter, long tick) {
+                assertEquals(500_000, microsPerQuarter);
+                tempos[0]++;
+            }
+        });
+
+        assertEquals(OfflineRenderer.TICKS_PER_BEAT, division);
+        assertEquals(1, tempos[0]);
+        assertTrue(notes[0] > 100, "only " + notes[0] + " notes in two minutes");
+        assertEquals(notes[0], notes[1]);
+        sounding.forEach((key, balance) -> assertEquals(0, (int) balance, "note " + key));
+        // The three program changes are the only other events
+        assertEquals(notes[0] + notes[1] + 3, renderer.getEventCount());
+        // Everything ends within a step or two of the last one
+        long stepTicks = OfflineRenderer.TICKS_PER_BEAT / 4;
+        assertTrue(lastTick[1] <= (steps + 8) * stepTicks, "last event at " + lastTick[1]);
+    }
+
+    @Test
+    void sameGardenAndSeedRenderTheSameFile() throws IOException {
+        OfflineRenderer renderer = new OfflineRenderer(96, "A Minor");
+        renderer.setStartGeneration(0);
+        renderer.render(garden(8), renderer.stepsFor(1), 8, first.toFile());
+        renderer.render(garden(8), renderer.stepsFor(1), 8, second.toFile());
+
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+}
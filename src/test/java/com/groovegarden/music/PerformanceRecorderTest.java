@@ -0,0 +1,108 @@
+package com.groovegarden.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerformanceRecorderTest {
+
+    @Test
+    void capacityRoundsUpToAPowerOfTwo() {
+        assertEquals(1, new PerformanceRecorder(1).getCapacity());
+        assertEquals(8, new PerformanceRecorder(5).getCapacity());
+        assertEquals(8, new PerformanceRecorder(8).getCapacity());
+        assertThrows(IllegalArgumentException.class, () -> new PerformanceRecorder(0));
+    }
+
+    @Test
+    void copiesNotesOldestFirst() {
+        PerformanceRecorder recorder = new PerformanceRecorder(8);
+        for (int i = 0; i < 5; i++) {
+            recorder.record(i * 1000L, 100 + i);
+        }
+        long[] times = new long[8];
+        int[] events = new int[8];
+
+        assertEquals(5, recorder.copy(times, events));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 1000L, times[i]);
+            assertEquals(100 + i, events[i]);
+        }
+        assertEquals(0, recorder.getOverwrittenCount());
+    }
+
+    @Test
+    void wrappingAroundKeepsTheNewestNotes() {
+        PerformanceRecorder recorder = new PerformanceRecorder(8);
+        for (int i = 0; i < 21; i++) {
+            recorder.record(i, i);
+        }
+        long[] times = new long[8];
+        int[] events = new int[8];
+
+        assertEquals(8, recorder.copy(times, events));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(13 + i, times[i]);
+            assertEquals(13 + i, events[i]);
+        }
+        assertEquals(21, recorder.getRecordedCount());
+        assertEquals(13, recorder.getOverwrittenCount());
+    }
+
+    @Test
+    void clearStartsANewSession() {
+        PerformanceRecorder recorder = new PerformanceRecorder(8);
+        for (int i = 0; i < 6; i++) {
+            recorder.record(i, i);
+        }
+        recorder.clear();
+        recorder.record(100, 7);
+        long[] times = new long[8];
+        int[] events = new int[8];
+
+        assertEquals(1, recorder.copy(times, events));
+        assertEquals(100, times[0]);
+        assertEquals(7, events[0]);
+        assertEquals(1, recorder.getRecordedCount());
+    }
+
+    @Test
+    void copyDropsSlotsOverwrittenWhileItRuns() throws InterruptedException {
+        // A tiny ring and a writer that never pauses, so the writer laps the reader constantly
+        PerformanceRecorder recorder = new PerformanceRecorder(16);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            for (long i = 0; running.get(); i++) {
+                recorder.record(i, (int) i);
+            }
+        });
+        writer.start();
+
+        long[] times = new long[16];
+        int[] events = new int[16];
+        long last = -1;
+        try {
+            long deadline = System.nanoTime() + 200_000_000L;
+            while (System.nanoTime() < deadline) {
+                int count = recorder.copy(times, events);
+                assertTrue(count <= 16);
+                for (int i = 0; i < count; i++) {
+                    // A torn slot pairs the time of one note with the event of another
+                    assertEquals((int) times[i], events[i], "slot " + i + " is torn");
+                    if (i > 0) {
+                        assertEquals(times[i - 1] + 1, times[i], "copied notes must be consecutive");
+                    }
+                }
+                if (count > 0) {
+                    assertTrue(times[0] >= last, "copies never go back");
+                    last = times[0];
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.groovegarden.music;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmfReaderTest {
+
+    /**
+     * A format 0 file with one track of these event bytes
+     */
+    private static ByteBuffer file(int division, int... track) {
+        ByteBuffer buffer = ByteBuffer.allocate(22 + track.length);
+        buffer.putInt(0x4D546864).putInt(6).putShort((short) 0).putShort((short) 1).putShort((short) division);
+        buffer.putInt(0x4D54726B).putInt(track.length);
+        for (int b : track) {
+            buffer.put((byte) b);
+        }
+        return buffer.flip();
+    }
+
+    private static List<String> read(ByteBuffer buffer) throws IOException, InvalidMidiDataException {
+        List<String> events = new ArrayList<>();
+        SmfReader.read(buffer, new SmfReader.Handler() {
+            @Override
+            public void noteOn(int track, int channel, int key, int velocity, long tick) {
+                events.add("on " + key + " @" + tick);
+            }
+
+            @Override
+            public void noteOff(int track, int channel, int key, long tick) {
+                events.add("off " + key + " @" + tick);
+            }
+        });
+        return events;
+    }
+
+    @Test
+    void systemCommonDataBytesAreSkipped() throws IOException, InvalidMidiDataException {
+        ByteBuffer buffer = file(96,
+                0x00, 0x90, 60, 100,
+                0x00, 0xF2, 0x10, 0x20, // Song position, two data bytes
+                0x00, 0xF1, 0x05,       // Time code quarter frame, one
+                0x00, 0xF3, 0x02,       // Song select, one
+                0x00, 0xF8,             // Clock, none
+                0x10, 0x80, 60, 0,
+                0x00, 0xFF, 0x2F, 0x00);
+
+        assertEquals(List.of("on 60 @0", "off 60 @16"), read(buffer));
+    }
+
+    @Test
+    void truncatedSystemMessageIsRejected() {
+        ByteBuffer buffer = file(96, 0x00, 0xF2, 0x10);
+
+        assertThrows(IOException.class, () -> read(buffer));
+    }
+
+    @Test
+    void smpteTimingIsRejected() {
+        // 25 frames per second, 40 ticks per frame
+        ByteBuffer buffer = file(0xE728, 0x00, 0x90, 60, 100, 0x00, 0xFF, 0x2F, 0x00);
+
+        InvalidMidiDataException e = assertThrows(InvalidMidiDataException.class, () -> read(buffer));
+        assertTrue(e.getMessage().contains("25 fps"), e.getMessage());
+    }
+
+    @Test
+    void zeroDivisionIsRejected() {
+        ByteBuffer buffer = file(0, 0x00, 0xFF, 0x2F, 0x00);
+
+        assertThrows(InvalidMidiDataException.class, () -> read(buffer));
+    }
+}
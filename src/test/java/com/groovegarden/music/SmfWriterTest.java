@@ -0,0 +1,171 @@
+package com.groovegarden.music;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmfWriterTest {
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        file = Files.createTempFile("smf-writer-test", ".mid");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private interface Body {
+        void write(SmfWriter writer) throws IOException;
+    }
+
+    private void write(int ticksPerBeat, Body body) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+             SmfWriter writer = new SmfWriter(channel, ticksPerBeat)) {
+            body.write(writer);
+        }
+    }
+
+    private List<String> read() throws IOException, InvalidMidiDataException {
+        List<String> events = new ArrayList<>();
+        SmfReader.read(file, new SmfReader.Handler() {
+            @Override
+            public void noteOn(int track, int channel, int key, int velocity, long tick) {
+                events.add(track + ": on " + channel + " " + key + " " + velocity + " @" + tick);
+            }
+
+            @Override
+            public void noteOff(int track, int channel, int key, long tick) {
+                events.add(track + ": off " + channel + " " + key + " @" + tick);
+            }
+
+            @Override
+            public void tempo(int track, int microsPerQuarter, long tick) {
+                events.add(track + ": tempo " + microsPerQuarter + " @" + tick);
+            }
+
+            @Override
+            public void endTrack(int track) {
+                events.add(track + ": end");
+            }
+        });
+        return events;
+    }
+
+    @Test
+    void tracksComeBackAsWritten() throws IOException, InvalidMidiDataException {
+        write(480, writer -> {
+            writer.beginTrack();
+            writer.trackName("Tempo");
+            writer.tempo(0, 120);
+            writer.endTrack();
+
+            writer.beginTrack();
+            writer.programChange(0, 9, 0);
+            writer.noteOn(0, 9, 36, 100);
+            writer.noteOff(120, 9, 36);
+            // A long gap needs a multi-byte delta time
+            writer.noteOn(200_000, 9, 38, 90);
+            writer.noteOff(200_060, 9, 38);
+            writer.endTrack();
+        });
+
+        assertEquals(List.of(
+                "0: tempo 500000 @0", "0: end",
+                "1: on 9 36 100 @0", "1: off 9 36 @120",
+                "1: on 9 38 90 @200000", "1: off 9 38 @200060", "1: end"), read());
+        assertEquals(480, SmfReader.read(file, (track, channel, key, velocity, tick) -> { }));
+    }
+
+    @Test
+    void repeatedStatusBytesAreLeftOut() throws IOException, InvalidMidiDataException {
+        write(96, writer -> {
+            writer.beginTrack();
+            writer.noteOn(0, 0, 60, 100);
+            writer.noteOn(10, 0, 64, 100);
+            writer.noteOn(20, 0, 67, 100);
+            writer.noteOff(30, 0, 60);
+            writer.noteOff(30, 0, 64);
+            writer.noteOff(30, 0, 67);
+            writer.endTrack();
+        });
+
+        byte[] bytes = Files.readAllBytes(file);
+        int noteOnStatus = 0;
+        int noteOffStatus = 0;
+        // Header and track header hold no byte this high; data bytes and short deltas stay below 0x80
+        for (int i = 22; i < bytes.length; i++) {
+            if ((bytes[i] & 0xFF) == 0x90) noteOnStatus++;
+            if ((bytes[i] & 0xFF) == 0x80) noteOffStatus++;
+        }
+        assertEquals(1, noteOnStatus);
+        assertEquals(1, noteOffStatus);
+        assertEquals(List.of(
+                "0: on 0 60 100 @0", "0: on 0 64 100 @10", "0: on 0 67 100 @20",
+                "0: off 0 60 @30", "0: off 0 64 @30", "0: off 0 67 @30", "0: end"), read());
+    }
+
+    @Test
+    void runningStatusRestartsAfterMetaEvents() throws IOException, InvalidMidiDataException {
+        write(96, writer -> {
+            writer.beginTrack();
+            writer.noteOn(0, 0, 60, 100);
+            writer.tempo(10, 100);
+            writer.noteOn(10, 0, 62, 100);
+            writer.endTrack();
+        });
+
+        assertEquals(List.of(
+                "0: on 0 60 100 @0", "0: tempo 600000 @10", "0: on 0 62 100 @10", "0: end"), read());
+    }
+
+    @Test
+    void overlappingNotesOfOneKeyEachGetTheirOwnNoteOff() throws IOException, InvalidMidiDataException {
+        write(96, writer -> {
+            writer.beginTrack();
+            writer.note(0, 0, 60, 100, 100);
+            // Struck again before its off: the first note ends here
+            writer.note(50, 0, 60, 80, 100);
+            writer.note(60, 1, 60, 70, 10);
+            writer.note(200, 0, 60, 90, 20);
+            writer.endTrack();
+        });
+
+        assertEquals(List.of(
+                "0: on 0 60 100 @0",
+                "0: off 0 60 @50", "0: on 0 60 80 @50",
+                "0: on 1 60 70 @60", "0: off 1 60 @70",
+                "0: off 0 60 @150",
+                "0: on 0 60 90 @200", "0: off 0 60 @220",
+                "0: end"), read());
+    }
+
+    @Test
+    void pendingNoteOffsAreWrittenBeforeLaterMetaEvents() throws IOException, InvalidMidiDataException {
+        write(96, writer -> {
+            writer.beginTrack();
+            writer.note(0, 0, 60, 100, 10);
+            writer.note(0, 0, 64, 100, 40);
+            writer.tempo(20, 90);
+            writer.endTrack();
+        });
+
+        assertEquals(List.of(
+                "0: on 0 60 100 @0", "0: on 0 64 100 @0",
+                "0: off 0 60 @10", "0: tempo 666666 @20", "0: off 0 64 @40",
+                "0: end"), read());
+    }
+}
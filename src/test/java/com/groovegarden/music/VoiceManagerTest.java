@@ -0,0 +1,122 @@
+package com.groovegarden.music;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoiceManagerTest {
+    private final List<String> events = new ArrayList<>();
+    private final VoiceManager.Output output = new VoiceManager.Output() {
+        @Override
+        public void noteOn(int channel, int note, int velocity, long micros) {
+            events.add("on " + channel + " " + note + " @" + micros);
+        }
+
+        @Override
+        public void noteOff(int channel, int note, long micros) {
+            events.add("off " + channel + " " + note + " @" + micros);
+        }
+    };
+
+    @Test
+    void fullChannelStealsTheOldestVoice() {
+        VoiceManager voices = new VoiceManager(2, VoiceManager.StealPolicy.OLDEST, output);
+        voices.noteOn(0, 60, 100, 0, VoiceManager.NO_END);
+        voices.noteOn(0, 62, 10, 10, VoiceManager.NO_END);
+        voices.noteOn(0, 64, 100, 20, VoiceManager.NO_END);
+
+        assertEquals(List.of("on 0 60 @0", "on 0 62 @10", "off 0 60 @20", "on 0 64 @20"), events);
+        assertEquals(1, voices.getStolenCount());
+        assertEquals(2, voices.getActiveCount(0));
+        assertFalse(voices.noteOff(0, 60, 30), "a stolen voice has already been released");
+        assertTrue(voices.noteOff(0, 62, 30));
+        assertTrue(voices.noteOff(0, 64, 30));
+        assertEquals(0, voices.getActiveCount());
+    }
+
+    @Test
+    void fullChannelStealsTheQuietestVoiceAndTheOlderOfEqualOnes() {
+        VoiceManager voices = new VoiceManager(3, VoiceManager.StealPolicy.QUIETEST, output);
+        voices.noteOn(0, 60, 100, 0, VoiceManager.NO_END);
+        voices.noteOn(0, 62, 40, 10, VoiceManager.NO_END);
+        voices.noteOn(0, 64, 40, 20, VoiceManager.NO_END);
+        voices.noteOn(0, 65, 90, 30, VoiceManager.NO_END);
+        voices.noteOn(0, 67, 90, 40, VoiceManager.NO_END);
+
+        assertEquals(List.of(
+                "on 0 60 @0", "on 0 62 @10", "on 0 64 @20",
+                "off 0 62 @30", "on 0 65 @30",
+                "off 0 64 @40", "on 0 67 @40"), events);
+        assertEquals(2, voices.getStolenCount());
+        assertEquals(3, voices.getPeakCount());
+    }
+
+    @Test
+    void stealingStaysWithinTheChannel() {
+        VoiceManager voices = new VoiceManager(1, VoiceManager.StealPolicy.OLDEST, output);
+        voices.noteOn(0, 60, 100, 0, VoiceManager.NO_END);
+        voices.noteOn(9, 36, 100, 10, VoiceManager.NO_END);
+        voices.noteOn(9, 38, 100, 20, VoiceManager.NO_END);
+
+        assertEquals(List.of("on 0 60 @0", "on 9 36 @10", "off 9 36 @20", "on 9 38 @20"), events);
+        assertEquals(1, voices.getActiveCount(0));
+        assertEquals(1, voices.getActiveCount(9));
+    }
+
+    @Test
+    void restrikingASoundingNoteReleasesItFirstWithoutStealing() {
+        VoiceManager voices = new VoiceManager(2, VoiceManager.StealPolicy.OLDEST, output);
+        voices.noteOn(0, 60, 100, 0, VoiceManager.NO_END);
+        voices.noteOn(0, 60, 80, 10, VoiceManager.NO_END);
+
+        assertEquals(List.of("on 0 60 @0", "off 0 60 @10", "on 0 60 @10"), events);
+        assertEquals(0, voices.getStolenCount());
+        assertEquals(1, voices.getActiveCount());
+    }
+
+    @Test
+    void endedVoicesFreeTheirSlotsBeforeAnythingIsStolen() {
+        VoiceManager voices = new VoiceManager(2, VoiceManager.StealPolicy.OLDEST, output);
+        voices.noteOn(0, 60, 100, 0, 50);
+        voices.noteOn(0, 62, 100, 10, VoiceManager.NO_END);
+        voices.noteOn(0, 64, 100, 60, VoiceManager.NO_END);
+
+        assertEquals(List.of("on 0 60 @0", "on 0 62 @10", "off 0 60 @50", "on 0 64 @60"), events);
+        assertEquals(0, voices.getStolenCount());
+    }
+
+    @Test
+    void releaseUntilStampsEachNoteOffWithItsEnd() {
+        VoiceManager voices = new VoiceManager(4, VoiceManager.StealPolicy.OLDEST, output);
+        voices.noteOn(0, 60, 100, 0, 100);
+        voices.noteOn(0, 62, 100, 0, 50);
+        voices.noteOn(1, 64, 100, 0, 200);
+        events.clear();
+
+        assertEquals(2, voices.releaseUntil(150));
+        assertEquals(2, events.size());
+        assertTrue(events.contains("off 0 60 @100"));
+        assertTrue(events.contains("off 0 62 @50"));
+        assertEquals(1, voices.getActiveCount());
+        assertTrue(voices.noteOff(1, 64, 150));
+    }
+
+    @Test
+    void releaseAllNeverSendsANoteOffBeforeItsNoteOn() {
+        VoiceManager voices = new VoiceManager(4, VoiceManager.StealPolicy.OLDEST, output);
+        voices.noteOn(0, 62, 100, 100, 500);
+        voices.noteOn(0, 60, 100, 0, 30);
+        voices.noteOn(0, 64, 100, 0, VoiceManager.NO_END);
+        events.clear();
+
+        assertEquals(3, voices.releaseAll(50));
+        assertEquals(3, events.size());
+        assertTrue(events.contains("off 0 60 @30"), "ended voices keep their own end");
+        assertTrue(events.contains("off 0 62 @100"), "scheduled voices end no earlier than they start");
+        assertTrue(events.contains("off 0 64 @50"));
+        assertEquals(0, voices.getActiveCount());
+    }
+}